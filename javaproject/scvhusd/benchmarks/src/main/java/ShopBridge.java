@@ -0,0 +1,121 @@
+import benchmarks.Shop;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The benchmarks' way into the application classes
+ * Lives in the unnamed package next to them, so it can call the package-private store and
+ * server methods the benchmarks measure.
+ */
+public class ShopBridge implements Shop {
+
+    private static final String[] NAMES = { "Classic T-Shirt", "Hoodie", "Sneakers", "Backpack", "Wireless Earbuds", "Notebook" };
+    private static final long[] PRICES = { 1499, 2999, 5999, 3499, 4999, 749 };
+
+    @Override
+    public void generateHistory(Path dataDir, int transactions) throws IOException {
+        SyntheticDataGenerator.generate(dataDir, transactions);
+    }
+
+    @Override
+    public List<?> loadAllTransactions() {
+        return SimpleFileBasedDataStore.loadAllTransactions();
+    }
+
+    @Override
+    public List<?> loadAllTransactionsUncached() {
+        return SimpleFileBasedDataStore.loadTextTransactions();
+    }
+
+    @Override
+    public int getNextTransactionId() throws IOException {
+        return SimpleFileBasedDataStore.getNextTransactionId();
+    }
+
+    @Override
+    public int saveTransaction(int lineItems) throws IOException {
+        SimpleFileBasedDataStore.SimpleTransaction t = sampleTransaction(lineItems);
+        t.transactionId = SimpleFileBasedDataStore.getNextTransactionId();
+        t.transactionDate = LocalDateTime.now();
+        for (SimpleFileBasedDataStore.SimpleLineItem item : t.lineItems) {
+            item.transactionId = t.transactionId;
+        }
+        SimpleFileBasedDataStore.saveTransaction(t);
+        return t.transactionId;
+    }
+
+    @Override
+    public Object parseCheckout(byte[] body) throws IOException {
+        return EcommerceServer.parseCheckout(new ByteArrayInputStream(body));
+    }
+
+    @Override
+    public List<?> sampleTransactions(int count) {
+        List<SimpleFileBasedDataStore.SimpleTransaction> transactions = new ArrayList<>(count);
+        LocalDateTime date = LocalDateTime.of(2025, 1, 1, 9, 0, 0);
+        for (int i = 1; i <= count; i++) {
+            SimpleFileBasedDataStore.SimpleTransaction t = sampleTransaction(1 + i % 3);
+            t.transactionId = i;
+            t.transactionDate = date.plusMinutes(i);
+            transactions.add(t);
+        }
+        return transactions;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int writeTransactionsJson(List<?> transactions) {
+        JsonWriter json = JsonWriter.acquire();
+        EcommerceServer.writeTransactions(json, (List<SimpleFileBasedDataStore.SimpleTransaction>) transactions);
+        return json.size();
+    }
+
+    @Override
+    public List<?> sampleProducts(int count) {
+        List<ProductCatalog.Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(new ProductCatalog.Product(String.format("SKU-%05d", i), NAMES[i % NAMES.length] + " " + i,
+                PRICES[i % PRICES.length], "Synthetic catalog entry number " + i));
+        }
+        return products;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] productsJson(List<?> products) {
+        return ProductCatalog.toJson((List<ProductCatalog.Product>) products);
+    }
+
+    @Override
+    public HttpHandler checkoutHandler() {
+        return new EcommerceServer.CheckoutHandler();
+    }
+
+    private static SimpleFileBasedDataStore.SimpleTransaction sampleTransaction(int lineItems) {
+        SimpleFileBasedDataStore.SimpleTransaction t = new SimpleFileBasedDataStore.SimpleTransaction();
+        for (int i = 0; i < lineItems; i++) {
+            SimpleFileBasedDataStore.SimpleLineItem item = new SimpleFileBasedDataStore.SimpleLineItem();
+            item.description = NAMES[i % NAMES.length];
+            item.quantity = 1 + i % 4;
+            item.unitPriceCents = PRICES[i % PRICES.length];
+            item.lineTotalCents = Money.times(item.unitPriceCents, item.quantity);
+            t.subtotalCents += item.lineTotalCents;
+            t.lineItems.add(item);
+        }
+        t.taxRateBasisPoints = 850;
+        t.taxAmountCents = Money.tax(t.subtotalCents, t.taxRateBasisPoints);
+        t.totalDueCents = t.subtotalCents + t.taxAmountCents;
+        t.paymentMethod = "CARD";
+        t.amountPaidCents = t.totalDueCents;
+        t.cardNumberMasked = "****-****-****-4242";
+        t.cardHolderName = "Benchmark Customer";
+        t.cardExpiry = "12/29";
+        return t;
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import com.sun.net.httpserver.HttpHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One POST /api/checkout through CheckoutHandler, in-process
+ * Covers everything the server does for a checkout except the socket: parsing the body,
+ * pricing the order, leasing an ID, the durable save and writing the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CheckoutBenchmark {
+
+    @Param({ "10000" })
+    int historySize;
+
+    @Param({ "1", "20" })
+    int items;
+
+    private HttpHandler handler;
+    private Path dataDir;
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataDir = Fixtures.useCopyOf(historySize);
+        handler = Shop.load().checkoutHandler();
+        body = Fixtures.checkoutBody(items);
+        InMemoryExchange exchange = checkout();
+        if (exchange.getResponseCode() != 200) {
+            throw new IllegalStateException("Checkout failed with " + exchange.getResponseCode() + ": "
+                + new String(exchange.responseBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dataDir);
+    }
+
+    @Benchmark
+    public InMemoryExchange checkout() throws IOException {
+        InMemoryExchange exchange = new InMemoryExchange("POST", "/api/checkout", body);
+        handler.handle(exchange);
+        return exchange;
+    }
+}
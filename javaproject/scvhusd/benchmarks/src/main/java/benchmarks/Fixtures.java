@@ -0,0 +1,107 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic transaction histories and request bodies for the benchmarks
+ * A history of n transactions is generated once into <bench.fixtures>/<n> (by default under
+ * java.io.tmpdir) and reused by later runs; the generator is seeded, so every machine gets the
+ * same files. The store reads its directory from store.dir once, when its class is loaded, so
+ * the use methods must run before anything touches the application.
+ * Usage: java -cp benchmarks.jar benchmarks.Fixtures [transactions...]   (default 10000 1000000 10000000)
+ */
+public final class Fixtures {
+
+    static final Path ROOT = Paths.get(System.getProperty("bench.fixtures",
+        Paths.get(System.getProperty("java.io.tmpdir"), "scvhusd-fixtures").toString()));
+    private static final String[] DATA_FILES = { "transactions.txt", "line_items.txt" };
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Points the store at the fixture with the given number of transactions, for read-only use
+     */
+    static Path use(int transactions) throws IOException {
+        Path dir = ROOT.resolve(Integer.toString(transactions));
+        System.setProperty("store.dir", dir.toString());
+        return history(transactions);
+    }
+
+    /**
+     * Points the store at a new temporary directory holding a copy of the fixture, for benchmarks that write
+     * @param transactions history size, or 0 for an empty store
+     */
+    static Path useCopyOf(int transactions) throws IOException {
+        Path dir = Files.createTempDirectory("scvhusd-bench");
+        System.setProperty("store.dir", dir.toString());
+        if (transactions > 0) {
+            Path fixture = history(transactions);
+            for (String name : DATA_FILES) {
+                Files.copy(fixture.resolve(name), dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Directory of the fixture with the given number of transactions, generated if missing
+     */
+    static Path history(int transactions) throws IOException {
+        Path dir = ROOT.resolve(Integer.toString(transactions));
+        if (!Files.exists(dir.resolve(COMPLETE_MARKER))) {
+            long start = System.nanoTime();
+            Shop.load().generateHistory(dir, transactions);
+            Files.createFile(dir.resolve(COMPLETE_MARKER));
+            System.out.printf("Generated %,d transactions in %s in %,d ms%n",
+                transactions, dir, (System.nanoTime() - start) / 1_000_000);
+        }
+        return dir;
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    /**
+     * A checkout request body for a card payment with the given number of cart items
+     */
+    static byte[] checkoutBody(int items) {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"Product ").append(i % 50)
+                .append("\",\"price\":").append(5 + i % 20).append(".99")
+                .append(",\"quantity\":").append(1 + i % 3).append('}');
+        }
+        json.append("],\"paymentMethod\":\"CARD\",\"cardLast4\":\"4242\",")
+            .append("\"cardHolderName\":\"Benchmark Customer\",\"cardExpiry\":\"12/29\"}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] sizes = args.length > 0 ? args : new String[] { "10000", "1000000", "10000000" };
+        for (String size : sizes) {
+            Path dir = history(Integer.parseInt(size));
+            System.out.printf("%s: %,d + %,d bytes%n", dir,
+                Files.size(dir.resolve(DATA_FILES[0])), Files.size(dir.resolve(DATA_FILES[1])));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server's JSON reading and writing, without any I/O
+ * size is the number of cart items parsed, transactions written (a page of
+ * /api/transactions) or products written (the /api/products catalog).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JsonCodecBenchmark {
+
+    @Param({ "1", "50", "1000" })
+    int size;
+
+    private Shop shop;
+    private Path dataDir;
+    private byte[] checkoutBody;
+    private List<?> transactions;
+    private List<?> products;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The server keeps its idempotency key log in the store directory
+        dataDir = Fixtures.useCopyOf(0);
+        shop = Shop.load();
+        checkoutBody = Fixtures.checkoutBody(size);
+        transactions = shop.sampleTransactions(size);
+        products = shop.sampleProducts(size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dataDir);
+    }
+
+    @Benchmark
+    public Object parseCheckout() throws IOException {
+        return shop.parseCheckout(checkoutBody);
+    }
+
+    @Benchmark
+    public int writeTransactions() {
+        return shop.writeTransactionsJson(transactions);
+    }
+
+    @Benchmark
+    public byte[] productsToJson() {
+        return shop.productsJson(products);
+    }
+}
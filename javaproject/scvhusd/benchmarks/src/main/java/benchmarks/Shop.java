@@ -0,0 +1,55 @@
+package benchmarks;
+
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The application operations the benchmarks measure
+ * JMH only runs benchmarks in a named package, and code in a package cannot refer to the
+ * application classes in the unnamed package, so ShopBridge implements this over there and is
+ * loaded by name. Data passed back and forth is opaque here.
+ */
+public interface Shop {
+
+    static Shop load() {
+        try {
+            return (Shop) Class.forName("ShopBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ShopBridge is not on the class path", e);
+        }
+    }
+
+    /** Writes a synthetic history of transactions 1 to count into dataDir (see SyntheticDataGenerator) */
+    void generateHistory(Path dataDir, int transactions) throws IOException;
+
+    /** SimpleFileBasedDataStore.loadAllTransactions, served from the process-wide cache */
+    List<?> loadAllTransactions();
+
+    /** Parses the whole history again, as the first loadAllTransactions does */
+    List<?> loadAllTransactionsUncached();
+
+    int getNextTransactionId() throws IOException;
+
+    /** Saves a card transaction with the given number of line items under a new ID and returns the ID */
+    int saveTransaction(int lineItems) throws IOException;
+
+    /** EcommerceServer.parseCheckout of a request body */
+    Object parseCheckout(byte[] body) throws IOException;
+
+    /** Transactions with one to three line items each, as a page from the store would hold */
+    List<?> sampleTransactions(int count);
+
+    /** EcommerceServer.writeTransactions into the thread's JsonWriter; returns the JSON size */
+    int writeTransactionsJson(List<?> transactions);
+
+    List<?> sampleProducts(int count);
+
+    /** ProductCatalog.toJson */
+    byte[] productsJson(List<?> products);
+
+    /** A new EcommerceServer.CheckoutHandler */
+    HttpHandler checkoutHandler();
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the transaction history at several sizes
+ * loadAllTransactions is what every request pays once the cache is warm (checking the files for
+ * appended records); the uncached load is what the first request or a restart pays.
+ * 10,000,000 transactions need a bigger heap: -p historySize=10000000 -jvmArgsAppend -Xmx16g
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StoreLoadBenchmark {
+
+    @Param({ "10000", "1000000" })
+    int historySize;
+
+    private Shop shop;
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.use(historySize);
+        shop = Shop.load();
+        if (shop.loadAllTransactions().size() != historySize) {
+            throw new IllegalStateException("Fixture does not hold " + historySize + " transactions");
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> loadAllTransactions() {
+        return shop.loadAllTransactions();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<?> loadAllTransactionsUncached() {
+        return shop.loadAllTransactionsUncached();
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending to the transaction history at several sizes
+ * Each fork works on its own copy of the fixture, deleted afterwards. saveTransaction waits for
+ * the journal's fsync (store.fsync, batch by default; try -jvmArgsAppend -Dstore.fsync=never)
+ * and then folds the new record into the sales aggregates, as the console does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StoreWriteBenchmark {
+
+    @Param({ "10000", "1000000" })
+    int historySize;
+
+    @Param({ "2" })
+    int lineItems;
+
+    private Shop shop;
+    private Path dataDir;
+    private PrintStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataDir = Fixtures.useCopyOf(historySize);
+        shop = Shop.load();
+        // The first ID lease and save read the history and build the sidecar files
+        shop.getNextTransactionId();
+        // saveTransaction reports every save on stdout
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        shop.saveTransaction(lineItems);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        Fixtures.delete(dataDir);
+    }
+
+    @Benchmark
+    public int saveTransaction() throws IOException {
+        return shop.saveTransaction(lineItems);
+    }
+
+    @Benchmark
+    public int getNextTransactionId() throws IOException {
+        return shop.getNextTransactionId();
+    }
+}
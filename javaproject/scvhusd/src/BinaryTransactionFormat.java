@@ -0,0 +1,314 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Length-prefixed binary record format for transactions
+ * Each record is [int payload length][payload][int CRC32 of payload] and embeds its line items.
+ * Amounts are stored as long cents (the tax rate in basis points) and dates as epoch milliseconds
+ * (the local date-time read as UTC), so loading needs no text parsing and names may contain any
+ * character, including '|'. Version 1 records held the amounts as doubles; they are still read.
+ */
+public class BinaryTransactionFormat {
+
+    private static final byte VERSION = 2;
+    private static final byte VERSION_DOUBLE_AMOUNTS = 1;
+    private static final int HEADER_BYTES = 4;
+    private static final int TRAILER_BYTES = 4;
+    private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+
+    /**
+     * Encodes a transaction and its line items as one framed record
+     */
+    public static byte[] encode(SimpleFileBasedDataStore.SimpleTransaction transaction) {
+        byte[][] strings = {
+            utf8(transaction.paymentMethod),
+            utf8(transaction.cardNumberMasked),
+            utf8(transaction.cardHolderName),
+            utf8(transaction.cardExpiry)
+        };
+        int itemCount = transaction.lineItems != null ? transaction.lineItems.size() : 0;
+        byte[][] descriptions = new byte[itemCount][];
+
+        int payloadLength = 1 + 4 + 8 + 8 * 6 + 4;
+        for (byte[] s : strings) {
+            payloadLength += 4 + (s != null ? s.length : 0);
+        }
+        for (int i = 0; i < itemCount; i++) {
+            descriptions[i] = utf8(transaction.lineItems.get(i).description);
+            payloadLength += 4 + (descriptions[i] != null ? descriptions[i].length : 0) + 4 + 8 + 8;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadLength + TRAILER_BYTES);
+        buffer.putInt(payloadLength);
+        buffer.put(VERSION);
+        buffer.putInt(transaction.transactionId);
+        buffer.putLong(toEpochMillis(transaction.transactionDate));
+        buffer.putLong(transaction.subtotalCents);
+        buffer.putLong(transaction.taxRateBasisPoints);
+        buffer.putLong(transaction.taxAmountCents);
+        buffer.putLong(transaction.totalDueCents);
+        putString(buffer, strings[0]);
+        buffer.putLong(transaction.amountPaidCents);
+        buffer.putLong(transaction.changeAmountCents);
+        putString(buffer, strings[1]);
+        putString(buffer, strings[2]);
+        putString(buffer, strings[3]);
+        buffer.putInt(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            SimpleFileBasedDataStore.SimpleLineItem item = transaction.lineItems.get(i);
+            putString(buffer, descriptions[i]);
+            buffer.putInt(item.quantity);
+            buffer.putLong(item.unitPriceCents);
+            buffer.putLong(item.lineTotalCents);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, payloadLength);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Reads every complete, valid record starting at the given offset
+     * @return the offset just past the last record read
+     */
+    public static long readRecords(Path file, long fromOffset,
+                                   Consumer<SimpleFileBasedDataStore.SimpleTransaction> sink) throws IOException {
+        return readRecords(file, fromOffset, Long.MAX_VALUE,
+            (SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleTransaction>) (t, start, end) -> sink.accept(t));
+    }
+
+    /**
+     * Reads every complete, valid record between the given offsets, reporting each record's byte range
+     * @param toOffset offset to stop at, or Long.MAX_VALUE for the end of the file
+     * @return the offset just past the last record read
+     */
+    public static long readRecords(Path file, long fromOffset, long toOffset,
+                                   SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleTransaction> sink)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel, fromOffset, toOffset, sink);
+        } catch (NoSuchFileException e) {
+            return fromOffset;
+        }
+    }
+
+    /**
+     * Validates the file and truncates an incomplete or corrupt record at its tail
+     * A corrupt record followed by further data is reported but left in place.
+     * @return the number of bytes removed
+     */
+    public static long truncateTornTail(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                long size = channel.size();
+                long validEnd = scan(channel, 0, Long.MAX_VALUE, null);
+                if (validEnd == size) {
+                    return 0;
+                }
+                if (!isTail(channel, validEnd, size)) {
+                    System.err.println("Corrupt record at offset " + validEnd + " in " + file + "; records after it are not readable");
+                    return 0;
+                }
+                channel.truncate(validEnd);
+                channel.force(true);
+                System.err.println("Truncated torn record at offset " + validEnd + " in " + file + " (" + (size - validEnd) + " bytes)");
+                return size - validEnd;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Whether the unreadable bytes starting at offset are the last record in the file
+     */
+    private static boolean isTail(FileChannel channel, long offset, long size) throws IOException {
+        if (size - offset < HEADER_BYTES) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, offset);
+        int payloadLength = header.getInt(0);
+        if (payloadLength <= 0 || payloadLength > MAX_PAYLOAD_BYTES) {
+            return true;
+        }
+        return offset + HEADER_BYTES + payloadLength + TRAILER_BYTES >= size;
+    }
+
+    private static long scan(FileChannel channel, long fromOffset, long toOffset,
+                             SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleTransaction> sink)
+            throws IOException {
+        long size = Math.min(channel.size(), toOffset);
+        long offset = fromOffset;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_BYTES, Math.max(HEADER_BYTES, size - fromOffset)));
+        buffer.limit(0);
+        long bufferStart = offset;
+        CRC32 crc = new CRC32();
+        long records = 0;
+
+        while (offset < size) {
+            int position = (int) (offset - bufferStart);
+            if (buffer.limit() - position < HEADER_BYTES) {
+                buffer = refill(channel, buffer, offset, HEADER_BYTES);
+                bufferStart = offset;
+                position = 0;
+                if (buffer.limit() < HEADER_BYTES) {
+                    break;
+                }
+            }
+            int payloadLength = buffer.getInt(position);
+            if (payloadLength <= 0 || payloadLength > MAX_PAYLOAD_BYTES) {
+                break;
+            }
+            int recordLength = HEADER_BYTES + payloadLength + TRAILER_BYTES;
+            if (offset + recordLength > size) {
+                break;
+            }
+            if (buffer.limit() - position < recordLength) {
+                buffer = refill(channel, buffer, offset, recordLength);
+                bufferStart = offset;
+                position = 0;
+                if (buffer.limit() < recordLength) {
+                    break;
+                }
+            }
+
+            crc.reset();
+            crc.update(buffer.array(), position + HEADER_BYTES, payloadLength);
+            if ((int) crc.getValue() != buffer.getInt(position + HEADER_BYTES + payloadLength)) {
+                break;
+            }
+            if (sink != null) {
+                sink.accept(decode(buffer, position + HEADER_BYTES), offset, offset + recordLength);
+                records++;
+            }
+            offset += recordLength;
+        }
+        StoreMetrics.BINARY_TRANSACTIONS_LOADED.add(records);
+        StoreMetrics.BINARY_BYTES_SCANNED.add(offset - fromOffset);
+        return offset;
+    }
+
+    /**
+     * Reloads the buffer starting at offset so that at least needed bytes are available if the file has them
+     */
+    private static ByteBuffer refill(FileChannel channel, ByteBuffer buffer, long offset, int needed) throws IOException {
+        if (buffer.capacity() < needed) {
+            buffer = ByteBuffer.allocate(needed);
+        }
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset + buffer.position());
+            if (n <= 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+            // keep reading until full or end of file
+        }
+    }
+
+    private static SimpleFileBasedDataStore.SimpleTransaction decode(ByteBuffer buffer, int position) throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        in.position(position);
+        byte version = in.get();
+        if (version != VERSION && version != VERSION_DOUBLE_AMOUNTS) {
+            throw new IOException("Unsupported record version " + version);
+        }
+        boolean doubles = version == VERSION_DOUBLE_AMOUNTS;
+
+        SimpleFileBasedDataStore.SimpleTransaction transaction = new SimpleFileBasedDataStore.SimpleTransaction();
+        transaction.transactionId = in.getInt();
+        transaction.transactionDate = fromEpochMillis(in.getLong());
+        transaction.subtotalCents = getAmount(in, doubles);
+        transaction.taxRateBasisPoints = getAmount(in, doubles);
+        transaction.taxAmountCents = getAmount(in, doubles);
+        transaction.totalDueCents = getAmount(in, doubles);
+        transaction.paymentMethod = paymentMethod(getString(in));
+        transaction.amountPaidCents = getAmount(in, doubles);
+        transaction.changeAmountCents = getAmount(in, doubles);
+        transaction.cardNumberMasked = getString(in);
+        transaction.cardHolderName = getString(in);
+        transaction.cardExpiry = getString(in);
+
+        int itemCount = in.getInt();
+        for (int i = 0; i < itemCount; i++) {
+            SimpleFileBasedDataStore.SimpleLineItem item = new SimpleFileBasedDataStore.SimpleLineItem();
+            item.transactionId = transaction.transactionId;
+            item.description = getString(in);
+            item.quantity = in.getInt();
+            item.unitPriceCents = getAmount(in, doubles);
+            item.lineTotalCents = getAmount(in, doubles);
+            transaction.lineItems.add(item);
+        }
+        return transaction;
+    }
+
+    /**
+     * Reads an amount in cents (or a rate in basis points), converting a version 1 double
+     */
+    private static long getAmount(ByteBuffer in, boolean doubles) {
+        return doubles ? Money.fromDouble(in.getDouble()) : in.getLong();
+    }
+
+    static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    static LocalDateTime fromEpochMillis(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+    }
+
+    private static String paymentMethod(String method) {
+        // Share the two common values instead of keeping a copy per record
+        if ("CASH".equals(method)) return "CASH";
+        if ("CARD".equals(method)) return "CARD";
+        return method;
+    }
+
+    private static byte[] utf8(String s) {
+        return s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test that binary records with a bad checksum are not read, and that a torn tail is truncated
+ * Writes into store.dir, so run it in a scratch directory:
+ * java -Dstore.dir=DIR BinaryTransactionFormatTest
+ */
+public class BinaryTransactionFormatTest {
+
+    private static final Path FILE = SimpleFileBasedDataStore.DATA_DIR.resolve("binary-format-test.dat");
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== Binary Transaction Format Test ===");
+
+        testRoundTrip();
+        testChecksumMismatch();
+        testTornTail();
+        testCorruptRecordBeforeData();
+
+        Files.deleteIfExists(FILE);
+        System.out.println(failures == 0 ? "=== Test completed ===" : "=== " + failures + " check(s) failed ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void testRoundTrip() throws IOException {
+        System.out.println("Testing a round trip...");
+        byte[] first = BinaryTransactionFormat.encode(transaction(1, "Coffee|Large"));
+        byte[] second = BinaryTransactionFormat.encode(transaction(2, "Tea"));
+        Files.write(FILE, concat(first, second));
+
+        List<SimpleFileBasedDataStore.SimpleTransaction> read = read();
+        check(read.size() == 2, "both records were read");
+        if (read.size() == 2) {
+            SimpleFileBasedDataStore.SimpleTransaction t = read.get(0);
+            check(t.transactionId == 1 && t.totalDueCents == 2713 && t.cardHolderName.equals("Ada"),
+                "fields came back unchanged");
+            check(t.lineItems.size() == 1 && t.lineItems.get(0).description.equals("Coffee|Large"),
+                "a line item with '|' in its name came back unchanged");
+        }
+    }
+
+    private static void testChecksumMismatch() throws IOException {
+        System.out.println("Testing a checksum mismatch...");
+        byte[] first = BinaryTransactionFormat.encode(transaction(1, "Coffee"));
+        byte[] second = BinaryTransactionFormat.encode(transaction(2, "Tea"));
+        second[10] ^= 0x01; // a payload byte, so the stored CRC no longer matches
+        Files.write(FILE, concat(first, second));
+
+        List<SimpleFileBasedDataStore.SimpleTransaction> read = new ArrayList<>();
+        long end = BinaryTransactionFormat.readRecords(FILE, 0, read::add);
+        check(read.size() == 1 && read.get(0).transactionId == 1, "only the record before it was read");
+        check(end == first.length, "reading stopped at the damaged record");
+
+        long removed = BinaryTransactionFormat.truncateTornTail(FILE);
+        check(removed == second.length && Files.size(FILE) == first.length, "the damaged last record was truncated");
+    }
+
+    private static void testTornTail() throws IOException {
+        System.out.println("Testing a torn tail...");
+        byte[] first = BinaryTransactionFormat.encode(transaction(1, "Coffee"));
+        byte[] second = BinaryTransactionFormat.encode(transaction(2, "Tea"));
+        Files.write(FILE, concat(first, Arrays.copyOf(second, second.length / 2)));
+
+        check(read().size() == 1, "the half-written record is not read");
+        long removed = BinaryTransactionFormat.truncateTornTail(FILE);
+        check(removed == second.length / 2 && Files.size(FILE) == first.length, "the half-written record was truncated");
+        check(BinaryTransactionFormat.truncateTornTail(FILE) == 0, "a valid file is left alone");
+
+        Files.write(FILE, concat(Files.readAllBytes(FILE), second));
+        check(read().size() == 2, "a record appended after truncation is read");
+    }
+
+    private static void testCorruptRecordBeforeData() throws IOException {
+        System.out.println("Testing a corrupt record followed by more data...");
+        byte[] first = BinaryTransactionFormat.encode(transaction(1, "Coffee"));
+        byte[] second = BinaryTransactionFormat.encode(transaction(2, "Tea"));
+        byte[] third = BinaryTransactionFormat.encode(transaction(3, "Scone"));
+        second[10] ^= 0x01;
+        Files.write(FILE, concat(concat(first, second), third));
+
+        check(BinaryTransactionFormat.truncateTornTail(FILE) == 0, "nothing was truncated");
+        check(Files.size(FILE) == first.length + second.length + third.length, "the records after it were kept");
+    }
+
+    private static SimpleFileBasedDataStore.SimpleTransaction transaction(int id, String itemName) {
+        SimpleFileBasedDataStore.SimpleTransaction t = new SimpleFileBasedDataStore.SimpleTransaction();
+        t.transactionId = id;
+        t.transactionDate = LocalDateTime.of(2025, 1, 1, 10, 0);
+        t.subtotalCents = 2500;
+        t.taxRateBasisPoints = 850;
+        t.taxAmountCents = 213;
+        t.totalDueCents = 2713;
+        t.paymentMethod = "CARD";
+        t.amountPaidCents = 2713;
+        t.changeAmountCents = 0;
+        t.cardNumberMasked = "****4242";
+        t.cardHolderName = "Ada";
+        t.cardExpiry = "12/30";
+        SimpleFileBasedDataStore.SimpleLineItem item = new SimpleFileBasedDataStore.SimpleLineItem();
+        item.transactionId = id;
+        item.description = itemName;
+        item.quantity = 2;
+        item.unitPriceCents = 1250;
+        item.lineTotalCents = 2500;
+        t.lineItems.add(item);
+        return t;
+    }
+
+    private static List<SimpleFileBasedDataStore.SimpleTransaction> read() throws IOException {
+        List<SimpleFileBasedDataStore.SimpleTransaction> read = new ArrayList<>();
+        BinaryTransactionFormat.readRecords(FILE, 0, read::add);
+        return read;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("✓ " + what);
+        } else {
+            System.out.println("✗ " + what);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import com.sun.net.httpserver.HttpServer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * Test that checkout rejects text which would inject rows into the data files
+ * Starts the server on a free port and saves into store.dir, so run it in a scratch directory:
+ * java -Dstore.dir=DIR CheckoutValidationTest
+ */
+public class CheckoutValidationTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Checkout Validation Test ===");
+        HttpServer server = EcommerceServer.start(0);
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            HttpClient client = HttpClient.newHttpClient();
+
+            testInjectedCardHolderName(client, base);
+            testInjectedItemName(client, base);
+            testInjectedBatchOrder(client, base);
+        } finally {
+            server.stop(0);
+        }
+
+        System.out.println(failures == 0 ? "=== Test completed ===" : "=== " + failures + " check(s) failed ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void testInjectedCardHolderName(HttpClient client, String base) throws Exception {
+        System.out.println("Testing a line break in cardHolderName...");
+        int before = SimpleFileBasedDataStore.loadAllTransactions().size();
+        String body = "{\"items\":[{\"name\":\"Coffee\",\"price\":5.00,\"quantity\":1}],"
+            + "\"paymentMethod\":\"CARD\",\"cardLast4\":\"4242\",\"cardExpiry\":\"12/30\","
+            + "\"cardHolderName\":\"Eve\\n12|2025-01-01 00:00:00|1.00|0.00|0.00|1.00|CASH|1.00|0.00||\"}";
+        HttpResponse<String> response = post(client, base + "/api/checkout", body);
+        check(response.statusCode() == 400, "checkout answered 400 (got " + response.statusCode() + ")");
+        check(SimpleFileBasedDataStore.loadAllTransactions().size() == before, "no transaction was saved");
+    }
+
+    private static void testInjectedItemName(HttpClient client, String base) throws Exception {
+        System.out.println("Testing a pipe in an item name...");
+        String body = "{\"items\":[{\"name\":\"Coffee|99\",\"price\":5.00,\"quantity\":1}],"
+            + "\"paymentMethod\":\"CASH\",\"amountPaid\":10.00}";
+        HttpResponse<String> response = post(client, base + "/api/checkout", body);
+        // Binary records are length-prefixed, so only the text files refuse a '|'
+        int expected = SimpleFileBasedDataStore.BINARY_FORMAT ? 200 : 400;
+        check(response.statusCode() == expected, "checkout answered " + expected + " (got " + response.statusCode() + ")");
+    }
+
+    private static void testInjectedBatchOrder(HttpClient client, String base) throws Exception {
+        System.out.println("Testing a carriage return in a batch order...");
+        String body = "[{\"items\":[{\"name\":\"Tea\",\"price\":3.00,\"quantity\":1}],"
+            + "\"paymentMethod\":\"CARD\",\"cardLast4\":\"42\\r\\n\",\"cardHolderName\":\"Eve\",\"cardExpiry\":\"12/30\"}]";
+        HttpResponse<String> response = post(client, base + "/api/checkout/batch", body);
+        check(response.statusCode() == 200 && response.body().contains("\"rejected\":1"),
+            "batch order was rejected (got " + response.statusCode() + " " + response.body() + ")");
+    }
+
+    private static HttpResponse<String> post(HttpClient client, String url, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("✓ " + what);
+        } else {
+            System.out.println("✗ " + what);
+            failures++;
+        }
+    }
+}
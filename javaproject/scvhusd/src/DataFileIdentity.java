@@ -0,0 +1,140 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Identifies the contents of a data file by a CRC32 of the start of its first segment
+ * Everything derived from a data file (indexes, postings, totals, rollups) keeps the identity
+ * of the contents it was built from and starts over when the file no longer matches it. That
+ * catches a file rewritten in place at the same or a larger size, which a check for a file
+ * smaller than the covered offset misses. While the first segment is shorter than PREFIX_BYTES
+ * the identity covers what there is, and holders take a fresh one as the file grows.
+ */
+public final class DataFileIdentity {
+
+    static final int PREFIX_BYTES = 4096;
+    /** Size of an identity written with put or write */
+    static final int BYTES = 4 + 8;
+    /** Size of the header of an append-only sidecar: a magic number and the identity */
+    static final int HEADER_BYTES = 4 + BYTES;
+    /** Identity of an empty file, matched by any contents */
+    static final DataFileIdentity EMPTY = new DataFileIdentity(0, 0);
+
+    private static final int HEADER_MAGIC = 0x53494431; // "SID1"
+
+    private final int length;
+    private final long crc;
+
+    private DataFileIdentity(int length, long crc) {
+        this.length = length;
+        this.crc = crc;
+    }
+
+    /**
+     * Identity of the file's current contents
+     */
+    static DataFileIdentity of(SegmentedFile file) throws IOException {
+        byte[] prefix = readPrefix(file, PREFIX_BYTES);
+        return prefix.length == 0 ? EMPTY : new DataFileIdentity(prefix.length, crc(prefix));
+    }
+
+    /**
+     * Whether the file still starts with the bytes this identity was taken from
+     */
+    boolean matches(SegmentedFile file) throws IOException {
+        if (length == 0) {
+            return true;
+        }
+        byte[] prefix = readPrefix(file, length);
+        return prefix.length == length && crc(prefix) == crc;
+    }
+
+    /**
+     * This identity if it already covers PREFIX_BYTES, otherwise a fresh one of the file
+     */
+    DataFileIdentity refresh(SegmentedFile file) throws IOException {
+        return length == PREFIX_BYTES ? this : of(file);
+    }
+
+    void put(ByteBuffer buffer) {
+        buffer.putInt(length).putLong(crc);
+    }
+
+    static DataFileIdentity get(ByteBuffer buffer) {
+        return new DataFileIdentity(buffer.getInt(), buffer.getLong());
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(length);
+        out.writeLong(crc);
+    }
+
+    static DataFileIdentity read(DataInput in) throws IOException {
+        return new DataFileIdentity(in.readInt(), in.readLong());
+    }
+
+    /**
+     * Validates the header of an append-only sidecar; call it while holding the sidecar's lock
+     * A sidecar without a header (new, or from before headers) or with the identity of other
+     * contents is truncated to a fresh header. A valid header is extended as the data file grows.
+     * @return whether the sidecar was reset, so records read from it earlier no longer apply
+     */
+    static boolean checkHeader(FileChannel sidecar, SegmentedFile dataFile) throws IOException {
+        DataFileIdentity stored = null;
+        if (sidecar.size() >= HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && sidecar.read(header, header.position()) > 0) {
+                // keep reading until full
+            }
+            header.flip();
+            if (header.getInt() == HEADER_MAGIC) {
+                stored = get(header);
+            }
+        }
+        if (stored != null && stored.matches(dataFile)) {
+            DataFileIdentity current = stored.refresh(dataFile);
+            if (current.length > stored.length) {
+                writeHeader(sidecar, current);
+            }
+            return false;
+        }
+        sidecar.truncate(0);
+        writeHeader(sidecar, of(dataFile));
+        return true;
+    }
+
+    private static void writeHeader(FileChannel sidecar, DataFileIdentity identity) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(HEADER_MAGIC);
+        identity.put(header);
+        header.flip();
+        while (header.hasRemaining()) {
+            sidecar.write(header, header.position());
+        }
+    }
+
+    private static byte[] readPrefix(SegmentedFile file, int max) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.getFirstFile(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), max));
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+                // keep reading until full or end of file
+            }
+            byte[] prefix = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, prefix, 0, prefix.length);
+            return prefix;
+        } catch (NoSuchFileException e) {
+            return new byte[0];
+        }
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
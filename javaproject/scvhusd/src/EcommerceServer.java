@@ -7,34 +7,301 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class EcommerceServer {
 
     private static final int PORT = 8080;
-    private static final double TAX_RATE = 8.5; // must match MenuDrivenPaymentConsole
+    private static final long TAX_RATE_BASIS_POINTS = 850; // 8.5%, must match MenuDrivenPaymentConsole
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_TOP_PRODUCTS = 100;
+
+    // Request execution: -Dserver.executor=virtual (default), pool or dispatcher (the old single thread)
+    private static final String EXECUTOR_MODE = System.getProperty("server.executor", "virtual");
+    private static final int POOL_THREADS = Integer.getInteger("server.threads", Runtime.getRuntime().availableProcessors() * 4);
+    // At most this many requests touch the store at once; the rest wait briefly, then get a 503
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("server.maxInFlight", 256);
+    private static final long QUEUE_TIMEOUT_MS = Long.getLong("server.queueTimeoutMs", 100);
+    private static final Semaphore STORE_PERMITS = new Semaphore(MAX_IN_FLIGHT);
+
+    // Static files are served from memory; -Dserver.watchStatic=true reloads them when they change
+    private static final boolean WATCH_STATIC_FILES = Boolean.getBoolean("server.watchStatic");
+    private static final long STATIC_MAX_AGE_SECONDS = Long.getLong("server.staticMaxAge", 300);
+
+    // Checkout payload limits
+    private static final long MAX_BODY_BYTES = Long.getLong("server.maxBodyBytes", 1024 * 1024);
+    private static final int MAX_JSON_DEPTH = Integer.getInteger("server.maxJsonDepth", 16);
+    private static final int MAX_CART_ITEMS = Integer.getInteger("server.maxCartItems", 10_000);
+    // Batch checkout limits
+    private static final long MAX_BATCH_BODY_BYTES = Long.getLong("server.maxBatchBodyBytes", 32L * 1024 * 1024);
+    private static final int MAX_BATCH_ORDERS = Integer.getInteger("server.maxBatchOrders", 50_000);
+    // Successful checkouts remembered by Idempotency-Key, most recent first, for a limited time
+    private static final IdempotencyCache IDEMPOTENCY_KEYS = new IdempotencyCache(
+        SimpleFileBasedDataStore.IDEMPOTENCY_KEY_LOG_FILE,
+        Integer.getInteger("server.idempotencyKeys", 100_000),
+        TimeUnit.HOURS.toMillis(Long.getLong("server.idempotencyTtlHours", 24)));
+    // How long a retry waits for the original request with its key before getting a 409
+    private static final long IDEMPOTENCY_WAIT_MS = Long.getLong("server.idempotencyWaitMs", 5000);
 
     public static void main(String[] args) throws Exception {
-        HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
+        start(PORT);
+    }
+
+    /**
+     * Starts the server with all its routes and returns it, e.g. for a load test in the same process
+     * @param port port to listen on, or 0 for any free one (see getAddress())
+     */
+    static HttpServer start(int port) throws IOException {
+        // Without TCP_NODELAY a response written in two parts waits for the client's delayed ACK,
+        // about 40 ms on every request over a kept-alive connection
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
 
         // API routes
-        server.createContext("/api/products", new ProductsHandler());
-        server.createContext("/api/transactions", new TransactionsHandler());
-        server.createContext("/api/checkout", new CheckoutHandler());
+        route(server, "/api/products", new ProductsHandler());
+        route(server, "/api/products/top", new BoundedHandler(new TopProductsHandler()));
+        route(server, "/api/transactions", new BoundedHandler(new TransactionsHandler()));
+        // Checkout takes its store permit itself, once it knows the request is not a retry
+        route(server, "/api/checkout", new CheckoutHandler());
+        route(server, "/api/checkout/batch", new BoundedHandler(new BatchCheckoutHandler()));
+        route(server, "/api/summary", new BoundedHandler(new SummaryHandler()));
+        route(server, "/api/sales/timeseries", new BoundedHandler(new TimeseriesHandler()));
+        route(server, "/api/metrics", new MetricsHandler());
 
         // Static files from ../web relative to src when launched via run.bat
-        server.createContext("/", new StaticFileHandler());
+        route(server, "/", new StaticFileHandler());
 
-        server.setExecutor(null);
-        System.out.println("E-commerce server started at http://localhost:" + PORT);
+        server.setExecutor(createExecutor());
         server.start();
+        System.out.println("E-commerce server started at http://localhost:" + server.getAddress().getPort());
+        return server;
+    }
+
+    private static void route(HttpServer server, String path, HttpHandler handler) {
+        server.createContext(path, new MeteredHandler(path, handler));
+    }
+
+    private static Executor createExecutor() {
+        switch (EXECUTOR_MODE.toLowerCase(Locale.ROOT)) {
+            case "dispatcher":
+                System.out.println("Handling requests on the dispatcher thread");
+                return null;
+            case "pool":
+                return createPool();
+            case "virtual":
+                try {
+                    // Looked up reflectively so the server still builds and runs on Java 17
+                    Executor executor = (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                    System.out.println("Handling requests on virtual threads");
+                    return executor;
+                } catch (ReflectiveOperationException e) {
+                    System.out.println("Virtual threads are not available on this JVM; using a thread pool");
+                    return createPool();
+                }
+            default:
+                System.out.println("Unknown server.executor '" + EXECUTOR_MODE + "'; using a thread pool");
+                return createPool();
+        }
+    }
+
+    private static Executor createPool() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        System.out.println("Handling requests on " + POOL_THREADS + " pooled threads");
+        return Executors.newFixedThreadPool(POOL_THREADS, task -> {
+            Thread thread = new Thread(task, "http-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     // --- Handlers ---
+    // Records every request to a route: count by status code, latency and the bytes read and written
+    static class MeteredHandler implements HttpHandler {
+        private static final int STREAMS_POOL_SIZE = 64;
+        private static final ArrayBlockingQueue<CountingStreams> STREAMS = new ArrayBlockingQueue<>(STREAMS_POOL_SIZE);
+
+        private final HttpHandler delegate;
+        private final MetricsRegistry.StatusCounter requests;
+        private final MetricsRegistry.Histogram latency;
+        private final MetricsRegistry.Counter requestBytes;
+        private final MetricsRegistry.Counter responseBytes;
+
+        MeteredHandler(String route, HttpHandler delegate) {
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            this.delegate = delegate;
+            this.requests = metrics.statusCounter("http_requests_total",
+                "Requests handled, by route and status code (0 when the handler failed before responding)", "route", route);
+            this.latency = metrics.histogram("http_request_duration_seconds",
+                "Time from the handler receiving a request until its response was written", "route", route);
+            this.requestBytes = metrics.counter("http_request_bytes_total", "Request body bytes read", "route", route);
+            this.responseBytes = metrics.counter("http_response_bytes_total", "Response body bytes written", "route", route);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            CountingStreams streams = STREAMS.poll();
+            if (streams == null) {
+                streams = new CountingStreams();
+            }
+            streams.wrap(exchange);
+            try {
+                delegate.handle(exchange);
+            } finally {
+                latency.record(System.nanoTime() - start);
+                requests.increment(exchange.getResponseCode());
+                requestBytes.add(streams.in.count);
+                responseBytes.add(streams.out.count);
+                streams.release();
+                STREAMS.offer(streams);
+            }
+        }
+    }
+
+    /**
+     * Counting wrappers for an exchange's body streams, reused through a small pool
+     * Handlers finish with the exchange before returning, so a pair goes back to the pool once
+     * its request is counted. Unlike a pair per thread, that also holds on virtual threads, where
+     * every request runs on a new thread.
+     */
+    private static final class CountingStreams {
+        final CountingInputStream in = new CountingInputStream();
+        final CountingOutputStream out = new CountingOutputStream();
+
+        void wrap(HttpExchange exchange) {
+            in.target = exchange.getRequestBody();
+            in.count = 0;
+            out.target = exchange.getResponseBody();
+            out.count = 0;
+            exchange.setStreams(in, out);
+        }
+
+        void release() {
+            in.target = null;
+            out.target = null;
+        }
+    }
+
+    private static final class CountingInputStream extends InputStream {
+        InputStream target;
+        long count;
+
+        @Override
+        public int read() throws IOException {
+            int b = target.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = target.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return target.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        OutputStream target;
+        long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+
+    // Admits a request to a store-backed handler only while a permit is free
+    static class BoundedHandler implements HttpHandler {
+        private final HttpHandler delegate;
+
+        BoundedHandler(HttpHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!admit()) {
+                sendBusy(exchange);
+                return;
+            }
+            try {
+                delegate.handle(exchange);
+            } finally {
+                STORE_PERMITS.release();
+            }
+        }
+
+        /**
+         * Takes a store permit, waiting briefly for one to free up
+         * @return whether the permit was taken; the caller must release it
+         */
+        static boolean admit() {
+            try {
+                return STORE_PERMITS.tryAcquire(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        static void sendBusy(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, "Server busy, try again");
+        }
+    }
+
     static class ProductsHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -42,9 +309,66 @@ public class EcommerceServer {
                 send(exchange, 405, "Method Not Allowed", "text/plain");
                 return;
             }
-            List<Map<String, Object>> products = getProducts();
-            String json = toJsonArray(products);
-            send(exchange, 200, json, "application/json");
+            // ?q= filters by name prefix; the full list is sent as pre-serialized bytes
+            String q = parseQuery(exchange.getRequestURI().getRawQuery()).get("q");
+            ProductCatalog catalog = ProductCatalog.getDefault();
+            if (q != null && !q.isBlank()) {
+                // Search first: it can reload the catalog, which serializes JSON on this thread
+                List<ProductCatalog.Product> matches = catalog.searchByNamePrefix(q.trim());
+                JsonWriter json = JsonWriter.acquire();
+                ProductCatalog.writeJson(json, matches);
+                sendJson(exchange, 200, json);
+                return;
+            }
+            String etag = catalog.getEtag();
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            send(exchange, 200, catalog.getJson(), "application/json");
+        }
+    }
+
+    static class TopProductsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, "Method Not Allowed", "text/plain");
+                return;
+            }
+            // ?k=10&window=1h|1d|all
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            TopProducts.Window window;
+            int k;
+            try {
+                window = TopProducts.Window.parse(query.getOrDefault("window", "all"));
+                k = query.containsKey("k") ? Integer.parseInt(query.get("k")) : 10;
+                k = Math.max(1, Math.min(k, MAX_TOP_PRODUCTS));
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, String.valueOf(e.getMessage()));
+                return;
+            }
+            List<TopProducts.Entry> top;
+            try {
+                top = SimpleFileBasedDataStore.getTopProducts(window, k);
+            } catch (IOException e) {
+                sendError(exchange, 500, "Could not load top products");
+                return;
+            }
+            JsonWriter json = JsonWriter.acquire();
+            json.beginObject().name("window").value(window.label()).name("products").beginArray();
+            for (TopProducts.Entry e : top) {
+                json.beginObject()
+                    .name("product").value(e.product)
+                    .name("units").value(e.count)
+                    .name("maxOvercount").value(e.error)
+                    .endObject();
+            }
+            json.endArray().endObject();
+            sendJson(exchange, 200, json);
         }
     }
 
@@ -55,12 +379,143 @@ public class EcommerceServer {
                 send(exchange, 405, "Method Not Allowed", "text/plain");
                 return;
             }
-            List<SimpleFileBasedDataStore.SimpleTransaction> list = SimpleFileBasedDataStore.loadAllTransactions();
-            String json = transactionsToJson(list);
-            send(exchange, 200, json, "application/json");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (query.isEmpty()) {
+                // Full history: stream it with chunked encoding instead of rendering it in memory first
+                List<SimpleFileBasedDataStore.SimpleTransaction> list = SimpleFileBasedDataStore.loadAllTransactions();
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    JsonWriter json = JsonWriter.acquire().streamTo(os);
+                    try {
+                        writeTransactions(json, list);
+                        json.flush();
+                    } finally {
+                        json.release();
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                return;
+            }
+
+            // Paged listing: ?limit=&after=<transactionId>&from=&to=&method=&product=
+            SimpleFileBasedDataStore.TransactionPage page;
+            try {
+                int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_PAGE_SIZE;
+                limit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+                Integer after = query.containsKey("after") ? Integer.valueOf(query.get("after")) : null;
+                LocalDateTime from = parseDateParam(query.get("from"), false);
+                LocalDateTime to = parseDateParam(query.get("to"), true);
+                String method = query.containsKey("method") ? query.get("method").toUpperCase(Locale.ROOT) : null;
+                String product = query.containsKey("product") ? query.get("product") : null;
+                page = SimpleFileBasedDataStore.loadTransactionPage(after, from, to, method, product, limit);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                sendError(exchange, 400, String.valueOf(e.getMessage()));
+                return;
+            }
+            JsonWriter json = JsonWriter.acquire();
+            json.beginObject().name("transactions");
+            writeTransactions(json, page.transactions);
+            json.name("nextCursor");
+            if (page.nextCursor != null) {
+                json.value(page.nextCursor);
+            } else {
+                json.nullValue();
+            }
+            json.endObject();
+            sendJson(exchange, 200, json);
         }
     }
 
+    // Serves every metric in the Prometheus text format
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, "Method Not Allowed", "text/plain");
+                return;
+            }
+            send(exchange, 200, MetricsRegistry.getDefault().toPrometheus(), "text/plain; version=0.0.4");
+        }
+    }
+
+    static class SummaryHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, "Method Not Allowed", "text/plain");
+                return;
+            }
+            // Optional ?from=&to= limits the totals to a date range
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            SalesSummary.Totals summary;
+            try {
+                LocalDateTime from = parseDateParam(query.get("from"), false);
+                LocalDateTime to = parseDateParam(query.get("to"), true);
+                summary = from == null && to == null
+                    ? SimpleFileBasedDataStore.getSalesSummary()
+                    : SimpleFileBasedDataStore.getSalesSummary(from, to);
+            } catch (DateTimeException e) {
+                sendError(exchange, 400, String.valueOf(e.getMessage()));
+                return;
+            } catch (IOException e) {
+                sendError(exchange, 500, "Could not load summary");
+                return;
+            }
+            JsonWriter json = JsonWriter.acquire();
+            json.beginObject()
+                .name("transactions").value(summary.transactionCount)
+                .name("totalSales").moneyCents(summary.totalSalesCents)
+                .name("totalTax").moneyCents(summary.totalTaxCents)
+                .name("averageTransaction").moneyCents(summary.averageTransactionCents())
+                .name("cash").beginObject().name("count").value(summary.cashCount).name("total").moneyCents(summary.cashTotalCents).endObject()
+                .name("card").beginObject().name("count").value(summary.cardCount).name("total").moneyCents(summary.cardTotalCents).endObject()
+                .endObject();
+            sendJson(exchange, 200, json);
+        }
+    }
+
+    static class TimeseriesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, "Method Not Allowed", "text/plain");
+                return;
+            }
+            // ?granularity=minute|hour|day&from=&to=
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            SalesRollups.Granularity granularity;
+            List<SalesRollups.Bucket> buckets;
+            try {
+                granularity = SalesRollups.Granularity.parse(query.getOrDefault("granularity", "hour"));
+                LocalDateTime from = parseDateParam(query.get("from"), false);
+                LocalDateTime to = parseDateParam(query.get("to"), true);
+                buckets = SimpleFileBasedDataStore.getSalesTimeseries(granularity, from, to);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                sendError(exchange, 400, String.valueOf(e.getMessage()));
+                return;
+            }
+            JsonWriter json = JsonWriter.acquire();
+            json.beginObject().name("granularity").value(granularity.name().toLowerCase(Locale.ROOT)).name("buckets").beginArray();
+            for (SalesRollups.Bucket b : buckets) {
+                json.beginObject()
+                    .name("start").value(b.start)
+                    .name("count").value(b.count)
+                    .name("subtotal").moneyCents(b.subtotalCents)
+                    .name("tax").moneyCents(b.taxCents)
+                    .name("total").moneyCents(b.totalCents)
+                    .name("cash").beginObject().name("count").value(b.cashCount).name("total").moneyCents(b.cashTotalCents).endObject()
+                    .name("card").beginObject().name("count").value(b.cardCount).name("total").moneyCents(b.cardTotalCents).endObject()
+                    .endObject();
+            }
+            json.endArray().endObject();
+            sendJson(exchange, 200, json);
+        }
+    }
+
+    // A retry sent with the same Idempotency-Key header as a successful checkout gets the original
+    // response (marked Idempotent-Replayed) without touching the store
     static class CheckoutHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -68,94 +523,349 @@ public class EcommerceServer {
                 send(exchange, 405, "Method Not Allowed", "text/plain");
                 return;
             }
-            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            if (declaredLengthExceeds(exchange, MAX_BODY_BYTES)) {
+                sendError(exchange, 413, "Request body too large");
+                return;
+            }
+            String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            if (key == null) {
+                if (!BoundedHandler.admit()) {
+                    BoundedHandler.sendBusy(exchange);
+                    return;
+                }
+                try {
+                    send(exchange, checkout(exchange.getRequestBody()));
+                } finally {
+                    STORE_PERMITS.release();
+                }
+                return;
+            }
+            if (!IdempotencyCache.isValidKey(key)) {
+                sendError(exchange, 400, "Invalid Idempotency-Key");
+                return;
+            }
+            // The body is read up front so a retry can be told apart from another request with the key
+            byte[] body = exchange.getRequestBody().readNBytes((int) MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                sendError(exchange, 413, "Request body too large");
+                return;
+            }
+
+            // The key is claimed before taking a permit, so retries waiting on it hold none
+            CompletableFuture<IdempotencyCache.Response> original;
+            try {
+                original = IDEMPOTENCY_KEYS.claim(key, IdempotencyCache.requestHash(body));
+            } catch (IdempotencyCache.KeyReusedException e) {
+                sendError(exchange, 422, e.getMessage());
+                return;
+            }
+            if (original != null) {
+                replay(exchange, original);
+                return;
+            }
+            IdempotencyCache.Response response = null;
+            try {
+                if (!BoundedHandler.admit()) {
+                    // Not stored, so waiting retries get the 503 too and the next one is processed
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    response = errorResponse(503, "Server busy, try again");
+                } else {
+                    try {
+                        response = checkout(new ByteArrayInputStream(body));
+                    } finally {
+                        STORE_PERMITS.release();
+                    }
+                }
+            } finally {
+                IDEMPOTENCY_KEYS.finish(key, response);
+            }
+            send(exchange, response);
+        }
+
+        /**
+         * Answers a retry with the response of the original request, once that has one
+         */
+        private static void replay(HttpExchange exchange, CompletableFuture<IdempotencyCache.Response> original)
+                throws IOException {
+            IdempotencyCache.Response response;
+            try {
+                response = original.get(IDEMPOTENCY_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 409, "A request with this Idempotency-Key is still in progress");
+                return;
+            } catch (ExecutionException e) {
+                sendError(exchange, 500, "Could not complete the original request");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendError(exchange, 500, "Could not complete the original request");
+                return;
+            }
+            exchange.getResponseHeaders().set("Idempotent-Replayed", "true");
+            send(exchange, response);
+        }
+
+        private static IdempotencyCache.Response checkout(InputStream requestBody) {
             try {
-                Map<String, Object> payload = parseJsonObject(body);
-                @SuppressWarnings("unchecked")
-                List<Map<String, Object>> items = (List<Map<String, Object>>) payload.get("items");
-                String paymentMethod = String.valueOf(payload.get("paymentMethod"));
+                CheckoutRequest request;
+                try {
+                    request = parseCheckout(requestBody);
+                } catch (JsonReader.LimitExceededException e) {
+                    return errorResponse(413, e.getMessage());
+                } catch (JsonReader.JsonException e) {
+                    return errorResponse(400, "Invalid request: " + e.getMessage());
+                }
+
+                SimpleFileBasedDataStore.SimpleTransaction tx;
+                try {
+                    tx = toTransaction(request);
+                } catch (InvalidOrderException e) {
+                    return errorResponse(400, e.getMessage());
+                }
+                try {
+                    assignTransactionId(tx, SimpleFileBasedDataStore.getNextTransactionId());
+                } catch (IOException e) {
+                    System.err.println("Error allocating transaction ID: " + e.getMessage());
+                    return errorResponse(500, "Could not save transaction");
+                }
 
-                if (items == null || items.isEmpty()) {
-                    send(exchange, 400, "{\"error\":\"No items provided\"}", "application/json");
+                // Reply only once the transaction is durable
+                try {
+                    SimpleFileBasedDataStore.saveTransactionAsync(tx).join();
+                } catch (CompletionException e) {
+                    System.err.println("Error saving transaction: " + e.getCause().getMessage());
+                    return errorResponse(500, "Could not save transaction");
+                }
+
+                JsonWriter json = JsonWriter.acquire();
+                json.beginObject()
+                    .name("success").value(true)
+                    .name("transactionId").value(tx.transactionId)
+                    .name("totalDue").moneyCents(tx.totalDueCents)
+                    .endObject();
+                byte[] body = json.toByteArray();
+                json.release();
+                return new IdempotencyCache.Response(200, body);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                return errorResponse(400, "Invalid request");
+            }
+        }
+    }
+
+    // Takes a JSON array of checkout orders (e.g. replayed by terminals that were offline). Every order
+    // is validated, the valid ones get consecutive IDs and are saved with one journal append, and the
+    // response holds one result per order, in request order.
+    static class BatchCheckoutHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, "Method Not Allowed", "text/plain");
+                return;
+            }
+            if (declaredLengthExceeds(exchange, MAX_BATCH_BODY_BYTES)) {
+                sendError(exchange, 413, "Request body too large");
+                return;
+            }
+            try {
+                List<CheckoutRequest> requests;
+                try {
+                    requests = parseCheckoutBatch(exchange.getRequestBody());
+                } catch (JsonReader.LimitExceededException e) {
+                    sendError(exchange, 413, e.getMessage());
+                    return;
+                } catch (JsonReader.JsonException e) {
+                    sendError(exchange, 400, "Invalid request: " + e.getMessage());
+                    return;
+                }
+                if (requests.isEmpty()) {
+                    sendError(exchange, 400, "No orders provided");
                     return;
                 }
 
-                // Calculate totals
-                double subtotal = 0.0;
-                List<LineItemTmp> lineItems = new ArrayList<>();
-                for (Map<String, Object> it : items) {
-                    String name = String.valueOf(it.get("name"));
-                    double price = toDouble(it.get("price"));
-                    int qty = (int) Math.round(toDouble(it.get("quantity")));
-                    if (qty <= 0) continue;
-                    LineItemTmp li = new LineItemTmp(name, price, qty);
-                    lineItems.add(li);
-                    subtotal += li.lineTotal;
+                SimpleFileBasedDataStore.SimpleTransaction[] transactions = new SimpleFileBasedDataStore.SimpleTransaction[requests.size()];
+                String[] errors = new String[requests.size()];
+                List<SimpleFileBasedDataStore.SimpleTransaction> accepted = new ArrayList<>(requests.size());
+                for (int i = 0; i < requests.size(); i++) {
+                    try {
+                        transactions[i] = toTransaction(requests.get(i));
+                        accepted.add(transactions[i]);
+                    } catch (InvalidOrderException e) {
+                        errors[i] = e.getMessage();
+                    }
                 }
-                double tax = subtotal * (TAX_RATE / 100.0);
-                double totalDue = subtotal + tax;
-
-                // Build transaction
-                SimpleFileBasedDataStore.SimpleTransaction tx = new SimpleFileBasedDataStore.SimpleTransaction();
-                tx.transactionId = SimpleFileBasedDataStore.getNextTransactionId();
-                tx.transactionDate = LocalDateTime.now();
-                tx.subtotal = subtotal;
-                tx.taxRatePercent = TAX_RATE;
-                tx.taxAmount = tax;
-                tx.totalDue = totalDue;
-
-                if ("CASH".equalsIgnoreCase(paymentMethod)) {
-                    tx.paymentMethod = "CASH";
-                    double amountPaid = toDouble(payload.getOrDefault("amountPaid", totalDue));
-                    if (amountPaid < totalDue) {
-                        send(exchange, 400, "{\"error\":\"Insufficient cash payment\"}", "application/json");
+
+                if (!accepted.isEmpty()) {
+                    int firstId;
+                    try {
+                        firstId = SimpleFileBasedDataStore.allocateTransactionIds(accepted.size());
+                    } catch (IOException e) {
+                        System.err.println("Error allocating transaction IDs: " + e.getMessage());
+                        sendError(exchange, 500, "Could not save transactions");
+                        return;
+                    }
+                    for (int i = 0; i < accepted.size(); i++) {
+                        assignTransactionId(accepted.get(i), firstId + i);
+                    }
+                    try {
+                        SimpleFileBasedDataStore.saveTransactionsAsync(accepted).join();
+                    } catch (CompletionException e) {
+                        System.err.println("Error saving transaction batch: " + e.getCause().getMessage());
+                        sendError(exchange, 500, "Could not save transactions");
                         return;
                     }
-                    tx.amountPaid = amountPaid;
-                    tx.changeAmount = amountPaid - totalDue;
-                } else {
-                    tx.paymentMethod = "CARD";
-                    tx.amountPaid = totalDue;
-                    tx.changeAmount = 0.0;
-                    tx.cardNumberMasked = "****-****-****-" + String.valueOf(payload.getOrDefault("cardLast4", "0000"));
-                    tx.cardHolderName = String.valueOf(payload.getOrDefault("cardHolderName", ""));
-                    tx.cardExpiry = String.valueOf(payload.getOrDefault("cardExpiry", ""));
                 }
 
-                for (LineItemTmp li : lineItems) {
-                    SimpleFileBasedDataStore.SimpleLineItem s = new SimpleFileBasedDataStore.SimpleLineItem();
-                    s.transactionId = tx.transactionId;
-                    s.description = li.name;
-                    s.quantity = li.quantity;
-                    s.unitPrice = li.price;
-                    s.lineTotal = li.lineTotal;
-                    tx.lineItems.add(s);
+                JsonWriter json = JsonWriter.acquire();
+                json.beginObject()
+                    .name("accepted").value(accepted.size())
+                    .name("rejected").value(requests.size() - accepted.size())
+                    .name("results").beginArray();
+                for (int i = 0; i < transactions.length; i++) {
+                    json.beginObject().name("index").value(i);
+                    if (transactions[i] != null) {
+                        json.name("success").value(true)
+                            .name("transactionId").value(transactions[i].transactionId)
+                            .name("totalDue").moneyCents(transactions[i].totalDueCents);
+                    } else {
+                        json.name("success").value(false).name("error").value(errors[i]);
+                    }
+                    json.endObject();
                 }
-
-                SimpleFileBasedDataStore.saveTransaction(tx);
-
-                String resp = "{\"success\":true,\"transactionId\":" + tx.transactionId + ",\"totalDue\":" + round2(totalDue) + "}";
-                send(exchange, 200, resp, "application/json");
+                json.endArray().endObject();
+                sendJson(exchange, 200, json);
             } catch (Exception ex) {
                 ex.printStackTrace();
-                send(exchange, 400, "{\"error\":\"Invalid request\"}", "application/json");
+                sendError(exchange, 400, "Invalid request");
             }
         }
     }
 
+    /**
+     * An order that parsed but cannot be accepted
+     */
+    static class InvalidOrderException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        InvalidOrderException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Rejects text that would break a line of the pipe-delimited data files
+     * JSON escapes are decoded by the reader, so a field can hold a line break or a '|'. Binary
+     * records are length-prefixed, so there only control characters are refused.
+     */
+    private static void requireStorable(String field, String value) throws InvalidOrderException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isISOControl(c)) {
+                throw new InvalidOrderException(field + " must not contain control characters");
+            }
+            if (c == '|' && !SimpleFileBasedDataStore.BINARY_FORMAT) {
+                throw new InvalidOrderException(field + " must not contain '|'");
+            }
+        }
+    }
+
+    /**
+     * Validates an order and prices it into a transaction dated now, without an ID yet
+     */
+    static SimpleFileBasedDataStore.SimpleTransaction toTransaction(CheckoutRequest request) throws InvalidOrderException {
+        if (request.itemCount == 0) {
+            throw new InvalidOrderException("No items provided");
+        }
+        for (LineItemTmp li : request.lineItems) {
+            requireStorable("Item name", li.name);
+        }
+        requireStorable("cardLast4", request.cardLast4);
+        requireStorable("cardHolderName", request.cardHolderName);
+        requireStorable("cardExpiry", request.cardExpiry);
+        try {
+            // Calculate totals in cents; tax is rounded half-up to the cent
+            long subtotal = 0;
+            for (LineItemTmp li : request.lineItems) {
+                subtotal = Math.addExact(subtotal, li.lineTotalCents);
+            }
+            long tax = Money.tax(subtotal, TAX_RATE_BASIS_POINTS);
+            long totalDue = Math.addExact(subtotal, tax);
+
+            SimpleFileBasedDataStore.SimpleTransaction tx = new SimpleFileBasedDataStore.SimpleTransaction();
+            tx.transactionDate = LocalDateTime.now();
+            tx.subtotalCents = subtotal;
+            tx.taxRateBasisPoints = TAX_RATE_BASIS_POINTS;
+            tx.taxAmountCents = tax;
+            tx.totalDueCents = totalDue;
+
+            if ("CASH".equalsIgnoreCase(request.paymentMethod)) {
+                tx.paymentMethod = "CASH";
+                long amountPaid = request.amountPaidCents != null ? request.amountPaidCents : totalDue;
+                if (amountPaid < totalDue) {
+                    throw new InvalidOrderException("Insufficient cash payment");
+                }
+                tx.amountPaidCents = amountPaid;
+                tx.changeAmountCents = amountPaid - totalDue;
+            } else {
+                tx.paymentMethod = "CARD";
+                tx.amountPaidCents = totalDue;
+                tx.changeAmountCents = 0;
+                tx.cardNumberMasked = "****-****-****-" + request.cardLast4;
+                tx.cardHolderName = request.cardHolderName;
+                tx.cardExpiry = request.cardExpiry;
+            }
+
+            for (LineItemTmp li : request.lineItems) {
+                SimpleFileBasedDataStore.SimpleLineItem s = new SimpleFileBasedDataStore.SimpleLineItem();
+                s.description = li.name;
+                s.quantity = li.quantity;
+                s.unitPriceCents = li.priceCents;
+                s.lineTotalCents = li.lineTotalCents;
+                tx.lineItems.add(s);
+            }
+            return tx;
+        } catch (ArithmeticException e) {
+            throw new InvalidOrderException("Order total out of range");
+        }
+    }
+
+    private static void assignTransactionId(SimpleFileBasedDataStore.SimpleTransaction tx, int transactionId) {
+        tx.transactionId = transactionId;
+        for (SimpleFileBasedDataStore.SimpleLineItem li : tx.lineItems) {
+            li.transactionId = transactionId;
+        }
+    }
+
+    // True when the client announced a body larger than the limit
+    private static boolean declaredLengthExceeds(HttpExchange exchange, long limit) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        return contentLength != null && contentLength.matches("\\d{1,18}") && Long.parseLong(contentLength) > limit;
+    }
+
     static class StaticFileHandler implements HttpHandler {
         private final Path baseDir;
+        private final StaticAssetCache assets;
 
         StaticFileHandler() {
             // When run from src using run.bat, static files are in ../web
             this.baseDir = Paths.get("..", "web").toAbsolutePath().normalize();
+            this.assets = new StaticAssetCache(baseDir);
+            if (WATCH_STATIC_FILES) {
+                assets.watch();
+            }
         }
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equalsIgnoreCase(method) && !"HEAD".equalsIgnoreCase(method)) {
+                send(exchange, 405, "Method Not Allowed", "text/plain");
+                return;
+            }
             String path = exchange.getRequestURI().getPath();
             if (path.equals("/") || path.isEmpty()) {
-                serveFile(exchange, baseDir.resolve("index.html"));
+                serveAsset(exchange, assets.get("index.html"));
                 return;
             }
             // Basic path normalization
@@ -165,257 +875,263 @@ public class EcommerceServer {
                 send(exchange, 403, "Forbidden", "text/plain");
                 return;
             }
-            if (Files.exists(target) && !Files.isDirectory(target)) {
-                serveFile(exchange, target);
-            } else {
+            StaticAssetCache.Asset asset = assets.get(baseDir.relativize(target).toString().replace('\\', '/'));
+            if (asset == null) {
                 // SPA fallback to index.html
-                serveFile(exchange, baseDir.resolve("index.html"));
+                asset = assets.get("index.html");
             }
+            serveAsset(exchange, asset);
         }
 
-        private void serveFile(HttpExchange exchange, Path file) throws IOException {
-            if (!Files.exists(file)) {
+        private void serveAsset(HttpExchange exchange, StaticAssetCache.Asset asset) throws IOException {
+            if (asset == null) {
                 send(exchange, 404, "Not Found", "text/plain");
                 return;
             }
-            byte[] bytes = Files.readAllBytes(file);
-            String contentType = guessContentType(file.getFileName().toString());
-            send(exchange, 200, bytes, contentType);
+            Headers request = exchange.getRequestHeaders();
+            boolean gzip = asset.gzipBytes != null && acceptsGzip(request.getFirst("Accept-Encoding"));
+            String etag = gzip ? asset.gzipEtag : asset.etag;
+
+            Headers h = exchange.getResponseHeaders();
+            h.set("ETag", etag);
+            h.set("Last-Modified", asset.lastModified);
+            h.set("Cache-Control", asset.contentType.equals("text/html") ? "no-cache" : "public, max-age=" + STATIC_MAX_AGE_SECONDS);
+            h.set("Vary", "Accept-Encoding");
+
+            if (notModified(request, asset)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            h.set("Content-Type", asset.contentType + "; charset=utf-8");
+            byte[] body = gzip ? asset.gzipBytes : asset.bytes;
+            if (gzip) {
+                h.set("Content-Encoding", "gzip");
+            }
+            if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+                h.set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+
+        // If-None-Match wins over If-Modified-Since when both are present
+        private static boolean notModified(Headers request, StaticAssetCache.Asset asset) {
+            String ifNoneMatch = request.getFirst("If-None-Match");
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/")) {
+                        tag = tag.substring(2);
+                    }
+                    if (tag.equals("*") || tag.equals(asset.etag) || tag.equals(asset.gzipEtag)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String ifModifiedSince = request.getFirst("If-Modified-Since");
+            if (ifModifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                    return asset.lastModifiedSeconds <= since;
+                } catch (DateTimeException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private static boolean acceptsGzip(String acceptEncoding) {
+            if (acceptEncoding == null) return false;
+            for (String part : acceptEncoding.split(",")) {
+                String[] fields = part.trim().split(";");
+                if (!fields[0].trim().equalsIgnoreCase("gzip")) continue;
+                for (int i = 1; i < fields.length; i++) {
+                    String param = fields[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+            return false;
         }
     }
 
     // --- Utilities ---
 
-    private static List<Map<String, Object>> getProducts() {
-        List<Map<String, Object>> list = new ArrayList<>();
-        // Apparel
-        addProduct(list, "Classic T-Shirt", 14.99, "100% cotton unisex tee");
-        addProduct(list, "Slim Fit Jeans", 39.99, "Denim with stretch comfort");
-        addProduct(list, "Hoodie", 29.99, "Fleece-lined pullover hoodie");
-        addProduct(list, "Lightweight Jacket", 49.99, "Windbreaker for everyday wear");
-        addProduct(list, "Sneakers", 59.99, "Breathable everyday sneakers");
-
-        // Accessories
-        addProduct(list, "Backpack", 34.99, "Water-resistant daypack, 20L");
-        addProduct(list, "Water Bottle", 12.99, "Insulated stainless steel, 600ml");
-        addProduct(list, "Sunglasses", 19.99, "UV400 polarized lenses");
-        addProduct(list, "Cap", 11.99, "Adjustable cotton baseball cap");
-        addProduct(list, "Wallet", 17.49, "Slim RFID-blocking wallet");
-
-        // Tech & peripherals
-        addProduct(list, "Wireless Earbuds", 49.99, "Bluetooth 5.3 with charging case");
-        addProduct(list, "Phone Charger", 9.99, "20W USB-C fast charger");
-        addProduct(list, "USB-C Cable", 6.99, "1m braided fast-charge cable");
-        addProduct(list, "Smartphone Case", 15.99, "Shock-absorbing protective case");
-        addProduct(list, "Wireless Mouse", 18.99, "Silent click ergonomic mouse");
-
-        // Stationery
-        addProduct(list, "Notebook", 7.49, "A5 dotted journal, 120 pages");
-        addProduct(list, "Pen Set", 5.99, "Pack of 5 gel pens, 0.5mm");
-        return list;
-    }
-
-    private static void addProduct(List<Map<String, Object>> list, String name, double price, String description) {
-        Map<String, Object> m = new LinkedHashMap<>();
-        m.put("name", name);
-        m.put("price", price);
-        m.put("description", description);
-        list.add(m);
-    }
-
-    private static String toJsonArray(List<Map<String, Object>> list) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < list.size(); i++) {
-            if (i > 0) sb.append(',');
-            sb.append(toJsonObject(list.get(i)));
-        }
-        sb.append("]");
-        return sb.toString();
-    }
-
-    private static String toJsonObject(Map<String, Object> map) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('{');
-        int i = 0;
-        for (Map.Entry<String, Object> e : map.entrySet()) {
-            if (i++ > 0) sb.append(',');
-            sb.append('"').append(escape(e.getKey())).append('"').append(":");
-            Object v = e.getValue();
-            if (v == null) {
-                sb.append("null");
-            } else if (v instanceof Number || v instanceof Boolean) {
-                sb.append(v.toString());
-            } else if (v instanceof Map) {
-                // no deep maps expected
-                sb.append(toJsonObject((Map<String, Object>) v));
-            } else if (v instanceof List) {
-                // no deep lists expected
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) v;
-                sb.append('[');
-                for (int j = 0; j < list.size(); j++) {
-                    if (j > 0) sb.append(',');
-                    Object iv = list.get(j);
-                    if (iv instanceof Map) {
-                        sb.append(toJsonObject((Map<String, Object>) iv));
-                    } else if (iv instanceof Number || iv instanceof Boolean) {
-                        sb.append(iv.toString());
-                    } else {
-                        sb.append('"').append(escape(String.valueOf(iv))).append('"');
+    static void writeTransactions(JsonWriter json, List<SimpleFileBasedDataStore.SimpleTransaction> list) {
+        json.beginArray();
+        for (SimpleFileBasedDataStore.SimpleTransaction t : list) {
+            json.beginObject()
+                .name("transactionId").value(t.transactionId)
+                .name("date").value(t.transactionDate)
+                .name("subtotal").moneyCents(t.subtotalCents)
+                .name("tax").moneyCents(t.taxAmountCents)
+                .name("total").moneyCents(t.totalDueCents)
+                .name("method").value(t.paymentMethod)
+                .name("lineItems").beginArray();
+            for (SimpleFileBasedDataStore.SimpleLineItem li : t.lineItems) {
+                json.beginObject()
+                    .name("description").value(li.description)
+                    .name("quantity").value(li.quantity)
+                    .name("unitPrice").moneyCents(li.unitPriceCents)
+                    .name("lineTotal").moneyCents(li.lineTotalCents)
+                    .endObject();
+            }
+            json.endArray().endObject();
+        }
+        json.endArray();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    // Accepts yyyy-MM-dd (a whole day) or an ISO date-time such as 2025-09-21T10:00:00
+    private static LocalDateTime parseDateParam(String value, boolean endOfRange) {
+        if (value == null || value.isEmpty()) return null;
+        if (value.length() == 10) {
+            LocalDate day = LocalDate.parse(value);
+            return endOfRange ? day.plusDays(1).atStartOfDay() : day.atStartOfDay();
+        }
+        return LocalDateTime.parse(value.replace(' ', 'T'));
+    }
+
+    /**
+     * Reads a checkout payload straight from the request body into typed line items
+     * Fields keep their old lenient meaning: numbers may arrive as strings, missing
+     * amounts count as 0 and items with a quantity below 1 are dropped.
+     */
+    static CheckoutRequest parseCheckout(InputStream body) throws IOException {
+        JsonReader reader = new JsonReader(body, MAX_BODY_BYTES, MAX_JSON_DEPTH);
+        CheckoutRequest request = readCheckoutRequest(reader);
+        reader.peek(); // rejects trailing data
+        return request;
+    }
+
+    /**
+     * Reads a JSON array of checkout payloads, each with the same rules as parseCheckout
+     */
+    static List<CheckoutRequest> parseCheckoutBatch(InputStream body) throws IOException {
+        JsonReader reader = new JsonReader(body, MAX_BATCH_BODY_BYTES, MAX_JSON_DEPTH);
+        List<CheckoutRequest> requests = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (requests.size() == MAX_BATCH_ORDERS) {
+                throw new JsonReader.LimitExceededException("More than " + MAX_BATCH_ORDERS + " orders in the batch");
+            }
+            requests.add(readCheckoutRequest(reader));
+        }
+        reader.endArray();
+        reader.peek(); // rejects trailing data
+        return requests;
+    }
+
+    private static CheckoutRequest readCheckoutRequest(JsonReader reader) throws IOException {
+        CheckoutRequest request = new CheckoutRequest();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "items" -> {
+                    if (reader.peek() != JsonReader.Token.BEGIN_ARRAY) {
+                        reader.skipValue();
+                        break;
                     }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (++request.itemCount > MAX_CART_ITEMS) {
+                            throw new JsonReader.LimitExceededException("More than " + MAX_CART_ITEMS + " items in the cart");
+                        }
+                        LineItemTmp item = parseCheckoutItem(reader);
+                        if (item != null) {
+                            request.lineItems.add(item);
+                        }
+                    }
+                    reader.endArray();
                 }
-                sb.append(']');
-            } else {
-                sb.append('"').append(escape(String.valueOf(v))).append('"');
-            }
-        }
-        sb.append('}');
-        return sb.toString();
-    }
-
-    private static String transactionsToJson(List<SimpleFileBasedDataStore.SimpleTransaction> list) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < list.size(); i++) {
-            if (i > 0) sb.append(',');
-            SimpleFileBasedDataStore.SimpleTransaction t = list.get(i);
-            sb.append('{')
-              .append("\"transactionId\":").append(t.transactionId).append(',')
-              .append("\"date\":\"").append(escape(String.valueOf(t.transactionDate))).append("\",")
-              .append("\"subtotal\":").append(round2(t.subtotal)).append(',')
-              .append("\"tax\":").append(round2(t.taxAmount)).append(',')
-              .append("\"total\":").append(round2(t.totalDue)).append(',')
-              .append("\"method\":\"").append(escape(t.paymentMethod)).append("\",")
-              .append("\"lineItems\":[");
-            for (int j = 0; j < t.lineItems.size(); j++) {
-                if (j > 0) sb.append(',');
-                SimpleFileBasedDataStore.SimpleLineItem li = t.lineItems.get(j);
-                sb.append('{')
-                  .append("\"description\":\"").append(escape(li.description)).append("\",")
-                  .append("\"quantity\":").append(li.quantity).append(',')
-                  .append("\"unitPrice\":").append(round2(li.unitPrice)).append(',')
-                  .append("\"lineTotal\":").append(round2(li.lineTotal))
-                  .append('}');
-            }
-            sb.append(']')
-              .append('}');
-        }
-        sb.append(']');
-        return sb.toString();
-    }
-
-    private static double round2(double v) {
-        return Math.round(v * 100.0) / 100.0;
-    }
-
-    private static double toDouble(Object o) {
-        if (o == null) return 0.0;
-        if (o instanceof Number) return ((Number) o).doubleValue();
-        try { return Double.parseDouble(String.valueOf(o)); } catch (Exception e) { return 0.0; }
-    }
-
-    private static String escape(String s) {
-        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
-    }
-
-    // Very tiny JSON parser for the expected shapes (object with arrays of simple values)
-    // This is NOT a general JSON parser; it's just enough for our simple payloads
-    private static Map<String, Object> parseJsonObject(String json) {
-        json = json.trim();
-        if (json.startsWith("{") && json.endsWith("}")) {
-            json = json.substring(1, json.length() - 1).trim();
-        }
-        Map<String, Object> map = new LinkedHashMap<>();
-        int i = 0;
-        while (i < json.length()) {
-            // parse key
-            while (i < json.length() && Character.isWhitespace(json.charAt(i))) i++;
-            if (i >= json.length()) break;
-            if (json.charAt(i) == ',') { i++; continue; }
-            if (json.charAt(i) != '"') break;
-            int j = json.indexOf('"', i + 1);
-            String key = json.substring(i + 1, j);
-            i = j + 1;
-            while (i < json.length() && (json.charAt(i) == ' ' || json.charAt(i) == ':')) i++;
-            // parse value (string, number, object, array)
-            if (i >= json.length()) break;
-            char c = json.charAt(i);
-            if (c == '"') {
-                int k = json.indexOf('"', i + 1);
-                String val = json.substring(i + 1, k);
-                map.put(key, val);
-                i = k + 1;
-            } else if (c == '[') {
-                int k = findMatching(json, i);
-                String arr = json.substring(i + 1, k);
-                map.put(key, parseJsonArray(arr));
-                i = k + 1;
-            } else if (c == '{') {
-                int k = findMatching(json, i);
-                String obj = json.substring(i, k + 1);
-                map.put(key, parseJsonObject(obj));
-                i = k + 1;
-            } else {
-                int k = i;
-                while (k < json.length() && ",}\n ".indexOf(json.charAt(k)) == -1) k++;
-                String num = json.substring(i, k);
-                try { map.put(key, Double.parseDouble(num)); }
-                catch (Exception e) { map.put(key, num); }
-                i = k;
-            }
-            // skip to next
-            while (i < json.length() && json.charAt(i) != ',') i++;
-            if (i < json.length() && json.charAt(i) == ',') i++;
-        }
-        return map;
-    }
-
-    private static List<Map<String, Object>> parseJsonArray(String json) {
-        List<Map<String, Object>> list = new ArrayList<>();
-        int i = 0;
-        while (i < json.length()) {
-            while (i < json.length() && Character.isWhitespace(json.charAt(i))) i++;
-            if (i >= json.length()) break;
-            if (json.charAt(i) == ',') { i++; continue; }
-            if (json.charAt(i) == '{') {
-                int k = findMatching(json, i);
-                String obj = json.substring(i, k + 1);
-                list.add(parseJsonObject(obj));
-                i = k + 1;
-            } else {
-                // unsupported element types not used here
-                break;
+                case "paymentMethod" -> request.paymentMethod = String.valueOf(reader.nextScalarText());
+                case "amountPaid" -> request.amountPaidCents = nextCentsLenient(reader);
+                case "cardLast4" -> request.cardLast4 = String.valueOf(reader.nextScalarText());
+                case "cardHolderName" -> request.cardHolderName = String.valueOf(reader.nextScalarText());
+                case "cardExpiry" -> request.cardExpiry = String.valueOf(reader.nextScalarText());
+                default -> reader.skipValue();
             }
         }
-        return list;
+        reader.endObject();
+        return request;
     }
 
-    private static int findMatching(String json, int i) {
-        char open = json.charAt(i);
-        char close = (open == '{') ? '}' : ']';
-        int depth = 0;
-        for (int k = i; k < json.length(); k++) {
-            char c = json.charAt(k);
-            if (c == '"') {
-                // skip strings
-                k++;
-                while (k < json.length() && json.charAt(k) != '"') {
-                    if (json.charAt(k) == '\\') k++; // escape
-                    k++;
-                }
-                continue;
+    private static LineItemTmp parseCheckoutItem(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String name = null;
+        long price = 0;
+        double quantity = 0.0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name" -> name = reader.nextScalarText();
+                case "price" -> price = nextCentsLenient(reader);
+                case "quantity" -> quantity = reader.nextDoubleLenient();
+                default -> reader.skipValue();
             }
-            if (c == open) depth++;
-            else if (c == close) depth--;
-            if (depth == 0) return k;
         }
-        return json.length() - 1;
+        reader.endObject();
+        int qty = (int) Math.round(quantity);
+        return qty > 0 ? new LineItemTmp(String.valueOf(name), price, qty) : null;
+    }
+
+    /**
+     * Reads an amount given as a number or a numeric string straight from its text; anything else counts as 0
+     */
+    private static long nextCentsLenient(JsonReader reader) throws IOException {
+        JsonReader.Token token = reader.peek();
+        String text = reader.nextScalarText();
+        if (token != JsonReader.Token.NUMBER && token != JsonReader.Token.STRING) {
+            return 0;
+        }
+        try {
+            return Money.parse(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static class CheckoutRequest {
+        final List<LineItemTmp> lineItems = new ArrayList<>();
+        int itemCount;
+        String paymentMethod = "null";
+        Long amountPaidCents;
+        String cardLast4 = "0000";
+        String cardHolderName = "";
+        String cardExpiry = "";
     }
 
     static class LineItemTmp {
-        String name; double price; int quantity; double lineTotal;
-        LineItemTmp(String n, double p, int q) { name = n; price = p; quantity = q; lineTotal = p * q; }
+        String name; long priceCents; int quantity; long lineTotalCents;
+        LineItemTmp(String n, long p, int q) { name = n; priceCents = p; quantity = q; lineTotalCents = Money.times(p, q); }
     }
 
     private static void send(HttpExchange exchange, int status, String text, String contentType) throws IOException {
@@ -433,7 +1149,37 @@ public class EcommerceServer {
         }
     }
 
-    private static String guessContentType(String name) {
+    private static void sendJson(HttpExchange exchange, int status, JsonWriter json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try {
+            exchange.sendResponseHeaders(status, json.size());
+            try (OutputStream os = exchange.getResponseBody()) {
+                json.writeTo(os);
+            }
+        } finally {
+            json.release();
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().name("error").value(message).endObject();
+        sendJson(exchange, status, json);
+    }
+
+    private static void send(HttpExchange exchange, IdempotencyCache.Response response) throws IOException {
+        send(exchange, response.status, response.body, "application/json");
+    }
+
+    private static IdempotencyCache.Response errorResponse(int status, String message) {
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject().name("error").value(message).endObject();
+        byte[] body = json.toByteArray();
+        json.release();
+        return new IdempotencyCache.Response(status, body);
+    }
+
+    static String guessContentType(String name) {
         String n = name.toLowerCase(Locale.ROOT);
         if (n.endsWith(".html") || n.endsWith(".htm")) return "text/html";
         if (n.endsWith(".css")) return "text/css";
@@ -0,0 +1,327 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Remembers the responses of requests sent with an Idempotency-Key so that retries get the
+ * original response back instead of being processed again
+ * Responses are kept in memory, least recently used first out, and expire after a time limit.
+ * Every remembered response is also appended to a key log (one line per key) which is read
+ * back at startup, so retries are still recognised after a restart; the log is rewritten
+ * without expired and evicted keys when it grows to twice the cache size.
+ * A retry that arrives while the first request is still running waits for its response.
+ * Each key also keeps a hash of the request body it came with, and a request reusing the
+ * key with another body is refused rather than answered with the first one's response.
+ */
+public class IdempotencyCache {
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * A complete response: status code and JSON body
+     */
+    public static final class Response {
+        public final int status;
+        public final byte[] body;
+        final long createdMillis;
+        // Hash of the request body it answered, or null when not known (older key logs)
+        final String requestHash;
+
+        public Response(int status, byte[] body) {
+            this(status, body, System.currentTimeMillis(), null);
+        }
+
+        Response(int status, byte[] body, long createdMillis, String requestHash) {
+            this.status = status;
+            this.body = body;
+            this.createdMillis = createdMillis;
+            this.requestHash = requestHash;
+        }
+    }
+
+    /**
+     * Thrown when a key comes back with a different request body
+     */
+    public static final class KeyReusedException extends Exception {
+        KeyReusedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A key whose request is still running
+     */
+    private static final class Claim {
+        final String requestHash;
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        Claim(String requestHash) {
+            this.requestHash = requestHash;
+        }
+    }
+
+    private final Path logFile;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Response> entries;
+    private final Map<String, Claim> inFlight = new HashMap<>();
+    private Writer log;
+    private int logLines;
+
+    /**
+     * @param logFile key log, created on first use
+     * @param maxEntries most responses kept; the least recently used is dropped beyond this
+     * @param ttlMillis how long a response is kept after it was first sent
+     */
+    public IdempotencyCache(Path logFile, int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+        }
+        this.logFile = logFile;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Response> eldest) {
+                return size() > IdempotencyCache.this.maxEntries;
+            }
+        };
+        load();
+    }
+
+    /**
+     * Keys are 1 to 255 visible ASCII characters (no spaces or control characters)
+     */
+    public static boolean isValidKey(String key) {
+        if (key == null || key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c <= ' ' || c > '~') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash identifying a request body, for claim
+     */
+    public static String requestHash(byte[] body) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Claims a key for a new request
+     * Returns null when the caller now owns the key and must call finish once it has a
+     * response. Otherwise returns the response of the earlier request with this key, which
+     * completes when that request finishes if it is still running.
+     * @param requestHash hash of the request body (see requestHash)
+     * @throws KeyReusedException if the earlier request with this key had another body
+     */
+    public synchronized CompletableFuture<Response> claim(String key, String requestHash) throws KeyReusedException {
+        Response stored = entries.get(key);
+        if (stored != null) {
+            if (!isExpired(stored, System.currentTimeMillis())) {
+                checkSameRequest(key, stored.requestHash, requestHash);
+                return CompletableFuture.completedFuture(stored);
+            }
+            entries.remove(key);
+        }
+        Claim pending = inFlight.get(key);
+        if (pending != null) {
+            checkSameRequest(key, pending.requestHash, requestHash);
+            return pending.response;
+        }
+        inFlight.put(key, new Claim(requestHash));
+        return null;
+    }
+
+    private static void checkSameRequest(String key, String original, String retry) throws KeyReusedException {
+        if (original != null && !original.equals(retry)) {
+            throw new KeyReusedException("Idempotency-Key " + key + " was already used with a different request");
+        }
+    }
+
+    /**
+     * Releases a claimed key with the response that was sent
+     * Only successful (2xx) responses are remembered; after a failure nothing was stored, so
+     * a retry is processed again. Requests waiting on the key get the response either way.
+     * A null response (the request failed without one) fails the waiting requests.
+     */
+    public void finish(String key, Response response) {
+        Claim pending;
+        synchronized (this) {
+            pending = inFlight.remove(key);
+            if (response != null && response.status / 100 == 2) {
+                Response stored = new Response(response.status, response.body, response.createdMillis,
+                    pending != null ? pending.requestHash : null);
+                entries.put(key, stored);
+                append(key, stored);
+            }
+        }
+        if (pending == null) {
+            return;
+        }
+        if (response != null) {
+            pending.response.complete(response);
+        } else {
+            pending.response.completeExceptionally(new IllegalStateException("Request with Idempotency-Key " + key + " failed"));
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(Response response, long now) {
+        return now - response.createdMillis > ttlMillis;
+    }
+
+    // Line format: createdMillis status key requestHash body, with - for an unknown hash;
+    // lines from before hashes have no hash, and their body starts right after the key
+    private void append(String key, Response response) {
+        try {
+            if (log == null) {
+                log = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(logFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8));
+            }
+            writeLine(log, key, response);
+            log.flush();
+            logLines++;
+            if (logLines > 2 * maxEntries) {
+                compact();
+            }
+        } catch (IOException e) {
+            // The key is still remembered in memory, just not across a restart
+            System.err.println("Error writing idempotency key log: " + e.getMessage());
+        }
+    }
+
+    private static void writeLine(Writer out, String key, Response response) throws IOException {
+        out.write(Long.toString(response.createdMillis));
+        out.write(' ');
+        out.write(Integer.toString(response.status));
+        out.write(' ');
+        out.write(key);
+        out.write(' ');
+        out.write(response.requestHash != null ? response.requestHash : "-");
+        out.write(' ');
+        out.write(new String(response.body, StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    /**
+     * Rewrites the log with only the keys still cached
+     */
+    private void compact() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        long now = System.currentTimeMillis();
+        Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        int lines = 0;
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Response> e : entries.entrySet()) {
+                if (!isExpired(e.getValue(), now)) {
+                    writeLine(out, e.getKey(), e.getValue());
+                    lines++;
+                }
+            }
+        }
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logLines = lines;
+    }
+
+    private void load() {
+        long now = System.currentTimeMillis();
+        int lines = 0;
+        boolean damaged;
+        try (BufferedReader in = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            // A crash can leave the last line half written; it is dropped and the log rewritten
+            damaged = !endsWithNewline(logFile);
+            String line = in.readLine();
+            while (line != null) {
+                String next = in.readLine();
+                lines++;
+                String[] parts = line.split(" ", 4);
+                if ((next == null && damaged) || parts.length < 4) {
+                    damaged = true;
+                    line = next;
+                    continue;
+                }
+                String requestHash = null;
+                String body = parts[3];
+                if (!body.startsWith("{")) {
+                    int space = body.indexOf(' ');
+                    if (space < 0) {
+                        damaged = true;
+                        line = next;
+                        continue;
+                    }
+                    requestHash = space == 1 && body.charAt(0) == '-' ? null : body.substring(0, space);
+                    body = body.substring(space + 1);
+                }
+                try {
+                    Response response = new Response(Integer.parseInt(parts[1]),
+                        body.getBytes(StandardCharsets.UTF_8), Long.parseLong(parts[0]), requestHash);
+                    if (!isExpired(response, now)) {
+                        entries.put(parts[2], response);
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping malformed idempotency key log line " + lines);
+                    damaged = true;
+                }
+                line = next;
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            System.err.println("Error reading idempotency key log: " + e.getMessage());
+            return;
+        }
+        logLines = lines;
+        if (damaged || lines > entries.size() * 2) {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("Error compacting idempotency key log: " + e.getMessage());
+            }
+        }
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            if (channel.size() == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+}
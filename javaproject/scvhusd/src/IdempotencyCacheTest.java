@@ -0,0 +1,126 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test that remembered responses survive a restart, a damaged key log, and compaction
+ * Writes into store.dir, so run it in a scratch directory:
+ * java -Dstore.dir=DIR IdempotencyCacheTest
+ */
+public class IdempotencyCacheTest {
+
+    private static final Path LOG = SimpleFileBasedDataStore.DATA_DIR.resolve("idempotency-test.log");
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final String BODY_HASH = IdempotencyCache.requestHash(bytes("{\"items\":[]}"));
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Idempotency Cache Test ===");
+
+        testRestart();
+        testReusedKey();
+        testDamagedLastLine();
+        testLegacyLine();
+        testCompaction();
+
+        Files.deleteIfExists(LOG);
+        System.out.println(failures == 0 ? "=== Test completed ===" : "=== " + failures + " check(s) failed ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void testRestart() throws Exception {
+        System.out.println("Testing a restart...");
+        Files.deleteIfExists(LOG);
+        IdempotencyCache cache = new IdempotencyCache(LOG, 10, TTL_MILLIS);
+        check(cache.claim("k1", BODY_HASH) == null, "a new key is claimed");
+        cache.finish("k1", response(200, "{\"transactionId\":1}"));
+        check(cache.claim("k2", BODY_HASH) == null, "a second key is claimed");
+        cache.finish("k2", response(500, "{\"error\":\"failed\"}"));
+
+        IdempotencyCache restarted = new IdempotencyCache(LOG, 10, TTL_MILLIS);
+        check(body(restarted.claim("k1", BODY_HASH)).equals("{\"transactionId\":1}"), "the response came back after a restart");
+        check(restarted.claim("k2", BODY_HASH) == null, "a failed request was not remembered");
+    }
+
+    private static void testReusedKey() throws Exception {
+        System.out.println("Testing a key reused with another body...");
+        IdempotencyCache cache = new IdempotencyCache(LOG, 10, TTL_MILLIS);
+        check(reused(cache, "k1", IdempotencyCache.requestHash(bytes("{\"items\":[1]}"))), "a finished key with another body is refused");
+        check(cache.claim("k3", BODY_HASH) == null, "a key is claimed while its request runs");
+        check(reused(cache, "k3", IdempotencyCache.requestHash(bytes("{}"))), "a running key with another body is refused");
+        CompletableFuture<IdempotencyCache.Response> waiting = cache.claim("k3", BODY_HASH);
+        cache.finish("k3", response(200, "{\"transactionId\":3}"));
+        check(waiting != null && body(waiting).equals("{\"transactionId\":3}"), "a retry with the same body gets the response");
+    }
+
+    private static void testDamagedLastLine() throws Exception {
+        System.out.println("Testing a half-written last line...");
+        Files.writeString(LOG, System.currentTimeMillis() + " 200 k9 " + BODY_HASH.substring(0, 20),
+            StandardOpenOption.APPEND);
+        IdempotencyCache cache = new IdempotencyCache(LOG, 10, TTL_MILLIS);
+        check(body(cache.claim("k1", BODY_HASH)).equals("{\"transactionId\":1}"), "the lines before it were loaded");
+        check(cache.claim("k9", BODY_HASH) == null, "the half-written key was dropped");
+        String log = Files.readString(LOG);
+        check(log.endsWith("\n") && !log.contains(" k9 "), "the log was rewritten without it");
+    }
+
+    private static void testLegacyLine() throws Exception {
+        System.out.println("Testing a line from before request hashes...");
+        Files.writeString(LOG, System.currentTimeMillis() + " 200 old {\"transactionId\":7}\n", StandardOpenOption.APPEND);
+        IdempotencyCache cache = new IdempotencyCache(LOG, 10, TTL_MILLIS);
+        check(body(cache.claim("old", BODY_HASH)).equals("{\"transactionId\":7}"), "its response is replayed");
+    }
+
+    private static void testCompaction() throws Exception {
+        System.out.println("Testing compaction...");
+        Files.deleteIfExists(LOG);
+        IdempotencyCache cache = new IdempotencyCache(LOG, 2, TTL_MILLIS);
+        for (int i = 0; i < 6; i++) {
+            cache.claim("c" + i, BODY_HASH);
+            cache.finish("c" + i, response(200, "{\"transactionId\":" + i + "}"));
+        }
+        List<String> lines = Files.readAllLines(LOG);
+        check(cache.size() == 2, "only the two newest keys are cached");
+        check(lines.size() <= 4, "the log was compacted (" + lines.size() + " lines)");
+
+        IdempotencyCache restarted = new IdempotencyCache(LOG, 2, TTL_MILLIS);
+        check(restarted.size() == 2, "the compacted log reloads the two newest keys");
+        check(body(restarted.claim("c5", BODY_HASH)).equals("{\"transactionId\":5}"), "the newest key is replayed");
+        check(restarted.claim("c0", BODY_HASH) == null, "an evicted key is processed again");
+    }
+
+    private static boolean reused(IdempotencyCache cache, String key, String requestHash) {
+        try {
+            cache.claim(key, requestHash);
+            return false;
+        } catch (IdempotencyCache.KeyReusedException e) {
+            return true;
+        }
+    }
+
+    private static IdempotencyCache.Response response(int status, String body) {
+        return new IdempotencyCache.Response(status, bytes(body));
+    }
+
+    private static String body(CompletableFuture<IdempotencyCache.Response> response) {
+        return response != null ? new String(response.join().body, StandardCharsets.UTF_8) : "";
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("✓ " + what);
+        } else {
+            System.out.println("✗ " + what);
+            failures++;
+        }
+    }
+}
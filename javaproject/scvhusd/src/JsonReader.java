@@ -0,0 +1,462 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass pull parser for JSON read straight from a stream
+ * The caller walks the document token by token (beginObject, nextName, nextString, ...),
+ * so values can go directly into typed objects without building maps or substrings first.
+ * Total input size and nesting depth are capped; exceeding either fails the parse.
+ */
+public class JsonReader {
+
+    /**
+     * Kind of the next token in the document
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /**
+     * The input is not well-formed JSON or does not have the expected shape
+     */
+    public static class JsonException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public JsonException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The input is larger or deeper than allowed
+     */
+    public static class LimitExceededException extends JsonException {
+        private static final long serialVersionUID = 1L;
+
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    // Enclosing scopes, kept on a stack
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final int maxDepth;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[8];
+    private int stackSize;
+
+    private Token peeked;
+    private final StringBuilder value = new StringBuilder();
+
+    /**
+     * @param maxBytes largest accepted input, in bytes
+     * @param maxDepth deepest accepted nesting of objects and arrays
+     */
+    public JsonReader(InputStream in, long maxBytes, int maxDepth) {
+        this.in = new InputStreamReader(new LimitedInputStream(in, maxBytes), StandardCharsets.UTF_8);
+        this.maxDepth = maxDepth;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns the kind of the next token without consuming it
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY -> {
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != -1) {
+                    pos--;
+                }
+            }
+            case NONEMPTY_ARRAY -> {
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a property name");
+                }
+                stack[stackSize - 1] = DANGLING_NAME;
+                readString();
+                return peeked = Token.NAME;
+            }
+            case DANGLING_NAME -> {
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+            }
+            case EMPTY_DOCUMENT -> stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+            default -> {
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Unexpected data after the document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            }
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{' -> peeked = Token.BEGIN_OBJECT;
+            case '[' -> peeked = Token.BEGIN_ARRAY;
+            case '"' -> {
+                readString();
+                peeked = Token.STRING;
+            }
+            case 't' -> {
+                readLiteral("true");
+                peeked = Token.BOOLEAN;
+            }
+            case 'f' -> {
+                readLiteral("false");
+                peeked = Token.BOOLEAN;
+            }
+            case 'n' -> {
+                readLiteral("null");
+                peeked = Token.NULL;
+            }
+            case -1 -> throw syntaxError("Unexpected end of input");
+            default -> {
+                if (c != '-' && (c < '0' || c > '9')) {
+                    throw syntaxError("Unexpected character '" + (char) c + "'");
+                }
+                readNumber(c);
+                peeked = Token.NUMBER;
+            }
+        }
+        return peeked;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Whether the current object or array has another element
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return value.toString();
+    }
+
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        return value.toString();
+    }
+
+    public double nextDouble() throws IOException {
+        expect(Token.NUMBER);
+        return parseDouble();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return value.charAt(0) == 't';
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Consumes a string, number, boolean or null and returns its text ("null" for null);
+     * skips an object or array and returns null
+     */
+    public String nextScalarText() throws IOException {
+        Token token = peek();
+        if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+            skipValue();
+            return null;
+        }
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN && token != Token.NULL) {
+            throw syntaxError("Expected a value but was " + token);
+        }
+        peeked = null;
+        return value.toString();
+    }
+
+    /**
+     * Consumes a number, or a string holding one; anything else counts as 0
+     */
+    public double nextDoubleLenient() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER) {
+            return nextDouble();
+        }
+        String text = nextScalarText();
+        if (token == Token.STRING) {
+            try {
+                return Double.parseDouble(text.trim());
+            } catch (NumberFormatException e) {
+                return 0.0;
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Skips the next value, including everything nested inside it
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT -> {
+                    beginObject();
+                    depth++;
+                }
+                case BEGIN_ARRAY -> {
+                    beginArray();
+                    depth++;
+                }
+                case END_OBJECT -> {
+                    endObject();
+                    depth--;
+                }
+                case END_ARRAY -> {
+                    endArray();
+                    depth--;
+                }
+                case END_DOCUMENT -> throw syntaxError("Unexpected end of input");
+                default -> peeked = null;
+            }
+        } while (depth > 0);
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) throws JsonException {
+        if (stackSize > maxDepth) {
+            throw new LimitExceededException("JSON nested deeper than " + maxDepth + " levels");
+        }
+        if (stackSize == stack.length) {
+            int[] grown = new int[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, stackSize);
+            stack = grown;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote was consumed
+     */
+    private void readString() throws IOException {
+        value.setLength(0);
+        while (true) {
+            // Copy runs of plain characters straight from the buffer
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    break;
+                }
+                pos++;
+            }
+            value.append(buffer, start, pos - start);
+
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readEscape();
+            } else if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c < 0x20) {
+                throw syntaxError("Unescaped control character in string");
+            } else {
+                // Buffer was exhausted in the middle of the string
+                pos--;
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"', '\\', '/' -> value.append((char) c);
+            case 'b' -> value.append('\b');
+            case 'f' -> value.append('\f');
+            case 'n' -> value.append('\n');
+            case 'r' -> value.append('\r');
+            case 't' -> value.append('\t');
+            case 'u' -> {
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid \\u escape");
+                    }
+                    code = code * 16 + digit;
+                }
+                value.append((char) code);
+            }
+            default -> throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 1; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw syntaxError("Expected '" + literal + "'");
+            }
+        }
+        value.setLength(0);
+        value.append(literal);
+    }
+
+    private void readNumber(int first) throws IOException {
+        value.setLength(0);
+        value.append((char) first);
+        while (true) {
+            int c = read();
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                value.append((char) c);
+            } else {
+                if (c != -1) {
+                    pos--;
+                }
+                return;
+            }
+        }
+    }
+
+    private double parseDouble() throws JsonException {
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number '" + value + "'");
+        }
+    }
+
+    private JsonException syntaxError(String message) {
+        return new JsonException(message);
+    }
+
+    /**
+     * Fails once more than the allowed number of bytes has been read
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws LimitExceededException {
+            count += n;
+            if (count > maxBytes) {
+                throw new LimitExceededException("Request body larger than " + maxBytes + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test the streaming JSON reader and the limits checkout puts on it
+ * Loads the server class, which opens its idempotency key log in store.dir, so run it in a
+ * scratch directory: java -Dstore.dir=DIR JsonReaderTest
+ */
+public class JsonReaderTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== JSON Reader Test ===");
+
+        testEscapes();
+        testDepthLimit();
+        testSizeLimit();
+        testItemLimit();
+        testTrailingData();
+
+        System.out.println(failures == 0 ? "=== Test completed ===" : "=== " + failures + " check(s) failed ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void testEscapes() throws IOException {
+        System.out.println("Testing escapes...");
+        JsonReader reader = reader("{\"a\\\"b\":\"line\\nbreak \\\\ \\/ \\t\",\"u\":\"caf\\u00e9 \\u20AC \\ud83d\\ude00\"}");
+        reader.beginObject();
+        check(reader.nextName().equals("a\"b"), "an escaped quote in a name");
+        check(reader.nextString().equals("line\nbreak \\ / \t"), "\\n, \\\\, \\/ and \\t");
+        check(reader.nextName().equals("u"), "a plain name");
+        check(reader.nextString().equals("café € \uD83D\uDE00"), "\\u escapes, including a surrogate pair");
+        reader.endObject();
+        check(reader.peek() == JsonReader.Token.END_DOCUMENT, "the document ends");
+
+        check(fails("\"\\x\"", false), "an unknown escape is refused");
+        check(fails("\"\\u12G4\"", false), "a \\u escape with a non-hex digit is refused");
+        check(fails("\"unterminated", false), "an unterminated string is refused");
+    }
+
+    private static void testDepthLimit() {
+        System.out.println("Testing the nesting limit...");
+        check(!fails(nested(16), false), "16 levels are accepted with a limit of 16");
+        check(fails(nested(17), true), "17 levels fail with LimitExceededException");
+    }
+
+    private static void testSizeLimit() {
+        System.out.println("Testing the size limit...");
+        String document = "\"" + "x".repeat(100) + "\"";
+        check(!fails(document, false, 102), "a document of exactly the limit is accepted");
+        check(fails(document, true, 101), "one byte over the limit fails with LimitExceededException");
+    }
+
+    private static void testItemLimit() throws IOException {
+        System.out.println("Testing the cart item limit...");
+        int limit = Integer.getInteger("server.maxCartItems", 10_000);
+        check(parsesCheckout(items(limit)), limit + " items are accepted");
+        try {
+            EcommerceServer.parseCheckout(body(items(limit + 1)));
+            check(false, (limit + 1) + " items are refused");
+        } catch (JsonReader.LimitExceededException e) {
+            check(true, (limit + 1) + " items are refused: " + e.getMessage());
+        }
+    }
+
+    private static void testTrailingData() throws IOException {
+        System.out.println("Testing trailing data...");
+        String order = "{\"items\":[{\"name\":\"Tea\",\"price\":3.00,\"quantity\":1}],\"paymentMethod\":\"CASH\",\"amountPaid\":3.00}";
+        check(parsesCheckout(order + " \n"), "trailing whitespace is accepted");
+        check(!parsesCheckout(order + " {}"), "a second document is refused");
+        check(!parsesCheckout(order + "x"), "trailing characters are refused");
+    }
+
+    private static String nested(int depth) {
+        return "[".repeat(depth) + "]".repeat(depth);
+    }
+
+    private static String items(int count) {
+        StringBuilder sb = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < count; i++) {
+            sb.append(i > 0 ? "," : "").append("{\"name\":\"Tea\",\"price\":1,\"quantity\":1}");
+        }
+        return sb.append("],\"paymentMethod\":\"CASH\",\"amountPaid\":1}").toString();
+    }
+
+    private static boolean parsesCheckout(String json) throws IOException {
+        try {
+            EcommerceServer.parseCheckout(body(json));
+            return true;
+        } catch (JsonReader.JsonException e) {
+            return false;
+        }
+    }
+
+    private static boolean fails(String json, boolean limit) {
+        return fails(json, limit, 1024 * 1024);
+    }
+
+    /**
+     * Whether skipping the whole document fails; with limit, it must fail on a limit
+     */
+    private static boolean fails(String json, boolean limit, long maxBytes) {
+        try {
+            JsonReader reader = new JsonReader(body(json), maxBytes, 16);
+            reader.skipValue();
+            reader.peek();
+            return false;
+        } catch (JsonReader.LimitExceededException e) {
+            return true;
+        } catch (IOException e) {
+            return !limit;
+        }
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(body(json), 1024 * 1024, 16);
+    }
+
+    private static ByteArrayInputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("✓ " + what);
+        } else {
+            System.out.println("✗ " + what);
+            failures++;
+        }
+    }
+}
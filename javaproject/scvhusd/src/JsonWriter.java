@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * JSON writer that encodes straight to UTF-8 bytes in a reusable buffer
+ * Strings are escaped and encoded in one pass, integers and amounts in cents are written
+ * digit by digit, and the buffer either grows (to send with a known length) or is flushed
+ * to a stream whenever it fills (for chunked responses). Writers are reused through a small
+ * pool rather than one per thread, since requests on virtual threads each get a new thread.
+ * A failed write to the stream surfaces as an UncheckedIOException.
+ */
+public final class JsonWriter {
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    // Writers handed back with release; any beyond this are left to the garbage collector
+    private static final int POOL_SIZE = 64;
+    private static final ArrayBlockingQueue<JsonWriter> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count;
+    private OutputStream out;
+    private boolean needsComma;
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Returns an empty writer from the pool, or a new one when the pool is empty
+     * Hand it back with release once its output is sent; a writer never released is just dropped.
+     */
+    public static JsonWriter acquire() {
+        JsonWriter writer = POOL.poll();
+        return writer != null ? writer : new JsonWriter();
+    }
+
+    /**
+     * Returns a new writer that never goes back to the pool, for output kept past a request
+     */
+    public static JsonWriter create() {
+        return new JsonWriter();
+    }
+
+    /**
+     * Empties the writer and hands it back to the pool; it must not be used afterwards
+     */
+    public void release() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            // Don't keep a huge buffer around after one large response
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        count = 0;
+        out = null;
+        needsComma = false;
+        POOL.offer(this);
+    }
+
+    /**
+     * Sends output to the stream whenever the buffer fills instead of growing it
+     */
+    public JsonWriter streamTo(OutputStream out) {
+        this.out = out;
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        separator();
+        writeByte('{');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        writeByte('}');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separator();
+        writeByte('[');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        writeByte(']');
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        separator();
+        writeString(name);
+        writeByte(':');
+        needsComma = false;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separator();
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeString(value);
+        }
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separator();
+        writeLong(value);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes a number in Double.toString form; NaN and infinities have no JSON form and become null
+     */
+    public JsonWriter value(double value) {
+        if (!Double.isFinite(value)) {
+            return nullValue();
+        }
+        separator();
+        writeAscii(Double.toString(value));
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separator();
+        writeAscii(value ? "true" : "false");
+        needsComma = true;
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        separator();
+        writeAscii("null");
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes a date-time as a string, formatted like LocalDateTime.toString()
+     */
+    public JsonWriter value(LocalDateTime dateTime) {
+        if (dateTime == null || dateTime.getNano() != 0 || dateTime.getYear() < 0 || dateTime.getYear() > 9999) {
+            return value(dateTime != null ? dateTime.toString() : null);
+        }
+        separator();
+        ensure(22);
+        buffer[count++] = '"';
+        writeDigits(dateTime.getYear(), 4);
+        buffer[count++] = '-';
+        writeDigits(dateTime.getMonthValue(), 2);
+        buffer[count++] = '-';
+        writeDigits(dateTime.getDayOfMonth(), 2);
+        buffer[count++] = 'T';
+        writeDigits(dateTime.getHour(), 2);
+        buffer[count++] = ':';
+        writeDigits(dateTime.getMinute(), 2);
+        if (dateTime.getSecond() != 0) {
+            buffer[count++] = ':';
+            writeDigits(dateTime.getSecond(), 2);
+        }
+        buffer[count++] = '"';
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Writes a whole number of cents as a decimal amount with two decimals, e.g. 1250 as 12.50
+     */
+    public JsonWriter moneyCents(long cents) {
+        separator();
+        if (cents < 0) {
+            writeByte('-');
+            if (cents == Long.MIN_VALUE) {
+                writeAscii("92233720368547758.08");
+                needsComma = true;
+                return this;
+            }
+            cents = -cents;
+        }
+        writeLong(cents / 100);
+        ensure(3);
+        buffer[count++] = '.';
+        writeDigits((int) (cents % 100), 2);
+        needsComma = true;
+        return this;
+    }
+
+    /**
+     * Number of bytes written so far and not yet flushed
+     */
+    public int size() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Writes the buffered bytes to the stream and empties the buffer
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        stream.write(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Sends everything buffered so far to the stream given to streamTo
+     */
+    public void flush() throws IOException {
+        if (out != null && count > 0) {
+            writeTo(out);
+        }
+    }
+
+    private void separator() {
+        if (needsComma) {
+            writeByte(',');
+        }
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buffer[count++] = (byte) c;
+    }
+
+    private void writeAscii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count = end;
+    }
+
+    // Caller has ensured room
+    private void writeDigits(int value, int width) {
+        for (int i = count + width - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count += width;
+    }
+
+    /**
+     * Escapes and UTF-8 encodes a string in one pass
+     */
+    private void writeString(String s) {
+        ensure(2);
+        buffer[count++] = '"';
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (count + 6 > buffer.length) {
+                ensure(6);
+            }
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[count++] = (byte) c;
+                } else {
+                    writeEscape(c);
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: write U+FFFD as the JDK encoder would
+                buffer[count++] = (byte) 0xEF;
+                buffer[count++] = (byte) 0xBF;
+                buffer[count++] = (byte) 0xBD;
+            } else {
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ensure(1);
+        buffer[count++] = '"';
+    }
+
+    private void writeEscape(char c) {
+        buffer[count++] = '\\';
+        switch (c) {
+            case '"' -> buffer[count++] = '"';
+            case '\\' -> buffer[count++] = '\\';
+            case '\n' -> buffer[count++] = 'n';
+            case '\r' -> buffer[count++] = 'r';
+            case '\t' -> buffer[count++] = 't';
+            case '\b' -> buffer[count++] = 'b';
+            case '\f' -> buffer[count++] = 'f';
+            default -> {
+                buffer[count++] = 'u';
+                buffer[count++] = '0';
+                buffer[count++] = '0';
+                buffer[count++] = HEX[c >> 4];
+                buffer[count++] = HEX[c & 0xF];
+            }
+        }
+    }
+
+    /**
+     * Makes room for n more bytes, by flushing when streaming or by growing otherwise
+     */
+    private void ensure(int n) {
+        if (count + n <= buffer.length) {
+            return;
+        }
+        if (out != null && count > 0) {
+            try {
+                writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (n <= buffer.length) {
+                return;
+            }
+        }
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + n));
+    }
+}
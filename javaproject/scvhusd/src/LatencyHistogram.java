@@ -0,0 +1,177 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with a bounded relative error, in the style of HdrHistogram
+ * Every power of two is split into 1024 equal sub-buckets, so a value is reported at most
+ * 0.1% above what was recorded, and counting up to an hour takes about 270 KB. Recording is an
+ * atomic increment without locks or allocation, so any number of threads can share one.
+ * Coordinated omission (a stalled server holding back the requests that would have measured
+ * the stall) is corrected by recording the samples a steady sender would have taken meanwhile.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 11;
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int SUB_BUCKET_MASK = (1 << SUB_BUCKET_BITS) - 1;
+    static final long DEFAULT_HIGHEST = TimeUnit.HOURS.toNanos(1);
+
+    private final long highest;
+    private final AtomicLongArray counts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST);
+    }
+
+    /**
+     * @param highest largest value told apart; larger ones are counted as this
+     */
+    public LatencyHistogram(long highest) {
+        if (highest < 1) {
+            throw new IllegalArgumentException("Highest value must be positive: " + highest);
+        }
+        this.highest = highest;
+        this.counts = new AtomicLongArray(indexFor(highest) + 1);
+    }
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Records a value and, when it is above the interval a sender expected between samples,
+     * the values of the samples it kept from being taken: nanos - interval, nanos - 2 * interval, ...
+     */
+    public void recordCorrected(long nanos, long expectedIntervalNanos) {
+        recordCorrected(nanos, 1, expectedIntervalNanos);
+    }
+
+    private void recordCorrected(long nanos, long n, long expectedIntervalNanos) {
+        record(nanos, n);
+        if (expectedIntervalNanos <= 0) {
+            return;
+        }
+        for (long missing = nanos - expectedIntervalNanos; missing >= expectedIntervalNanos; missing -= expectedIntervalNanos) {
+            record(missing, n);
+        }
+    }
+
+    private void record(long nanos, long n) {
+        long value = Math.max(0, Math.min(nanos, highest));
+        counts.addAndGet(indexFor(value), n);
+        count.add(n);
+        sum.add(value * n);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Adds everything recorded in another histogram with the same range
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length() != counts.length()) {
+            throw new IllegalArgumentException("Histograms cover different ranges");
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            long n = other.counts.get(i);
+            if (n > 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        long otherMax = other.max.get();
+        long current = max.get();
+        while (otherMax > current && !max.compareAndSet(current, otherMax)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * A copy corrected for coordinated omission after the fact, for a closed-loop sender whose
+     * requests were expected every expectedIntervalNanos
+     */
+    public LatencyHistogram correctedCopy(long expectedIntervalNanos) {
+        LatencyHistogram copy = new LatencyHistogram(highest);
+        for (int i = 0; i < counts.length(); i++) {
+            long n = counts.get(i);
+            if (n > 0) {
+                copy.recordCorrected(Math.min(highestEquivalent(i), max.get()), n, expectedIntervalNanos);
+            }
+        }
+        return copy;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Smallest value that at least the given percentage of the samples are at or below
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Number of samples at or below each of the values, give or take the values sharing their sub-bucket
+     * @param sortedNanos values in ascending order
+     */
+    public long[] getCountsAtOrBelow(long[] sortedNanos) {
+        long[] result = new long[sortedNanos.length];
+        long n = 0;
+        int index = 0;
+        for (int i = 0; i < sortedNanos.length; i++) {
+            int last = indexFor(Math.max(0, Math.min(sortedNanos[i], highest)));
+            for (; index <= last; index++) {
+                n += counts.get(index);
+            }
+            result[i] = n;
+        }
+        return result;
+    }
+
+    static int indexFor(long value) {
+        // 0 for values below 2^SUB_BUCKET_BITS, which are counted exactly
+        int magnitude = 64 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - SUB_BUCKET_BITS;
+        return (magnitude << (SUB_BUCKET_BITS - 1)) + (int) (value >>> magnitude);
+    }
+
+    static long highestEquivalent(int index) {
+        int magnitude = Math.max(0, index / SUB_BUCKET_HALF - 1);
+        long subBucket = index - ((long) magnitude << (SUB_BUCKET_BITS - 1));
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,328 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test for EcommerceServer that reports throughput and latency percentiles as JSON
+ * Each connection has its own sender thread and HTTP client and draws its calls from a weighted
+ * mix of /api/products, /api/checkout and /api/transactions with a seeded random, so runs are
+ * repeatable. With a rate the load is open-loop: every connection sends on a fixed schedule and
+ * latency counts from when a request was due, so a stall delays every request behind it and is
+ * measured in full. Without one it is closed-loop (send, wait for the response, send again) and
+ * latencies are corrected afterwards as if requests were due every mean service time.
+ * Service time, from sending to the response, is reported uncorrected next to it.
+ * Usage: java [-Dstore.dir=DIR] LoadGenerator [--option=value ...]
+ *   --url=http://localhost:8080   server to load, or in-process to start one here on a free port
+ *   --connections=16
+ *   --rate=0                      requests per second over all connections; 0 for closed-loop
+ *   --duration=30 --warmup=5      seconds; requests during the warmup are sent but not counted
+ *   --mix=products:60,checkout:20,transactions:20
+ *   --seed=1
+ *   --out=FILE                    write the report here instead of to stdout
+ * Checkouts are saved, so point the server at a scratch store.dir.
+ */
+public class LoadGenerator {
+
+    private static final String DEFAULT_MIX = "products:60,checkout:20,transactions:20";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final String CHECKOUT_BODY = "{\"items\":["
+        + "{\"name\":\"Classic T-Shirt\",\"price\":14.99,\"quantity\":2},"
+        + "{\"name\":\"Backpack\",\"price\":34.99,\"quantity\":1}],"
+        + "\"paymentMethod\":\"CARD\",\"cardLast4\":\"4242\",\"cardHolderName\":\"Load Test\",\"cardExpiry\":\"12/29\"}";
+
+    /**
+     * One kind of call in the mix, with what was measured for it
+     */
+    static final class Endpoint {
+        final String name;
+        final String path;
+        final String body;
+        int weight;
+        HttpRequest request;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        // Responses by status class (1xx at 1 ... 5xx at 5); 0 counts requests that got no response
+        final AtomicLongArray statuses = new AtomicLongArray(6);
+
+        Endpoint(String name, String path, String body) {
+            this.name = name;
+            this.path = path;
+            this.body = body;
+        }
+
+        void prepare(URI base) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(base.resolve(path)).timeout(REQUEST_TIMEOUT);
+            request = body != null
+                ? builder.header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(body)).build()
+                : builder.GET().build();
+        }
+
+        void record(int status, long latencyNanos, long serviceNanos) {
+            statuses.incrementAndGet(status >= 100 && status < 600 ? status / 100 : 0);
+            latency.record(latencyNanos);
+            serviceTime.record(serviceNanos);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Expected --option=value but got: " + arg);
+                return;
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        int connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        double durationSeconds = Double.parseDouble(options.getOrDefault("duration", "30"));
+        double warmupSeconds = Double.parseDouble(options.getOrDefault("warmup", "5"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        Endpoint[] mix;
+        try {
+            mix = parseMix(options.getOrDefault("mix", DEFAULT_MIX));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        if (connections <= 0 || rate < 0 || durationSeconds <= 0 || warmupSeconds < 0) {
+            System.err.println("Connections and duration must be positive, rate and warmup not negative");
+            return;
+        }
+
+        HttpServer server = null;
+        if ("in-process".equals(url)) {
+            server = EcommerceServer.start(0);
+            url = "http://localhost:" + server.getAddress().getPort();
+        }
+        try {
+            URI base = URI.create(url);
+            for (Endpoint endpoint : mix) {
+                endpoint.prepare(base);
+            }
+            System.err.printf("Loading %s over %d connections, %s, for %.0f s after a %.0f s warmup%n", url, connections,
+                rate > 0 ? String.format("%.0f requests/s", rate) : "closed-loop", durationSeconds, warmupSeconds);
+            run(mix, connections, rate, seconds(warmupSeconds), seconds(durationSeconds), seed);
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+        }
+
+        byte[] report = report(mix, url, connections, rate, warmupSeconds, durationSeconds);
+        String out = options.get("out");
+        if (out != null) {
+            Files.write(Paths.get(out), report);
+            System.err.println("Report written to " + out);
+        } else {
+            System.out.write(report);
+            System.out.println();
+        }
+    }
+
+    static Endpoint[] parseMix(String spec) {
+        Endpoint[] endpoints = {
+            new Endpoint("products", "/api/products", null),
+            new Endpoint("checkout", "/api/checkout", CHECKOUT_BODY),
+            new Endpoint("transactions", "/api/transactions?limit=20", null),
+        };
+        int total = 0;
+        for (String part : spec.split(",")) {
+            String[] nameAndWeight = part.trim().split(":");
+            Endpoint endpoint = null;
+            for (Endpoint e : endpoints) {
+                if (e.name.equals(nameAndWeight[0])) {
+                    endpoint = e;
+                }
+            }
+            if (endpoint == null || nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("Bad mix entry '" + part + "'; expected products, checkout or transactions with a weight, e.g. " + DEFAULT_MIX);
+            }
+            endpoint.weight = Integer.parseInt(nameAndWeight[1]);
+            if (endpoint.weight < 0) {
+                throw new IllegalArgumentException("Negative weight in mix: " + part);
+            }
+            total += endpoint.weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The mix has no weight: " + spec);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Sends until the warmup and the measured duration are over
+     * Open-loop connections start staggered over one interval, so the requests are spread evenly.
+     */
+    private static void run(Endpoint[] mix, int connections, double rate, long warmupNanos, long durationNanos,
+                            long seed) throws InterruptedException {
+        long intervalNanos = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        SplittableRandom seeds = new SplittableRandom(seed);
+        Thread[] threads = new Thread[connections];
+        for (int c = 0; c < connections; c++) {
+            SplittableRandom random = seeds.split();
+            long firstDue = start + intervalNanos * c / connections;
+            threads[c] = new Thread(() -> send(mix, random, intervalNanos, firstDue, measureFrom, end), "load-" + c);
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void send(Endpoint[] mix, SplittableRandom random, long intervalNanos, long due, long measureFrom, long end) {
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(REQUEST_TIMEOUT)
+            .build();
+        int totalWeight = 0;
+        for (Endpoint endpoint : mix) {
+            totalWeight += endpoint.weight;
+        }
+        while (true) {
+            long now = System.nanoTime();
+            if (intervalNanos > 0) {
+                // Behind schedule, the request goes out at once but still counts from when it was due
+                while (now < due) {
+                    LockSupport.parkNanos(due - now);
+                    now = System.nanoTime();
+                }
+            } else {
+                due = now;
+            }
+            if (due >= end || now >= end) {
+                return;
+            }
+            int pick = random.nextInt(totalWeight);
+            Endpoint endpoint = mix[0];
+            for (Endpoint e : mix) {
+                if (pick < e.weight) {
+                    endpoint = e;
+                    break;
+                }
+                pick -= e.weight;
+            }
+            int status = call(client, endpoint);
+            long done = System.nanoTime();
+            if (due >= measureFrom) {
+                endpoint.record(status, done - due, done - now);
+            }
+            due += intervalNanos;
+        }
+    }
+
+    /**
+     * @return the HTTP status, or 0 when there was no response
+     */
+    private static int call(HttpClient client, Endpoint endpoint) {
+        try {
+            return client.send(endpoint.request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private static byte[] report(Endpoint[] mix, String url, int connections, double rate,
+                                 double warmupSeconds, double durationSeconds) {
+        boolean closedLoop = rate == 0;
+        LatencyHistogram allService = new LatencyHistogram();
+        for (Endpoint endpoint : mix) {
+            allService.add(endpoint.serviceTime);
+        }
+        // A closed-loop connection would have sent every mean service time had the server kept up
+        long expectedIntervalNanos = (long) allService.getMean();
+        LatencyHistogram allLatency = new LatencyHistogram();
+        long errors = 0;
+        for (Endpoint endpoint : mix) {
+            allLatency.add(closedLoop ? endpoint.latency.correctedCopy(expectedIntervalNanos) : endpoint.latency);
+            errors += endpoint.statuses.get(0);
+        }
+
+        JsonWriter json = JsonWriter.acquire();
+        json.beginObject()
+            .name("url").value(url)
+            .name("mode").value(closedLoop ? "closed" : "open")
+            .name("connections").value(connections)
+            .name("rate").value(rate)
+            .name("warmupSeconds").value(warmupSeconds)
+            .name("durationSeconds").value(durationSeconds)
+            .name("requests").value(allService.getCount())
+            .name("errors").value(errors)
+            .name("throughput").value(round(allService.getCount() / durationSeconds))
+            .name("latencyMillis");
+        writeLatency(json, allLatency);
+        json.name("serviceTimeMillis");
+        writeLatency(json, allService);
+        json.name("endpoints").beginArray();
+        for (Endpoint endpoint : mix) {
+            if (endpoint.weight == 0) {
+                continue;
+            }
+            json.beginObject()
+                .name("name").value(endpoint.name)
+                .name("path").value(endpoint.path)
+                .name("weight").value(endpoint.weight)
+                .name("requests").value(endpoint.serviceTime.getCount())
+                .name("errors").value(endpoint.statuses.get(0))
+                .name("statuses").beginObject();
+            for (int statusClass = 1; statusClass < endpoint.statuses.length(); statusClass++) {
+                if (endpoint.statuses.get(statusClass) > 0) {
+                    json.name(statusClass + "xx").value(endpoint.statuses.get(statusClass));
+                }
+            }
+            json.endObject().name("latencyMillis");
+            writeLatency(json, closedLoop ? endpoint.latency.correctedCopy(expectedIntervalNanos) : endpoint.latency);
+            json.name("serviceTimeMillis");
+            writeLatency(json, endpoint.serviceTime);
+            json.endObject();
+        }
+        json.endArray().endObject();
+        return json.toByteArray();
+    }
+
+    private static void writeLatency(JsonWriter json, LatencyHistogram histogram) {
+        json.beginObject()
+            .name("mean").value(millis((long) histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            json.name("p" + (percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile)))
+                .value(millis(histogram.getValueAtPercentile(percentile)));
+        }
+        json.name("max").value(millis(histogram.getMax()))
+            .endObject();
+    }
+
+    private static long seconds(double seconds) {
+        return (long) (seconds * 1e9);
+    }
+
+    // Milliseconds to the microsecond
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+
+/**
+ * Zero-copy reader for the pipe-delimited data files
+ * Maps the file and parses records straight from the mapped bytes: integers, amounts and the
+ * fixed yyyy-MM-dd HH:mm:ss timestamps are decoded by hand, and only the text fields become Strings.
+ * Results are identical to splitting each line and using Integer.parse, Money.parse and LocalDateTime.parse.
+ */
+public class MappedTransactionReader {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long MAX_WINDOW_BYTES = 256L * 1024 * 1024;
+    private static final int TRANSACTION_FIELDS = 12;
+    private static final int LINE_ITEM_FIELDS = 5;
+
+    private static final int MAX_AMOUNT_WHOLE_DIGITS = 16;
+
+    /**
+     * Receives one line: its fields' bounds in the buffer and the line's byte range in the file
+     */
+    private interface LineParser {
+        /**
+         * @return whether the line held a record
+         */
+        boolean parse(MappedByteBuffer buffer, int[] fieldStarts, int[] fieldEnds, int fieldCount, long start, long end);
+    }
+
+    /**
+     * Parses the transactions file between the given offsets
+     * @param end offset to stop at, or Long.MAX_VALUE for the end of the file
+     * @param includeUnterminated whether a final line without a line break is parsed too
+     * @return the offset just past the last line consumed
+     */
+    public static long readTransactions(Path file, long start, long end, boolean includeUnterminated,
+                                        Consumer<SimpleFileBasedDataStore.SimpleTransaction> sink) throws IOException {
+        return readTransactions(file, start, end, includeUnterminated,
+            (SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleTransaction>) (t, s, e) -> sink.accept(t));
+    }
+
+    /**
+     * Parses the transactions file between the given offsets, reporting each line's byte range
+     */
+    public static long readTransactions(Path file, long start, long end, boolean includeUnterminated,
+                                        SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleTransaction> sink)
+            throws IOException {
+        return read(file, start, end, includeUnterminated, TRANSACTION_FIELDS,
+            StoreMetrics.TRANSACTIONS_LOADED, StoreMetrics.TRANSACTION_BYTES_SCANNED, (buffer, starts, ends, count, lineStart, lineEnd) -> {
+            // Same rule as split("\\|"): trailing empty fields do not count
+            int nonEmptyCount = count;
+            while (nonEmptyCount > 0 && starts[nonEmptyCount - 1] == ends[nonEmptyCount - 1]) {
+                nonEmptyCount--;
+            }
+            if (nonEmptyCount < 9) {
+                return false;
+            }
+            SimpleFileBasedDataStore.SimpleTransaction transaction = new SimpleFileBasedDataStore.SimpleTransaction();
+            transaction.transactionId = parseInt(buffer, starts[0], ends[0]);
+            transaction.transactionDate = parseDateTime(buffer, starts[1], ends[1]);
+            transaction.subtotalCents = parseCents(buffer, starts[2], ends[2]);
+            transaction.taxRateBasisPoints = parseCents(buffer, starts[3], ends[3]);
+            transaction.taxAmountCents = parseCents(buffer, starts[4], ends[4]);
+            transaction.totalDueCents = parseCents(buffer, starts[5], ends[5]);
+            transaction.paymentMethod = parsePaymentMethod(buffer, starts[6], ends[6]);
+            transaction.amountPaidCents = parseCents(buffer, starts[7], ends[7]);
+            transaction.changeAmountCents = parseCents(buffer, starts[8], ends[8]);
+            if (count > 9) {
+                transaction.cardNumberMasked = parseOptionalString(buffer, starts[9], ends[9]);
+            }
+            if (count > 10) {
+                transaction.cardHolderName = parseOptionalString(buffer, starts[10], ends[10]);
+            }
+            if (count > 11) {
+                transaction.cardExpiry = parseOptionalString(buffer, starts[11], ends[11]);
+            }
+            sink.accept(transaction, lineStart, lineEnd);
+            return true;
+        });
+    }
+
+    /**
+     * Parses the line items file between the given offsets
+     * @param end offset to stop at, or Long.MAX_VALUE for the end of the file
+     * @param includeUnterminated whether a final line without a line break is parsed too
+     * @return the offset just past the last line consumed
+     */
+    public static long readLineItems(Path file, long start, long end, boolean includeUnterminated,
+                                     Consumer<SimpleFileBasedDataStore.SimpleLineItem> sink) throws IOException {
+        return readLineItems(file, start, end, includeUnterminated,
+            (SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleLineItem>) (item, s, e) -> sink.accept(item));
+    }
+
+    /**
+     * Parses the line items file between the given offsets, reporting each line's byte range
+     */
+    public static long readLineItems(Path file, long start, long end, boolean includeUnterminated,
+                                     SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleLineItem> sink)
+            throws IOException {
+        return read(file, start, end, includeUnterminated, LINE_ITEM_FIELDS,
+            StoreMetrics.LINE_ITEMS_LOADED, StoreMetrics.LINE_ITEM_BYTES_SCANNED, (buffer, starts, ends, count, lineStart, lineEnd) -> {
+            int nonEmptyCount = count;
+            while (nonEmptyCount > 0 && starts[nonEmptyCount - 1] == ends[nonEmptyCount - 1]) {
+                nonEmptyCount--;
+            }
+            if (nonEmptyCount < 5) {
+                return false;
+            }
+            SimpleFileBasedDataStore.SimpleLineItem item = new SimpleFileBasedDataStore.SimpleLineItem();
+            item.transactionId = parseInt(buffer, starts[0], ends[0]);
+            item.description = parseString(buffer, starts[1], ends[1]);
+            item.quantity = parseInt(buffer, starts[2], ends[2]);
+            item.unitPriceCents = parseCents(buffer, starts[3], ends[3]);
+            item.lineTotalCents = parseCents(buffer, starts[4], ends[4]);
+            sink.accept(item, lineStart, lineEnd);
+            return true;
+        });
+    }
+
+    /**
+     * Maps the file window by window and hands every complete line to the parser
+     * @param recordsLoaded counts the records parsed
+     * @param bytesScanned counts the bytes consumed
+     */
+    private static long read(Path file, long start, long end, boolean includeUnterminated, int maxFields,
+                             MetricsRegistry.Counter recordsLoaded, MetricsRegistry.Counter bytesScanned,
+                             LineParser parser) throws IOException {
+        int[] fieldStarts = new int[maxFields];
+        int[] fieldEnds = new int[maxFields];
+        long records = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long limit = Math.min(end, channel.size());
+            long windowStart = start;
+
+            while (windowStart < limit) {
+                long windowSize = Math.min(MAX_WINDOW_BYTES, limit - windowStart);
+                boolean lastWindow = windowStart + windowSize == limit;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                int size = (int) windowSize;
+
+                int lineStart = 0;
+                int fieldCount = 0;
+                fieldStarts[0] = 0;
+                for (int i = 0; i < size; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '|') {
+                        if (fieldCount < maxFields) {
+                            fieldEnds[fieldCount] = i;
+                        }
+                        fieldCount++;
+                        if (fieldCount < maxFields) {
+                            fieldStarts[fieldCount] = i + 1;
+                        }
+                    } else if (b == '\n') {
+                        int lineEnd = (i > lineStart && buffer.get(i - 1) == '\r') ? i - 1 : i;
+                        if (finishLine(parser, buffer, fieldStarts, fieldEnds, fieldCount, maxFields, lineEnd,
+                                       windowStart + lineStart, windowStart + i + 1)) {
+                            records++;
+                        }
+                        lineStart = i + 1;
+                        fieldCount = 0;
+                        fieldStarts[0] = lineStart;
+                    }
+                }
+
+                if (lastWindow && includeUnterminated && lineStart < size) {
+                    int lineEnd = buffer.get(size - 1) == '\r' ? size - 1 : size;
+                    if (finishLine(parser, buffer, fieldStarts, fieldEnds, fieldCount, maxFields, lineEnd,
+                                   windowStart + lineStart, windowStart + size)) {
+                        records++;
+                    }
+                    lineStart = size;
+                }
+
+                if (lineStart == 0 && !lastWindow) {
+                    throw new IOException("Line longer than " + MAX_WINDOW_BYTES + " bytes at offset " + windowStart + " in " + file);
+                }
+                windowStart += lineStart;
+                if (lastWindow) {
+                    break;
+                }
+            }
+            recordsLoaded.add(records);
+            bytesScanned.add(windowStart - start);
+            return windowStart;
+        }
+    }
+
+    private static boolean finishLine(LineParser parser, MappedByteBuffer buffer, int[] fieldStarts, int[] fieldEnds,
+                                   int separators, int maxFields, int lineEnd, long start, long end) {
+        if (separators < maxFields) {
+            fieldEnds[separators] = lineEnd;
+        }
+        // Fields past maxFields are ignored, just as the split-based loader never reads them
+        int fieldCount = Math.min(separators + 1, maxFields);
+        return parser.parse(buffer, fieldStarts, fieldEnds, fieldCount, start, end);
+    }
+
+    static int parseInt(MappedByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > 9) {
+            return Integer.parseInt(ascii(buffer, start, end));
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(ascii(buffer, start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Decodes a plain decimal amount to cents, rounding half-up past two decimals like Money.parse;
+     * anything unusual (exponents, very long values) goes to Money.parse
+     */
+    static long parseCents(MappedByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int wholeDigits = 0;
+        int fractionDigits = -1;
+        boolean roundUp = false;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (fractionDigits < 0) {
+                    units = units * 10 + (b - '0');
+                    if (++wholeDigits > MAX_AMOUNT_WHOLE_DIGITS) {
+                        return Money.parse(ascii(buffer, start, end));
+                    }
+                } else if (fractionDigits < 2) {
+                    units = units * 10 + (b - '0');
+                    fractionDigits++;
+                } else if (fractionDigits == 2) {
+                    roundUp = b >= '5';
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return Money.parse(ascii(buffer, start, end));
+            }
+        }
+        if (wholeDigits == 0 && fractionDigits <= 0) {
+            return Money.parse(ascii(buffer, start, end));
+        }
+        if (fractionDigits < 1) {
+            units *= 100;
+        } else if (fractionDigits == 1) {
+            units *= 10;
+        }
+        if (roundUp) {
+            units++;
+        }
+        return negative ? -units : units;
+    }
+
+    static LocalDateTime parseDateTime(MappedByteBuffer buffer, int start, int end) {
+        if (end - start == 19
+                && buffer.get(start + 4) == '-' && buffer.get(start + 7) == '-' && buffer.get(start + 10) == ' '
+                && buffer.get(start + 13) == ':' && buffer.get(start + 16) == ':') {
+            int year = digits(buffer, start, 4);
+            int month = digits(buffer, start + 5, 2);
+            int day = digits(buffer, start + 8, 2);
+            int hour = digits(buffer, start + 11, 2);
+            int minute = digits(buffer, start + 14, 2);
+            int second = digits(buffer, start + 17, 2);
+            if ((year | month | day | hour | minute | second) >= 0) {
+                try {
+                    return LocalDateTime.of(year, month, day, hour, minute, second);
+                } catch (DateTimeException e) {
+                    // Let the formatter apply its own resolving rules below
+                }
+            }
+        }
+        return LocalDateTime.parse(ascii(buffer, start, end), DATE_FORMATTER);
+    }
+
+    /**
+     * Decodes count ASCII digits, or returns -1 if any byte is not a digit
+     */
+    private static int digits(MappedByteBuffer buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static String parsePaymentMethod(MappedByteBuffer buffer, int start, int end) {
+        // The two common values are shared constants, so they cost no allocation
+        if (end - start == 4 && buffer.get(start) == 'C' && buffer.get(start + 1) == 'A') {
+            if (buffer.get(start + 2) == 'S' && buffer.get(start + 3) == 'H') return "CASH";
+            if (buffer.get(start + 2) == 'R' && buffer.get(start + 3) == 'D') return "CARD";
+        }
+        return parseString(buffer, start, end);
+    }
+
+    private static String parseOptionalString(MappedByteBuffer buffer, int start, int end) {
+        return start == end ? null : parseString(buffer, start, end);
+    }
+
+    static String parseString(MappedByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String ascii(MappedByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
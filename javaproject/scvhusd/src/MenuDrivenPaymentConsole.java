@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -10,7 +11,7 @@ import java.util.Scanner;
  */
 public class MenuDrivenPaymentConsole {
     
-    private static final double TAX_RATE = 8.5; // 8.5% tax rate
+    private static final long TAX_RATE_BASIS_POINTS = 850; // 8.5% tax rate
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
     /**
@@ -18,12 +19,12 @@ public class MenuDrivenPaymentConsole {
      */
     public static class Product {
         public String name;
-        public double price;
+        public long priceCents;
         public String description;
         
-        public Product(String name, double price, String description) {
+        public Product(String name, long priceCents, String description) {
             this.name = name;
-            this.price = price;
+            this.priceCents = priceCents;
             this.description = description;
         }
     }
@@ -34,12 +35,12 @@ public class MenuDrivenPaymentConsole {
     public static class LineItem {
         public Product product;
         public int quantity;
-        public double lineTotal;
+        public long lineTotalCents;
         
         public LineItem(Product product, int quantity) {
             this.product = product;
             this.quantity = quantity;
-            this.lineTotal = product.price * quantity;
+            this.lineTotalCents = Money.times(product.priceCents, quantity);
         }
     }
     
@@ -94,30 +95,9 @@ public class MenuDrivenPaymentConsole {
     
     private static List<Product> initializeProducts() {
         List<Product> products = new ArrayList<>();
-        // Apparel
-        products.add(new Product("Classic T-Shirt", 14.99, "100% cotton unisex tee"));
-        products.add(new Product("Slim Fit Jeans", 39.99, "Denim with stretch comfort"));
-        products.add(new Product("Hoodie", 29.99, "Fleece-lined pullover hoodie"));
-        products.add(new Product("Lightweight Jacket", 49.99, "Windbreaker for everyday wear"));
-        products.add(new Product("Sneakers", 59.99, "Breathable everyday sneakers"));
-
-        // Accessories
-        products.add(new Product("Backpack", 34.99, "Water-resistant daypack, 20L"));
-        products.add(new Product("Water Bottle", 12.99, "Insulated stainless steel, 600ml"));
-        products.add(new Product("Sunglasses", 19.99, "UV400 polarized lenses"));
-        products.add(new Product("Cap", 11.99, "Adjustable cotton baseball cap"));
-        products.add(new Product("Wallet", 17.49, "Slim RFID-blocking wallet"));
-
-        // Tech & peripherals
-        products.add(new Product("Wireless Earbuds", 49.99, "Bluetooth 5.3 with charging case"));
-        products.add(new Product("Phone Charger", 9.99, "20W USB-C fast charger"));
-        products.add(new Product("USB-C Cable", 6.99, "1m braided fast-charge cable"));
-        products.add(new Product("Smartphone Case", 15.99, "Shock-absorbing protective case"));
-        products.add(new Product("Wireless Mouse", 18.99, "Silent click ergonomic mouse"));
-
-        // Stationery
-        products.add(new Product("Notebook", 7.49, "A5 dotted journal, 120 pages"));
-        products.add(new Product("Pen Set", 5.99, "Pack of 5 gel pens, 0.5mm"));
+        for (ProductCatalog.Product p : ProductCatalog.getDefault().getProducts()) {
+            products.add(new Product(p.name, p.priceCents, p.description));
+        }
         return products;
     }
     
@@ -150,8 +130,8 @@ public class MenuDrivenPaymentConsole {
                 LineItem lineItem = new LineItem(selectedProduct, quantity);
                 lineItems.add(lineItem);
                 
-                System.out.printf("Added: %d x %s = $%.2f%n", 
-                    quantity, selectedProduct.name, lineItem.lineTotal);
+                System.out.printf("Added: %d x %s = $%s%n", 
+                    quantity, selectedProduct.name, Money.format(lineItem.lineTotalCents));
                 
             } catch (NumberFormatException e) {
                 System.out.println("Invalid input. Please enter a number.");
@@ -169,9 +149,9 @@ public class MenuDrivenPaymentConsole {
         }
         
         // Calculate totals
-        double subtotal = lineItems.stream().mapToDouble(item -> item.lineTotal).sum();
-        double taxAmount = subtotal * (TAX_RATE / 100);
-        double totalDue = subtotal + taxAmount;
+        long subtotal = lineItems.stream().mapToLong(item -> item.lineTotalCents).sum();
+        long taxAmount = Money.tax(subtotal, TAX_RATE_BASIS_POINTS);
+        long totalDue = subtotal + taxAmount;
         
         // Display order summary
         displayOrderSummary(lineItems, subtotal, taxAmount, totalDue);
@@ -184,28 +164,28 @@ public class MenuDrivenPaymentConsole {
         System.out.println("\n--- PRODUCT MENU ---");
         for (int i = 0; i < products.size(); i++) {
             Product product = products.get(i);
-            System.out.printf("%d. %-15s $%-6.2f - %s%n", 
-                i + 1, product.name, product.price, product.description);
+            System.out.printf("%d. %-15s $%-6s - %s%n", 
+                i + 1, product.name, Money.format(product.priceCents), product.description);
         }
     }
     
-    private static void displayOrderSummary(List<LineItem> lineItems, double subtotal, double taxAmount, double totalDue) {
+    private static void displayOrderSummary(List<LineItem> lineItems, long subtotal, long taxAmount, long totalDue) {
         System.out.println("\n--- ORDER SUMMARY ---");
         System.out.printf("%-20s %-8s %-10s %-10s%n", "Item", "Qty", "Price", "Total");
         System.out.println("--------------------------------------------------");
         
         for (LineItem item : lineItems) {
-            System.out.printf("%-20s %-8d $%-9.2f $%-9.2f%n",
-                item.product.name, item.quantity, item.product.price, item.lineTotal);
+            System.out.printf("%-20s %-8d $%-9s $%-9s%n",
+                item.product.name, item.quantity, Money.format(item.product.priceCents), Money.format(item.lineTotalCents));
         }
         
         System.out.println("--------------------------------------------------");
-        System.out.printf("%-20s %-8s %-10s $%-9.2f%n", "Subtotal", "", "", subtotal);
-        System.out.printf("%-20s %-8s %-10s $%-9.2f%n", "Tax (" + TAX_RATE + "%)", "", "", taxAmount);
-        System.out.printf("%-20s %-8s %-10s $%-9.2f%n", "TOTAL", "", "", totalDue);
+        System.out.printf("%-20s %-8s %-10s $%-9s%n", "Subtotal", "", "", Money.format(subtotal));
+        System.out.printf("%-20s %-8s %-10s $%-9s%n", "Tax (" + Money.format(TAX_RATE_BASIS_POINTS) + "%)", "", "", Money.format(taxAmount));
+        System.out.printf("%-20s %-8s %-10s $%-9s%n", "TOTAL", "", "", Money.format(totalDue));
     }
     
-    private static void processPayment(Scanner scanner, List<LineItem> lineItems, double subtotal, double taxAmount, double totalDue) {
+    private static void processPayment(Scanner scanner, List<LineItem> lineItems, long subtotal, long taxAmount, long totalDue) {
         System.out.println("\n--- PAYMENT PROCESSING ---");
         System.out.println("1. Cash");
         System.out.println("2. Card");
@@ -226,20 +206,20 @@ public class MenuDrivenPaymentConsole {
         }
     }
     
-    private static void processCashPayment(Scanner scanner, List<LineItem> lineItems, double subtotal, double taxAmount, double totalDue) {
-        System.out.printf("Total due: $%.2f%n", totalDue);
+    private static void processCashPayment(Scanner scanner, List<LineItem> lineItems, long subtotal, long taxAmount, long totalDue) {
+        System.out.printf("Total due: $%s%n", Money.format(totalDue));
         System.out.print("Enter amount paid: $");
         
         try {
-            double amountPaid = Double.parseDouble(scanner.nextLine());
+            long amountPaid = Money.parse(scanner.nextLine().trim());
             
             if (amountPaid < totalDue) {
                 System.out.println("Insufficient payment. Transaction cancelled.");
                 return;
             }
             
-            double change = amountPaid - totalDue;
-            System.out.printf("Change due: $%.2f%n", change);
+            long change = amountPaid - totalDue;
+            System.out.printf("Change due: $%s%n", Money.format(change));
             
             // Save transaction
             saveTransaction(lineItems, subtotal, taxAmount, totalDue, "CASH", amountPaid, change, null, null, null);
@@ -251,7 +231,7 @@ public class MenuDrivenPaymentConsole {
         }
     }
     
-    private static void processCardPayment(Scanner scanner, List<LineItem> lineItems, double subtotal, double taxAmount, double totalDue) {
+    private static void processCardPayment(Scanner scanner, List<LineItem> lineItems, long subtotal, long taxAmount, long totalDue) {
         System.out.println("Card Payment Processing");
         System.out.print("Enter card number (last 4 digits): ");
         String cardNumber = scanner.nextLine().trim();
@@ -271,28 +251,33 @@ public class MenuDrivenPaymentConsole {
         String maskedCardNumber = "****-****-****-" + cardNumber;
         
         // Save transaction
-        saveTransaction(lineItems, subtotal, taxAmount, totalDue, "CARD", totalDue, 0.0, 
+        saveTransaction(lineItems, subtotal, taxAmount, totalDue, "CARD", totalDue, 0, 
                        maskedCardNumber, cardHolderName, cardExpiry);
         
         System.out.println("Card payment processed successfully!");
     }
     
-    private static void saveTransaction(List<LineItem> lineItems, double subtotal, double taxAmount, 
-                                      double totalDue, String paymentMethod, double amountPaid, 
-                                      double changeAmount, String cardNumberMasked, 
+    private static void saveTransaction(List<LineItem> lineItems, long subtotal, long taxAmount, 
+                                      long totalDue, String paymentMethod, long amountPaid, 
+                                      long changeAmount, String cardNumberMasked, 
                                       String cardHolderName, String cardExpiry) {
         
         // Create transaction
         SimpleFileBasedDataStore.SimpleTransaction transaction = new SimpleFileBasedDataStore.SimpleTransaction();
-        transaction.transactionId = SimpleFileBasedDataStore.getNextTransactionId();
+        try {
+            transaction.transactionId = SimpleFileBasedDataStore.getNextTransactionId();
+        } catch (IOException e) {
+            System.err.println("Error saving transaction: could not allocate an ID: " + e.getMessage());
+            return;
+        }
         transaction.transactionDate = LocalDateTime.now();
-        transaction.subtotal = subtotal;
-        transaction.taxRatePercent = TAX_RATE;
-        transaction.taxAmount = taxAmount;
-        transaction.totalDue = totalDue;
+        transaction.subtotalCents = subtotal;
+        transaction.taxRateBasisPoints = TAX_RATE_BASIS_POINTS;
+        transaction.taxAmountCents = taxAmount;
+        transaction.totalDueCents = totalDue;
         transaction.paymentMethod = paymentMethod;
-        transaction.amountPaid = amountPaid;
-        transaction.changeAmount = changeAmount;
+        transaction.amountPaidCents = amountPaid;
+        transaction.changeAmountCents = changeAmount;
         transaction.cardNumberMasked = cardNumberMasked;
         transaction.cardHolderName = cardHolderName;
         transaction.cardExpiry = cardExpiry;
@@ -303,8 +288,8 @@ public class MenuDrivenPaymentConsole {
             simpleItem.transactionId = transaction.transactionId;
             simpleItem.description = item.product.name;
             simpleItem.quantity = item.quantity;
-            simpleItem.unitPrice = item.product.price;
-            simpleItem.lineTotal = item.lineTotal;
+            simpleItem.unitPriceCents = item.product.priceCents;
+            simpleItem.lineTotalCents = item.lineTotalCents;
             transaction.lineItems.add(simpleItem);
         }
         
@@ -0,0 +1,221 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms for the server and the store, in the Prometheus text format
+ * A metric is registered once, by name and labels, and kept in a field by the code that records
+ * into it. Recording is a LongAdder or atomic array update, without locks or allocation, so the
+ * metrics can stay on in production. Histograms keep the full LatencyHistogram resolution and
+ * are only cut into the Prometheus buckets when written out.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    // Upper bounds of the exported histogram buckets, in seconds
+    private static final String[] BUCKET_LABELS = {
+        "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025",
+        "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+    private static final long[] BUCKET_NANOS = new long[BUCKET_LABELS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_LABELS.length; i++) {
+            BUCKET_NANOS[i] = (long) (Double.parseDouble(BUCKET_LABELS[i]) * 1e9);
+        }
+    }
+
+    private interface Metric {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    /**
+     * A count that only goes up
+     */
+    public static final class Counter implements Metric {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            appendSample(out, name, labels, null, null).append(value.sum()).append('\n');
+        }
+    }
+
+    /**
+     * Counts by HTTP status code, written as one sample per code seen with a code label
+     */
+    public static final class StatusCounter implements Metric {
+        private final AtomicLongArray counts = new AtomicLongArray(600);
+
+        /**
+         * @param status HTTP status; anything outside 100-599 (no response was sent) counts as code 0
+         */
+        public void increment(int status) {
+            counts.incrementAndGet(status >= 100 && status < 600 ? status : 0);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            for (int code = 0; code < counts.length(); code++) {
+                long n = counts.get(code);
+                if (n > 0) {
+                    appendSample(out, name, labels, "code", Integer.toString(code)).append(n).append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Distribution of durations recorded in nanoseconds and written in seconds
+     */
+    public static final class Histogram implements Metric {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            // Count before the buckets, so a concurrent recording cannot make +Inf smaller than a bucket
+            long count = histogram.getCount();
+            long sum = histogram.getSum();
+            long[] cumulative = histogram.getCountsAtOrBelow(BUCKET_NANOS);
+            for (int i = 0; i < BUCKET_LABELS.length; i++) {
+                appendSample(out, name + "_bucket", labels, "le", BUCKET_LABELS[i])
+                    .append(Math.min(cumulative[i], count)).append('\n');
+            }
+            appendSample(out, name + "_bucket", labels, "le", "+Inf").append(count).append('\n');
+            appendSample(out, name + "_sum", labels, null, null).append(sum / 1e9).append('\n');
+            appendSample(out, name + "_count", labels, null, null).append(count).append('\n');
+        }
+    }
+
+    /**
+     * All metrics with one name
+     */
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Metric> byLabels = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the counter with the name and labels, registering it the first time
+     * @param labels label names and values, alternating
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return register(name, help, "counter", labels, Counter.class, Counter::new);
+    }
+
+    public StatusCounter statusCounter(String name, String help, String... labels) {
+        return register(name, help, "counter", labels, StatusCounter.class, StatusCounter::new);
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return register(name, help, "histogram", labels, Histogram.class, Histogram::new);
+    }
+
+    private synchronized <T extends Metric> T register(String name, String help, String type, String[] labels,
+                                                       Class<T> kind, Supplier<T> create) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs: " + String.join(",", labels));
+        }
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(labels[i]).append("=\"");
+            escape(key, labels[i + 1]);
+            key.append('"');
+        }
+        Metric metric = family.byLabels.computeIfAbsent(key.toString(), k -> create.get());
+        if (!kind.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + "{" + key + "} is already registered as a " + metric.getClass().getSimpleName());
+        }
+        return kind.cast(metric);
+    }
+
+    /**
+     * Every metric in the Prometheus text exposition format (version 0.0.4)
+     */
+    public synchronized String toPrometheus() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Map.Entry<String, Family> e : families.entrySet()) {
+            Family family = e.getValue();
+            out.append("# HELP ").append(e.getKey()).append(' ');
+            for (int i = 0; i < family.help.length(); i++) {
+                char c = family.help.charAt(i);
+                out.append(c == '\\' ? "\\\\" : c == '\n' ? "\\n" : String.valueOf(c));
+            }
+            out.append('\n');
+            out.append("# TYPE ").append(e.getKey()).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> m : family.byLabels.entrySet()) {
+                m.getValue().write(out, e.getKey(), m.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    private static StringBuilder appendSample(StringBuilder out, String name, String labels, String extraName, String extraValue) {
+        out.append(name);
+        if (!labels.isEmpty() || extraName != null) {
+            out.append('{').append(labels);
+            if (extraName != null) {
+                if (!labels.isEmpty()) {
+                    out.append(',');
+                }
+                out.append(extraName).append("=\"").append(extraValue).append('"');
+            }
+            out.append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
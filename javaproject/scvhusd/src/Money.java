@@ -0,0 +1,144 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money codec: amounts are held as a long number of cents
+ * Decimal text is parsed digit by digit and digits past the second decimal are rounded
+ * half-up; formatting always writes exactly two decimals. Tax rates use the same two-decimal
+ * scale, as basis points (8.5% is 850), and tax is rounded half-up to the cent.
+ */
+public final class Money {
+
+    private static final int MAX_FAST_DIGITS = 16; // whole digits that still fit once scaled to cents
+
+    private Money() {
+    }
+
+    /**
+     * Parses a plain decimal such as 12, 12.5 or -0.125 into cents
+     * Anything else Java can read as a number (exponents, very long values) takes the slow path.
+     * @throws NumberFormatException if the text is not a number or does not fit in a long
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    public static long parse(CharSequence text, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean roundUp = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (fractionDigits < 0) {
+                    units = units * 10 + (c - '0');
+                    if (++digits > MAX_FAST_DIGITS) {
+                        return parseSlow(text, start, end);
+                    }
+                } else if (fractionDigits < 2) {
+                    units = units * 10 + (c - '0');
+                    fractionDigits++;
+                } else if (fractionDigits == 2) {
+                    roundUp = c >= '5';
+                    fractionDigits++;
+                }
+                digits = Math.max(digits, 1); // a fraction alone (.5) counts as a number
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return parseSlow(text, start, end);
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not an amount: \"" + text.subSequence(start, end) + "\"");
+        }
+        for (int f = Math.max(fractionDigits, 0); f < 2; f++) {
+            units *= 10;
+        }
+        if (roundUp) {
+            units++;
+        }
+        return negative ? -units : units;
+    }
+
+    /**
+     * Converts a binary double amount (as older records stored them) to the nearest cent, half-up
+     */
+    public static long fromDouble(double amount) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new NumberFormatException("Not an amount: " + amount);
+        }
+        // valueOf goes through the shortest decimal string, so 27.129999999999995 stays 27.13
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Formats cents as a decimal with two places, e.g. 1234 as 12.34 and -5 as -0.05
+     */
+    public static String format(long cents) {
+        return append(new StringBuilder(24), cents).toString();
+    }
+
+    public static StringBuilder append(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            if (cents == Long.MIN_VALUE) {
+                return sb.append("92233720368547758.08");
+            }
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        return sb.append(fraction);
+    }
+
+    /**
+     * Multiplies a unit price by a quantity
+     * @throws ArithmeticException on overflow
+     */
+    public static long times(long unitCents, int quantity) {
+        return Math.multiplyExact(unitCents, (long) quantity);
+    }
+
+    /**
+     * Tax on an amount at a rate in basis points, rounded half-up (away from zero) to the cent
+     */
+    public static long tax(long amountCents, long rateBasisPoints) {
+        return divideHalfUp(Math.multiplyExact(amountCents, rateBasisPoints), 10_000);
+    }
+
+    /**
+     * Mean of a total over a count, rounded half-up to the cent; 0 when the count is 0
+     */
+    public static long average(long totalCents, long count) {
+        return count > 0 ? divideHalfUp(totalCents, count) : 0;
+    }
+
+    private static long divideHalfUp(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (Math.abs(remainder) * 2 >= divisor) {
+            quotient += dividend < 0 ? -1 : 1;
+        }
+        return quotient;
+    }
+
+    private static long parseSlow(CharSequence text, int start, int end) {
+        String s = text.subSequence(start, end).toString();
+        try {
+            return new BigDecimal(s).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: \"" + s + "\"");
+        }
+    }
+}
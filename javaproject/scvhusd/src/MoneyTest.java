@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Test the fixed-point money codec, and that version 1 binary records (double amounts) read as cents
+ * Writes into store.dir, so run it in a scratch directory:
+ * java -Dstore.dir=DIR MoneyTest
+ */
+public class MoneyTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== Money Test ===");
+
+        testParse();
+        testTax();
+        testFormat();
+        testVersion1Record();
+
+        System.out.println(failures == 0 ? "=== Test completed ===" : "=== " + failures + " check(s) failed ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void testParse() {
+        System.out.println("Testing parse...");
+        check(Money.parse("12") == 1200, "12 is 1200 cents");
+        check(Money.parse("12.5") == 1250, "12.5 is 1250 cents");
+        check(Money.parse(".5") == 50, ".5 is 50 cents");
+        check(Money.parse("0.125") == 13, "0.125 rounds half-up to 13 cents");
+        check(Money.parse("0.1249") == 12, "0.1249 rounds down to 12 cents");
+        check(Money.parse("-0.125") == -13, "-0.125 rounds away from zero to -13 cents");
+        check(Money.parse("1e2") == 10000, "1e2 takes the slow path to 10000 cents");
+        check(Money.parse("x12.50y", 1, 6) == 1250, "a sub-range parses on its own");
+        check(rejected("abc"), "abc is not an amount");
+        check(rejected(""), "an empty string is not an amount");
+        check(rejected("99999999999999999999"), "an amount too large for a long is refused");
+    }
+
+    private static void testTax() {
+        System.out.println("Testing tax...");
+        check(Money.tax(2500, 850) == 213, "8.5% of 25.00 is 2.13 (2.125 rounded half-up)");
+        check(Money.tax(100, 850) == 9, "8.5% of 1.00 is 0.09 (0.085 rounded half-up)");
+        check(Money.tax(-100, 850) == -9, "tax on a refund rounds away from zero");
+        check(Money.tax(1234, 0) == 0, "a zero rate gives no tax");
+        check(Money.average(1000, 3) == 333, "10.00 over 3 averages to 3.33");
+        check(Money.average(500, 0) == 0, "an average over nothing is 0");
+    }
+
+    private static void testFormat() {
+        System.out.println("Testing format...");
+        check(Money.format(1234).equals("12.34"), "1234 formats as 12.34");
+        check(Money.format(5).equals("0.05"), "5 formats as 0.05");
+        check(Money.format(-5).equals("-0.05"), "-5 formats as -0.05");
+        check(Money.format(100).equals("1.00"), "100 formats as 1.00");
+        check(Money.format(Long.MIN_VALUE).equals("-92233720368547758.08"), "Long.MIN_VALUE formats without overflow");
+        check(Money.parse(Money.format(987654321)) == 987654321, "a formatted amount parses back");
+    }
+
+    private static void testVersion1Record() throws IOException {
+        System.out.println("Testing a version 1 binary record...");
+        check(Money.fromDouble(27.129999999999995) == 2713, "27.129999999999995 converts to 2713 cents");
+        check(Money.fromDouble(0.125) == 13, "0.125 converts half-up to 13 cents");
+
+        Path file = SimpleFileBasedDataStore.DATA_DIR.resolve("money-test-v1.dat");
+        Files.write(file, version1Record());
+        List<SimpleFileBasedDataStore.SimpleTransaction> read = new ArrayList<>();
+        long end = BinaryTransactionFormat.readRecords(file, 0, read::add);
+        check(end == Files.size(file) && read.size() == 1, "the record was read");
+        if (read.size() == 1) {
+            SimpleFileBasedDataStore.SimpleTransaction t = read.get(0);
+            check(t.subtotalCents == 2500 && t.taxRateBasisPoints == 850 && t.taxAmountCents == 213
+                && t.totalDueCents == 2713, "amounts and the rate became cents and basis points");
+            check(t.amountPaidCents == 3000 && t.changeAmountCents == 287, "payment amounts became cents");
+            check(t.lineItems.size() == 1 && t.lineItems.get(0).unitPriceCents == 1250
+                && t.lineItems.get(0).lineTotalCents == 2500, "line item amounts became cents");
+        }
+        Files.delete(file);
+    }
+
+    // Version 1 layout: the version 2 record with every amount as a double
+    private static byte[] version1Record() {
+        byte[] method = "CASH".getBytes(StandardCharsets.UTF_8);
+        byte[] item = "Coffee".getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 1 + 4 + 8 + 8 * 4 + 4 + method.length + 8 * 2 + 4 * 3 + 4 + 4 + item.length + 4 + 8 * 2;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + payloadLength + 4);
+        buffer.putInt(payloadLength);
+        buffer.put((byte) 1);
+        buffer.putInt(7);
+        buffer.putLong(BinaryTransactionFormat.toEpochMillis(LocalDateTime.of(2024, 3, 1, 9, 30)));
+        buffer.putDouble(25.0).putDouble(8.5).putDouble(2.125).putDouble(27.129999999999995);
+        buffer.putInt(method.length).put(method);
+        buffer.putDouble(30.0).putDouble(2.87);
+        buffer.putInt(-1).putInt(-1).putInt(-1);
+        buffer.putInt(1);
+        buffer.putInt(item.length).put(item).putInt(2).putDouble(12.5).putDouble(25.0);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, payloadLength);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static boolean rejected(String text) {
+        try {
+            Money.parse(text);
+            return false;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("✓ " + what);
+        } else {
+            System.out.println("✗ " + what);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Measures how loading the text files scales with the number of parser threads
+ * Loads the history sequentially and then with 1, 2, 4, ... up to the given thread count,
+ * checks that every parallel load gives exactly the sequential result and prints the speed-up.
+ * Usage: java -Xmx16g -Dstore.dir=DIR ParallelLoadBenchmark [transactions] [maxThreads] [iterations]
+ * Synthetic data is generated into the data directory when it has no transactions file yet;
+ * 20,000,000 transactions make about 3 GB of text and need a heap of well over 10 GB to load.
+ */
+public class ParallelLoadBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int transactionCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        if (!Files.exists(SimpleFileBasedDataStore.TRANSACTIONS_FILE)) {
+            System.out.println("Generating " + transactionCount + " transactions...");
+            SyntheticDataGenerator.generate(transactionCount);
+        }
+        System.out.printf("Data: %s (%,d bytes) and %s (%,d bytes), %d cores%n",
+            SimpleFileBasedDataStore.TRANSACTIONS_FILE, Files.size(SimpleFileBasedDataStore.TRANSACTIONS_FILE),
+            SimpleFileBasedDataStore.LINE_ITEMS_FILE, Files.size(SimpleFileBasedDataStore.LINE_ITEMS_FILE),
+            Runtime.getRuntime().availableProcessors());
+
+        // Warm up before measuring
+        SimpleFileBasedDataStore.loadTextTransactionsMapped();
+        long sequential = measure("Sequential", iterations, 0);
+
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            long best = measure(String.format("%2d threads", threads), iterations, threads);
+            System.out.printf("%10s speed-up %.2fx%n", "", (double) sequential / best);
+            if (threads >= maxThreads) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Best time of several loads, after checking the first one against a sequential load
+     * @param threads parser threads, or 0 for the sequential loader
+     */
+    private static long measure(String label, int iterations, int threads) {
+        long best = Long.MAX_VALUE;
+        long records = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            List<SimpleFileBasedDataStore.SimpleTransaction> transactions = threads == 0
+                ? SimpleFileBasedDataStore.loadTextTransactionsMapped()
+                : SimpleFileBasedDataStore.loadTextTransactionsParallel(threads);
+            best = Math.min(best, System.nanoTime() - start);
+            records = transactions.size();
+            if (i == 0 && threads > 0) {
+                verify(transactions);
+            }
+        }
+        System.out.printf("%s: %,d transactions in %,d ms (best of %d) = %,.0f transactions/s%n",
+            label, records, best / 1_000_000, iterations, records / (best / 1e9));
+        return best;
+    }
+
+    /**
+     * Compares with a fresh sequential load, line by line in file format
+     */
+    private static void verify(List<SimpleFileBasedDataStore.SimpleTransaction> parallel) {
+        List<SimpleFileBasedDataStore.SimpleTransaction> sequential = SimpleFileBasedDataStore.loadTextTransactionsMapped();
+        if (sequential.size() != parallel.size()) {
+            throw new IllegalStateException("Parallel load read " + parallel.size() + " transactions, sequential " + sequential.size());
+        }
+        for (int i = 0; i < sequential.size(); i++) {
+            SimpleFileBasedDataStore.SimpleTransaction s = sequential.get(i);
+            SimpleFileBasedDataStore.SimpleTransaction p = parallel.get(i);
+            if (!SimpleFileBasedDataStore.formatTransactionLine(s).equals(SimpleFileBasedDataStore.formatTransactionLine(p))
+                    || !SimpleFileBasedDataStore.formatLineItemLines(s).equals(SimpleFileBasedDataStore.formatLineItemLines(p))) {
+                throw new IllegalStateException("Parallel load differs at transaction " + i + " (ID " + s.transactionId + ")");
+            }
+        }
+    }
+}
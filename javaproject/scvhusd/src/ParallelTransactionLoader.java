@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the pipe-delimited data files on several threads
+ * Every segment of the transactions and line items files is cut into byte ranges that end just
+ * after a line break. The ranges are parsed concurrently on a ForkJoinPool with the mapped
+ * reader and the pieces are put back together in file order, so the result is the same as
+ * the sequential load: same transactions, same order, same line items.
+ */
+public class ParallelTransactionLoader {
+
+    private static final int RANGES_PER_THREAD = 4;
+    private static final long MIN_RANGE_BYTES = 1024 * 1024;
+
+    /**
+     * Everything read by one load
+     */
+    public static final class Result {
+        /** Transactions in file order with their line items */
+        public final List<SimpleFileBasedDataStore.SimpleTransaction> transactions;
+        /** Logical offsets just past the last line parsed in each file */
+        public final long transactionsEnd;
+        public final long lineItemsEnd;
+        private final Map<Integer, List<SimpleFileBasedDataStore.SimpleLineItem>> lineItemsById;
+
+        Result(List<SimpleFileBasedDataStore.SimpleTransaction> transactions, long transactionsEnd, long lineItemsEnd,
+               Map<Integer, List<SimpleFileBasedDataStore.SimpleLineItem>> lineItemsById) {
+            this.transactions = transactions;
+            this.transactionsEnd = transactionsEnd;
+            this.lineItemsEnd = lineItemsEnd;
+            this.lineItemsById = lineItemsById;
+        }
+
+        /**
+         * Line items whose transaction row was not read (not written yet), by transaction ID
+         */
+        public Map<Integer, List<SimpleFileBasedDataStore.SimpleLineItem>> unmatchedLineItems() {
+            Set<Integer> ids = new HashSet<>(transactions.size() * 2);
+            for (SimpleFileBasedDataStore.SimpleTransaction t : transactions) {
+                ids.add(t.transactionId);
+            }
+            Map<Integer, List<SimpleFileBasedDataStore.SimpleLineItem>> unmatched = new HashMap<>();
+            for (Map.Entry<Integer, List<SimpleFileBasedDataStore.SimpleLineItem>> e : lineItemsById.entrySet()) {
+                if (!ids.contains(e.getKey())) {
+                    unmatched.put(e.getKey(), e.getValue());
+                }
+            }
+            return unmatched;
+        }
+    }
+
+    /**
+     * A byte range of one segment, starting at a line start
+     */
+    private static final class Range {
+        final SegmentedFile.Segment segment;
+        final long start;
+        final long end;
+        final boolean includeUnterminated;
+
+        Range(SegmentedFile.Segment segment, long start, long end, boolean includeUnterminated) {
+            this.segment = segment;
+            this.start = start;
+            this.end = end;
+            this.includeUnterminated = includeUnterminated;
+        }
+    }
+
+    /**
+     * What one range parsed to, and the offset inside the segment it reached
+     */
+    private static final class Piece<T> {
+        final List<T> records = new ArrayList<>();
+        long reached;
+    }
+
+    private final int threads;
+
+    public ParallelTransactionLoader(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Reads both files in full
+     * The transactions file is listed before the line items file and line items are written
+     * before their rows, so every row up to the listed size has its line items. Rows are read
+     * no further than that, since both files are parsed at once; line items may read on.
+     * @param includeUnterminated whether a final line without a line break is parsed too
+     */
+    public Result load(SegmentedFile transactionsFile, SegmentedFile lineItemsFile,
+                       boolean includeUnterminated) throws IOException {
+        List<SegmentedFile.Segment> transactionSegments = transactionsFile.segments();
+        List<SegmentedFile.Segment> lineItemSegments = lineItemsFile.segments();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Range> lineItemRanges = split(lineItemSegments, includeUnterminated, true);
+            List<Range> transactionRanges = split(transactionSegments, includeUnterminated, false);
+
+            // Both files are parsed at the same time
+            List<Future<Piece<SimpleFileBasedDataStore.SimpleLineItem>>> lineItemPieces = new ArrayList<>();
+            for (Range range : lineItemRanges) {
+                lineItemPieces.add(pool.submit(() -> {
+                    Piece<SimpleFileBasedDataStore.SimpleLineItem> piece = new Piece<>();
+                    piece.reached = MappedTransactionReader.readLineItems(range.segment.file, range.start, range.end,
+                        range.includeUnterminated, piece.records::add);
+                    return piece;
+                }));
+            }
+            List<Future<Piece<SimpleFileBasedDataStore.SimpleTransaction>>> transactionPieces = new ArrayList<>();
+            for (Range range : transactionRanges) {
+                transactionPieces.add(pool.submit(() -> {
+                    Piece<SimpleFileBasedDataStore.SimpleTransaction> piece = new Piece<>();
+                    piece.reached = MappedTransactionReader.readTransactions(range.segment.file, range.start, range.end,
+                        range.includeUnterminated, piece.records::add);
+                    return piece;
+                }));
+            }
+
+            // Group line items by transaction in file order, as the sequential load does
+            Map<Integer, List<SimpleFileBasedDataStore.SimpleLineItem>> lineItemsById = new HashMap<>();
+            for (Future<Piece<SimpleFileBasedDataStore.SimpleLineItem>> future : lineItemPieces) {
+                for (SimpleFileBasedDataStore.SimpleLineItem item : get(future).records) {
+                    lineItemsById.computeIfAbsent(item.transactionId, id -> new ArrayList<>()).add(item);
+                }
+            }
+            List<SimpleFileBasedDataStore.SimpleTransaction> transactions = new ArrayList<>();
+            for (Future<Piece<SimpleFileBasedDataStore.SimpleTransaction>> future : transactionPieces) {
+                transactions.addAll(get(future).records);
+            }
+            // Attaching only reads the map, so it runs on the pool too
+            int chunk = Math.max(1, transactions.size() / (threads * RANGES_PER_THREAD) + 1);
+            List<Callable<Void>> attachTasks = new ArrayList<>();
+            for (int from = 0; from < transactions.size(); from += chunk) {
+                List<SimpleFileBasedDataStore.SimpleTransaction> part =
+                    transactions.subList(from, Math.min(from + chunk, transactions.size()));
+                attachTasks.add(() -> {
+                    for (SimpleFileBasedDataStore.SimpleTransaction t : part) {
+                        List<SimpleFileBasedDataStore.SimpleLineItem> lineItems = lineItemsById.get(t.transactionId);
+                        if (lineItems != null) {
+                            t.lineItems = lineItems;
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(attachTasks)) {
+                get(future);
+            }
+
+            return new Result(transactions, end(transactionSegments, transactionRanges, transactionPieces),
+                end(lineItemSegments, lineItemRanges, lineItemPieces), lineItemsById);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Cuts every segment into ranges of roughly equal size that end just after a line break
+     * Segments are read up to their size when listed, except that a full load (with an
+     * unterminated last line) of a file that may read on reads the active one to whatever its
+     * end is by then.
+     * @param readOn whether the active segment may be read past its listed size
+     */
+    private List<Range> split(List<SegmentedFile.Segment> segments, boolean includeUnterminated,
+                              boolean readOn) throws IOException {
+        long total = 0;
+        for (SegmentedFile.Segment segment : segments) {
+            total += segment.size;
+        }
+        long target = Math.max(MIN_RANGE_BYTES, total / ((long) threads * RANGES_PER_THREAD) + 1);
+
+        List<Range> ranges = new ArrayList<>();
+        for (SegmentedFile.Segment segment : segments) {
+            if (segment.size == 0 && segment.sealed) {
+                continue;
+            }
+            long start = 0;
+            try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                while (segment.size - start > target) {
+                    long boundary = nextLineStart(channel, start + target, segment.size);
+                    if (boundary >= segment.size) {
+                        break;
+                    }
+                    ranges.add(new Range(segment, start, boundary, false));
+                    start = boundary;
+                }
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            ranges.add(segment.sealed || !includeUnterminated
+                ? new Range(segment, start, segment.size, false)
+                : new Range(segment, start, readOn ? Long.MAX_VALUE : segment.size, true));
+        }
+        return ranges;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long limit) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from;
+        while (position < limit) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return limit;
+    }
+
+    /**
+     * Logical offset just past the last line parsed; sealed segments count as read to their end
+     */
+    private static <T> long end(List<SegmentedFile.Segment> segments, List<Range> ranges,
+                                List<Future<Piece<T>>> pieces) throws IOException {
+        SegmentedFile.Segment active = segments.get(segments.size() - 1);
+        long end = active.base;
+        for (int i = 0; i < ranges.size(); i++) {
+            if (ranges.get(i).segment == active) {
+                end = active.base + get(pieces.get(i)).reached;
+            }
+        }
+        return end;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading transactions", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
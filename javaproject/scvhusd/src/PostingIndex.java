@@ -0,0 +1,321 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Secondary index from a key (payment method, product, ...) to the IDs of the transactions with it
+ * Each key has a posting list of transaction IDs in file order, stored as zig-zag encoded
+ * deltas in varint form, so the mostly increasing IDs take one or two bytes each. The index
+ * lives next to the data file's first segment as <data file>.<name>.postings, an append-only
+ * sequence of checksummed batches, and is extended incrementally like the sparse index:
+ * postings for records appended since the last batch are kept in memory until there are
+ * enough of them to write another. The file starts with the identity of the data file it was
+ * built from (see DataFileIdentity) and is rebuilt when the file is rewritten. In memory each
+ * key's IDs are kept sorted and without duplicates as they are read, so a lookup hands out
+ * the same array until the key gets another posting.
+ */
+public class PostingIndex {
+
+    static final int POSTINGS_PER_BATCH = 1024;
+    // Longer keys are not indexed, so they never match a lookup
+    static final int MAX_KEY_LENGTH = 1024;
+
+    /**
+     * Reads the keys of records from the data file, starting at an offset
+     */
+    public interface KeyScanner {
+        /**
+         * @return the offset just past the last complete record
+         */
+        long scan(long fromOffset, KeyVisitor visitor) throws IOException;
+    }
+
+    /**
+     * Receives one key of one transaction; a transaction may have several keys
+     */
+    public interface KeyVisitor {
+        void visit(String key, int transactionId);
+    }
+
+    /**
+     * Delta+varint encoded list of transaction IDs
+     */
+    static final class Postings {
+        private byte[] bytes = new byte[16];
+        private int length;
+        private int count;
+        private int last;
+
+        void add(int id) {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(16, bytes.length * 2));
+            }
+            // Zig-zag keeps the occasional out-of-order ID (concurrent writers) small too
+            int delta = id - last;
+            int value = (delta << 1) ^ (delta >> 31);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+            last = id;
+            count++;
+        }
+
+        void forEach(IntConsumer action) {
+            int id = 0;
+            int position = 0;
+            while (position < length) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                id += (value >>> 1) ^ -(value & 1);
+                action.accept(id);
+            }
+        }
+
+        int size() {
+            return count;
+        }
+    }
+
+    /**
+     * Transaction IDs kept sorted and without duplicates as they are added
+     * IDs mostly arrive in increasing order; the occasional earlier one (concurrent writers)
+     * is inserted near the end.
+     */
+    static final class SortedIds {
+        private int[] ids = new int[4];
+        private int size;
+        // Copy handed out by lookups until the next change
+        private int[] snapshot;
+
+        void add(int id) {
+            int at = size;
+            if (size > 0 && id <= ids[size - 1]) {
+                at = Arrays.binarySearch(ids, 0, size, id);
+                if (at >= 0) {
+                    return;
+                }
+                at = -at - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+            snapshot = null;
+        }
+
+        int[] toArray() {
+            if (snapshot == null) {
+                snapshot = Arrays.copyOf(ids, size);
+            }
+            return snapshot;
+        }
+    }
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final SegmentedFile dataFile;
+    private final Path indexFile;
+    private final KeyScanner scanner;
+    // IDs of every posting read, from batches and from the records after them
+    private final Map<String, SortedIds> ids = new HashMap<>();
+    private long persistedOffset;
+    private long persistedBytes = DataFileIdentity.HEADER_BYTES;
+    // Postings for the records after the last batch, up to tailOffset, not written yet
+    private Map<String, Postings> tail = new HashMap<>();
+    private int tailCount;
+    private long tailOffset;
+    private DataFileIdentity identity = DataFileIdentity.EMPTY;
+
+    /**
+     * @param name index name, part of the sidecar file name
+     */
+    public PostingIndex(SegmentedFile dataFile, String name, KeyScanner scanner) {
+        this.dataFile = dataFile;
+        this.indexFile = dataFile.getFirstFile().resolveSibling(dataFile.getFirstFile().getFileName() + "." + name + ".postings");
+        this.scanner = scanner;
+    }
+
+    /**
+     * IDs of the transactions with the key, sorted and without duplicates
+     * The index is first extended to cover everything appended to the data file. The array is
+     * shared with later lookups, so callers must not change it.
+     */
+    public synchronized int[] lookup(String key) throws IOException {
+        update();
+        SortedIds keyIds = ids.get(key);
+        return keyIds != null ? keyIds.toArray() : NO_IDS;
+    }
+
+    private void update() throws IOException {
+        if (!dataFile.exists()) {
+            clear();
+            identity = DataFileIdentity.EMPTY;
+            return;
+        }
+        if (!identity.matches(dataFile)) {
+            // Rewritten since we last looked: what we read no longer applies
+            clear();
+        }
+        DataFileIdentity seen = identity.refresh(dataFile);
+
+        try (FileChannel channel = FileChannel.open(indexFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                if (DataFileIdentity.checkHeader(channel, dataFile)) {
+                    // Built from other contents: rebuild from scratch
+                    clear();
+                }
+                loadNewBatches(channel);
+                if (Math.max(persistedOffset, tailOffset) > dataFile.size()) {
+                    // The data file was truncated: rebuild from scratch
+                    clear();
+                    channel.truncate(DataFileIdentity.HEADER_BYTES);
+                }
+
+                tailOffset = scanner.scan(tailOffset, (key, id) -> {
+                    if (key == null || key.length() > MAX_KEY_LENGTH) {
+                        return;
+                    }
+                    tail.computeIfAbsent(key, k -> new Postings()).add(id);
+                    tailCount++;
+                    ids.computeIfAbsent(key, k -> new SortedIds()).add(id);
+                });
+                if (tailCount >= POSTINGS_PER_BATCH) {
+                    writeBatch(channel, tailOffset, tail);
+                    persistedOffset = tailOffset;
+                    clearTail();
+                }
+                identity = seen;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void clear() {
+        ids.clear();
+        persistedOffset = 0;
+        persistedBytes = DataFileIdentity.HEADER_BYTES;
+        clearTail();
+    }
+
+    /**
+     * Drops the unwritten postings; the records after the last batch are read again
+     * Their IDs stay in ids, where reading them again adds nothing.
+     */
+    private void clearTail() {
+        tail = new HashMap<>();
+        tailCount = 0;
+        tailOffset = persistedOffset;
+    }
+
+    private void merge(Map<String, Postings> batch, long end) {
+        for (Map.Entry<String, Postings> e : batch.entrySet()) {
+            SortedIds keyIds = ids.computeIfAbsent(e.getKey(), k -> new SortedIds());
+            e.getValue().forEach(keyIds::add);
+        }
+        persistedOffset = end;
+    }
+
+    // Batch layout: int payload length, payload, int CRC32 of the payload
+    // Payload: long data offset covered, int key count, then per key: short key length,
+    // key bytes (UTF-8), int posting count, int byte length, varint deltas from 0
+    private void writeBatch(FileChannel channel, long end, Map<String, Postings> batch) throws IOException {
+        int payloadBytes = 8 + 4;
+        Map<String, byte[]> keys = new HashMap<>();
+        for (Map.Entry<String, Postings> e : batch.entrySet()) {
+            byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+            keys.put(e.getKey(), key);
+            payloadBytes += 2 + key.length + 4 + 4 + e.getValue().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + payloadBytes + 4);
+        buffer.putInt(payloadBytes).putLong(end).putInt(batch.size());
+        for (Map.Entry<String, Postings> e : batch.entrySet()) {
+            byte[] key = keys.get(e.getKey());
+            Postings postings = e.getValue();
+            buffer.putShort((short) key.length).put(key)
+                  .putInt(postings.count).putInt(postings.length).put(postings.bytes, 0, postings.length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, payloadBytes);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        long position = persistedBytes;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        persistedBytes = position;
+    }
+
+    /**
+     * Reads batches written since we last looked, by this or another process
+     */
+    private void loadNewBatches(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < persistedBytes) {
+            clear();
+        }
+        if (size == persistedBytes) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - persistedBytes));
+        while (buffer.hasRemaining() && channel.read(buffer, persistedBytes + buffer.position()) > 0) {
+            // keep reading until full
+        }
+        buffer.flip();
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int payloadBytes = buffer.getInt();
+            if (payloadBytes < 12 || buffer.remaining() < payloadBytes + 4) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), start + 4, payloadBytes);
+            if ((int) crc.getValue() != buffer.getInt(start + 4 + payloadBytes)) {
+                break;
+            }
+            long end = buffer.getLong();
+            int keyCount = buffer.getInt();
+            Map<String, Postings> batch = new HashMap<>();
+            for (int i = 0; i < keyCount; i++) {
+                byte[] key = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(key);
+                Postings postings = new Postings();
+                postings.count = buffer.getInt();
+                postings.length = buffer.getInt();
+                postings.bytes = new byte[postings.length];
+                buffer.get(postings.bytes);
+                batch.put(new String(key, StandardCharsets.UTF_8), postings);
+            }
+            buffer.getInt(); // CRC, checked above
+            merge(batch, end);
+            persistedBytes += buffer.position() - start;
+            // Another process wrote the batch; ours would start where it ends
+            clearTail();
+        }
+        if (persistedBytes < size) {
+            // Torn or damaged batch from an interrupted write
+            channel.truncate(persistedBytes);
+        }
+    }
+}
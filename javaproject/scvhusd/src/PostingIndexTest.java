@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test the posting list encoding and the sorted ID lists built from it
+ * Needs no data files: java PostingIndexTest
+ */
+public class PostingIndexTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        System.out.println("=== Posting Index Test ===");
+
+        testRoundTrip();
+        testOutOfOrder();
+        testSortedIds();
+
+        System.out.println(failures == 0 ? "=== Test completed ===" : "=== " + failures + " check(s) failed ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void testRoundTrip() {
+        System.out.println("Testing a varint round trip...");
+        // Deltas of one to five varint bytes, up to the largest ID
+        int[] ids = { 1, 2, 100, 20_000, 3_000_000, 400_000_000, Integer.MAX_VALUE };
+        PostingIndex.Postings postings = postings(ids);
+        check(postings.size() == ids.length, "the count is " + ids.length);
+        check(Arrays.equals(decode(postings), ids), "every ID came back in order");
+
+        PostingIndex.Postings many = new PostingIndex.Postings();
+        int[] sequential = new int[10_000];
+        for (int i = 0; i < sequential.length; i++) {
+            sequential[i] = i + 1;
+            many.add(i + 1);
+        }
+        check(Arrays.equals(decode(many), sequential), "10000 IDs came back after the buffer grew");
+    }
+
+    private static void testOutOfOrder() {
+        System.out.println("Testing out-of-order IDs...");
+        // Concurrent writers interleave ID blocks, so deltas go backwards (negative zig-zag values)
+        int[] ids = { 1000, 2000, 1001, 2001, 5, Integer.MAX_VALUE, 1, 1 };
+        check(Arrays.equals(decode(postings(ids)), ids), "IDs came back as added, repeats included");
+    }
+
+    private static void testSortedIds() {
+        System.out.println("Testing sorted ID lists...");
+        PostingIndex.SortedIds sorted = new PostingIndex.SortedIds();
+        for (int id : new int[] { 1000, 2000, 1001, 2001, 5, 2000, 1, 1 }) {
+            sorted.add(id);
+        }
+        int[] first = sorted.toArray();
+        check(Arrays.equals(first, new int[] { 1, 5, 1000, 1001, 2000, 2001 }), "IDs are sorted without repeats");
+        check(sorted.toArray() == first, "an unchanged list hands out the same array");
+        sorted.add(1001);
+        check(sorted.toArray() == first, "adding a known ID changes nothing");
+        sorted.add(1500);
+        check(Arrays.equals(sorted.toArray(), new int[] { 1, 5, 1000, 1001, 1500, 2000, 2001 })
+            && Arrays.equals(first, new int[] { 1, 5, 1000, 1001, 2000, 2001 }), "a new ID gives a new array, leaving the old one");
+    }
+
+    private static PostingIndex.Postings postings(int[] ids) {
+        PostingIndex.Postings postings = new PostingIndex.Postings();
+        for (int id : ids) {
+            postings.add(id);
+        }
+        return postings;
+    }
+
+    private static int[] decode(PostingIndex.Postings postings) {
+        List<Integer> ids = new ArrayList<>();
+        postings.forEach(ids::add);
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("✓ " + what);
+        } else {
+            System.out.println("✗ " + what);
+            failures++;
+        }
+    }
+}
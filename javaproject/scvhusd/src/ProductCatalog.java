@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Product catalog shared by the payment console and the web server
+ * Products are read from a pipe-delimited file (sku|name|price|description, one per line,
+ * # for comments), by default products.txt in the working directory (-Dcatalog.file).
+ * Each load builds an immutable snapshot with the serialized JSON, its ETag, hash indexes
+ * by SKU and name and a sorted name index for prefix search. When the file changes the
+ * next access loads a new snapshot and swaps it in whole.
+ */
+public class ProductCatalog {
+
+    private static final Path CATALOG_FILE = Paths.get(System.getProperty("catalog.file", "products.txt"));
+    private static final long RELOAD_CHECK_INTERVAL_MILLIS = 1000;
+    private static final ProductCatalog DEFAULT = new ProductCatalog(CATALOG_FILE);
+
+    /**
+     * One catalog entry
+     */
+    public static final class Product {
+        public final String sku;
+        public final String name;
+        public final long priceCents;
+        public final String description;
+
+        Product(String sku, String name, long priceCents, String description) {
+            this.sku = sku;
+            this.name = name;
+            this.priceCents = priceCents;
+            this.description = description;
+        }
+    }
+
+    /**
+     * Everything derived from one version of the catalog file
+     */
+    private static final class Snapshot {
+        final List<Product> products;
+        final Map<String, Product> bySku;
+        final Map<String, Product> byName;
+        final String[] sortedNames;     // lower-case names, sorted
+        final Product[] sortedProducts; // products in sortedNames order
+        final byte[] json;
+        final String etag;
+        final long lastModifiedMillis;
+        final long size;
+
+        Snapshot(List<Product> products, long lastModifiedMillis, long size) {
+            this.products = Collections.unmodifiableList(products);
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.size = size;
+
+            bySku = new HashMap<>(products.size() * 2);
+            byName = new HashMap<>(products.size() * 2);
+            for (Product p : products) {
+                bySku.putIfAbsent(p.sku, p);
+                byName.putIfAbsent(p.name.toLowerCase(Locale.ROOT), p);
+            }
+
+            Product[] sorted = products.toArray(new Product[0]);
+            Arrays.sort(sorted, (a, b) -> a.name.toLowerCase(Locale.ROOT).compareTo(b.name.toLowerCase(Locale.ROOT)));
+            sortedProducts = sorted;
+            sortedNames = new String[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sortedNames[i] = sorted[i].name.toLowerCase(Locale.ROOT);
+            }
+
+            json = toJson(products);
+            etag = "\"" + sha256Prefix(json) + "\"";
+        }
+    }
+
+    private final Path file;
+    private volatile Snapshot snapshot;
+    private volatile long lastCheckMillis;
+
+    public ProductCatalog(Path file) {
+        this.file = file;
+        this.snapshot = load();
+        this.lastCheckMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * The catalog loaded from the configured catalog file
+     */
+    public static ProductCatalog getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * All products in catalog file order
+     */
+    public List<Product> getProducts() {
+        return current().products;
+    }
+
+    public Product findBySku(String sku) {
+        return current().bySku.get(sku);
+    }
+
+    public Product findByName(String name) {
+        return name != null ? current().byName.get(name.toLowerCase(Locale.ROOT)) : null;
+    }
+
+    /**
+     * Products whose name starts with the prefix (ignoring case), in name order
+     */
+    public List<Product> searchByNamePrefix(String prefix) {
+        Snapshot s = current();
+        String p = prefix.toLowerCase(Locale.ROOT);
+        int i = Arrays.binarySearch(s.sortedNames, p);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        // binarySearch may land on any of several equal names; back up to the first
+        while (i > 0 && s.sortedNames[i - 1].startsWith(p)) {
+            i--;
+        }
+        List<Product> matches = new ArrayList<>();
+        for (; i < s.sortedNames.length && s.sortedNames[i].startsWith(p); i++) {
+            matches.add(s.sortedProducts[i]);
+        }
+        return matches;
+    }
+
+    /**
+     * The whole catalog as a JSON array, serialized once per catalog version
+     * The array is shared and must not be modified.
+     */
+    public byte[] getJson() {
+        return current().json;
+    }
+
+    public String getEtag() {
+        return current().etag;
+    }
+
+    /**
+     * Serializes a list of products the same way as the cached catalog JSON
+     * Uses a writer of its own, since a reload can happen inside a handler holding the thread's writer.
+     */
+    public static byte[] toJson(List<Product> products) {
+        JsonWriter json = JsonWriter.create();
+        writeJson(json, products);
+        return json.toByteArray();
+    }
+
+    public static void writeJson(JsonWriter json, List<Product> products) {
+        json.beginArray();
+        for (Product p : products) {
+            json.beginObject()
+                .name("name").value(p.name)
+                .name("price").moneyCents(p.priceCents)
+                .name("description").value(p.description)
+                .name("sku").value(p.sku)
+                .endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Returns the current snapshot, reloading first if the file changed since it was read
+     */
+    private Snapshot current() {
+        long now = System.currentTimeMillis();
+        if (now - lastCheckMillis < RELOAD_CHECK_INTERVAL_MILLIS) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (now - lastCheckMillis >= RELOAD_CHECK_INTERVAL_MILLIS) {
+                if (changedOnDisk(snapshot)) {
+                    snapshot = load();
+                }
+                lastCheckMillis = now;
+            }
+            return snapshot;
+        }
+    }
+
+    private boolean changedOnDisk(Snapshot s) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() != s.lastModifiedMillis || Files.size(file) != s.size;
+        } catch (IOException e) {
+            return s.size != -1;
+        }
+    }
+
+    private Snapshot load() {
+        List<Product> products = new ArrayList<>();
+        long lastModified;
+        long size;
+        try {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+            size = Files.size(file);
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\|", 4);
+                if (parts.length < 3) {
+                    System.err.println("Skipping malformed catalog line " + (i + 1) + ": " + line);
+                    continue;
+                }
+                try {
+                    products.add(new Product(parts[0].trim(), parts[1].trim(), Money.parse(parts[2].trim()),
+                        parts.length > 3 ? parts[3].trim() : ""));
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping catalog line " + (i + 1) + " with invalid price: " + line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            System.err.println("Product catalog " + file.toAbsolutePath() + " not found; no products available");
+            return new Snapshot(products, -1, -1);
+        } catch (IOException e) {
+            System.err.println("Error loading product catalog: " + e.getMessage());
+            // Keep serving the previous version if there is one
+            return snapshot != null ? snapshot : new Snapshot(products, -1, -1);
+        }
+        return new Snapshot(products, lastModified, size);
+    }
+
+    private static String sha256Prefix(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Minute, hour and day sales rollups over the transaction file
+ * Buckets are keyed by the start of their period and kept in sorted maps, so a range query only
+ * visits the buckets inside the range. Like SalesSummary, the rollups remember the file offset
+ * they cover and fold in appended rows on each update. A snapshot is checkpointed next to the
+ * data file as <data file>.rollups every few thousand rows so a restart only replays the tail.
+ * The snapshot holds the identity of the data file (see DataFileIdentity) and is ignored once
+ * the file has been rewritten.
+ * Usage: java SalesRollups --rebuild
+ */
+public class SalesRollups {
+
+    private static final int SNAPSHOT_VERSION = 3; // 1 held the amounts as doubles, 2 had no data file identity
+    private static final int CHECKPOINT_ROWS = 10_000;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 10_000;
+
+    /**
+     * Width of a rollup bucket
+     */
+    public enum Granularity {
+        MINUTE(60_000L), HOUR(3_600_000L), DAY(86_400_000L);
+
+        final long millis;
+
+        Granularity(long millis) {
+            this.millis = millis;
+        }
+
+        long bucketStart(long epochMillis) {
+            return Math.floorDiv(epochMillis, millis) * millis;
+        }
+
+        public static Granularity parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown granularity: " + value + " (expected minute, hour or day)");
+            }
+        }
+    }
+
+    /**
+     * Sales totals for one period, in exact cents
+     */
+    public static final class Bucket {
+        public LocalDateTime start;
+        public long count;
+        public long subtotalCents;
+        public long taxCents;
+        public long totalCents;
+        public long cashCount;
+        public long cashTotalCents;
+        public long cardCount;
+        public long cardTotalCents;
+
+        void add(SimpleFileBasedDataStore.SimpleTransaction transaction) {
+            count++;
+            subtotalCents += transaction.subtotalCents;
+            taxCents += transaction.taxAmountCents;
+            totalCents += transaction.totalDueCents;
+            if ("CASH".equals(transaction.paymentMethod)) {
+                cashCount++;
+                cashTotalCents += transaction.totalDueCents;
+            } else {
+                cardCount++;
+                cardTotalCents += transaction.totalDueCents;
+            }
+        }
+
+        Bucket copy() {
+            Bucket copy = new Bucket();
+            copy.start = start;
+            copy.count = count;
+            copy.subtotalCents = subtotalCents;
+            copy.taxCents = taxCents;
+            copy.totalCents = totalCents;
+            copy.cashCount = cashCount;
+            copy.cashTotalCents = cashTotalCents;
+            copy.cardCount = cardCount;
+            copy.cardTotalCents = cardTotalCents;
+            return copy;
+        }
+    }
+
+    private final SegmentedFile dataFile;
+    private final Path snapshotFile;
+    private final SalesSummary.TransactionScanner scanner;
+    private final Map<Granularity, TreeMap<Long, Bucket>> tables = new EnumMap<>(Granularity.class);
+    private long coveredOffset;
+    private DataFileIdentity identity = DataFileIdentity.EMPTY;
+    private boolean snapshotLoaded;
+    private long rowsSinceCheckpoint;
+    private long lastCheckpointMillis = System.currentTimeMillis();
+
+    public SalesRollups(SegmentedFile dataFile, SalesSummary.TransactionScanner scanner) {
+        this.dataFile = dataFile;
+        this.snapshotFile = dataFile.getFirstFile().resolveSibling(dataFile.getFirstFile().getFileName() + ".rollups");
+        this.scanner = scanner;
+        clear();
+    }
+
+    /**
+     * Folds any newly appended rows into the rollups
+     */
+    public synchronized void update() throws IOException {
+        if (!snapshotLoaded) {
+            snapshotLoaded = true;
+            loadSnapshot();
+        }
+        if (!dataFile.exists()) {
+            clear();
+            return;
+        }
+        if (!identity.matches(dataFile)) {
+            // The data file was rewritten, possibly at the same size: start over
+            clear();
+        }
+        long size = dataFile.size();
+        if (size == coveredOffset) {
+            return;
+        }
+        if (size < coveredOffset) {
+            // The data file was truncated: start over
+            clear();
+        }
+        long before = coveredOffset;
+        identity = identity.refresh(dataFile);
+        coveredOffset = scanner.scan(coveredOffset, (t, start, end) -> add(t));
+        if (coveredOffset != before && shouldCheckpoint()) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Returns copies of the buckets whose period starts in [from, to), oldest first
+     * @param from inclusive lower bound, or null for the first bucket
+     * @param to exclusive upper bound, or null for no limit
+     */
+    public synchronized List<Bucket> query(Granularity granularity, LocalDateTime from, LocalDateTime to) throws IOException {
+        update();
+        NavigableMap<Long, Bucket> table = tables.get(granularity);
+        if (from != null) {
+            table = table.tailMap(granularity.bucketStart(BinaryTransactionFormat.toEpochMillis(from)), true);
+        }
+        if (to != null) {
+            table = table.headMap(BinaryTransactionFormat.toEpochMillis(to), false);
+        }
+        List<Bucket> buckets = new ArrayList<>(table.size());
+        for (Bucket bucket : table.values()) {
+            buckets.add(bucket.copy());
+        }
+        return buckets;
+    }
+
+    /**
+     * Discards the rollups and the snapshot and recomputes them from the start of the file
+     */
+    public synchronized void rebuild() throws IOException {
+        Files.deleteIfExists(snapshotFile);
+        clear();
+        snapshotLoaded = true;
+        update();
+        writeSnapshot();
+    }
+
+    private void clear() {
+        for (Granularity granularity : Granularity.values()) {
+            tables.put(granularity, new TreeMap<>());
+        }
+        coveredOffset = 0;
+        identity = DataFileIdentity.EMPTY;
+        rowsSinceCheckpoint = 0;
+    }
+
+    private void add(SimpleFileBasedDataStore.SimpleTransaction transaction) {
+        long epochMillis = BinaryTransactionFormat.toEpochMillis(transaction.transactionDate);
+        for (Granularity granularity : Granularity.values()) {
+            long key = granularity.bucketStart(epochMillis);
+            Bucket bucket = tables.get(granularity).get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                bucket.start = BinaryTransactionFormat.fromEpochMillis(key);
+                tables.get(granularity).put(key, bucket);
+            }
+            bucket.add(transaction);
+        }
+        rowsSinceCheckpoint++;
+    }
+
+    private boolean shouldCheckpoint() {
+        return rowsSinceCheckpoint >= CHECKPOINT_ROWS
+            || System.currentTimeMillis() - lastCheckpointMillis >= CHECKPOINT_INTERVAL_MILLIS;
+    }
+
+    private void loadSnapshot() {
+        try (InputStream file = Files.newInputStream(snapshotFile);
+             CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file, 1 << 16), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                return;
+            }
+            long offset = in.readLong();
+            DataFileIdentity snapshotIdentity = DataFileIdentity.read(in);
+            Map<Granularity, TreeMap<Long, Bucket>> loaded = new EnumMap<>(Granularity.class);
+            for (Granularity granularity : Granularity.values()) {
+                TreeMap<Long, Bucket> table = new TreeMap<>();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    long key = in.readLong();
+                    Bucket bucket = new Bucket();
+                    bucket.start = BinaryTransactionFormat.fromEpochMillis(key);
+                    bucket.count = in.readLong();
+                    bucket.subtotalCents = in.readLong();
+                    bucket.taxCents = in.readLong();
+                    bucket.totalCents = in.readLong();
+                    bucket.cashCount = in.readLong();
+                    bucket.cashTotalCents = in.readLong();
+                    bucket.cardCount = in.readLong();
+                    bucket.cardTotalCents = in.readLong();
+                    table.put(key, bucket);
+                }
+                loaded.put(granularity, table);
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                System.err.println("Ignoring damaged rollup snapshot " + snapshotFile);
+                return;
+            }
+            if (dataFile.exists() && (offset > dataFile.size() || !snapshotIdentity.matches(dataFile))) {
+                return;
+            }
+            tables.putAll(loaded);
+            coveredOffset = offset;
+            identity = snapshotIdentity;
+        } catch (NoSuchFileException e) {
+            // No snapshot yet: build from the start of the file
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable rollup snapshot " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the rollups to a temporary file and moves it over the snapshot, so readers
+     * in other processes see either the old or the new snapshot, never a partial one
+     */
+    private void writeSnapshot() {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp" + ProcessHandle.current().pid());
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+                 DataOutputStream out = new DataOutputStream(checked)) {
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(coveredOffset);
+                identity.write(out);
+                for (Granularity granularity : Granularity.values()) {
+                    TreeMap<Long, Bucket> table = tables.get(granularity);
+                    out.writeInt(table.size());
+                    for (Map.Entry<Long, Bucket> entry : table.entrySet()) {
+                        Bucket bucket = entry.getValue();
+                        out.writeLong(entry.getKey());
+                        out.writeLong(bucket.count);
+                        out.writeLong(bucket.subtotalCents);
+                        out.writeLong(bucket.taxCents);
+                        out.writeLong(bucket.totalCents);
+                        out.writeLong(bucket.cashCount);
+                        out.writeLong(bucket.cashTotalCents);
+                        out.writeLong(bucket.cardCount);
+                        out.writeLong(bucket.cardTotalCents);
+                    }
+                }
+                out.flush();
+                out.writeInt((int) checked.getChecksum().getValue());
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            rowsSinceCheckpoint = 0;
+            lastCheckpointMillis = System.currentTimeMillis();
+        } catch (IOException e) {
+            System.err.println("Error writing rollup snapshot: " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // best effort
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1 || !args[0].equals("--rebuild")) {
+            System.out.println("Usage: java SalesRollups --rebuild");
+            return;
+        }
+        try {
+            SimpleFileBasedDataStore.rebuildSalesRollups();
+            for (Granularity granularity : Granularity.values()) {
+                System.out.println(granularity + ": " + SimpleFileBasedDataStore.getSalesTimeseries(granularity, null, null).size() + " buckets");
+            }
+        } catch (IOException e) {
+            System.err.println("Rebuild failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
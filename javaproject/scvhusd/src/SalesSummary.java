@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Running sales totals over the transaction file, persisted next to it as <data file>.summary
+ * The totals remember the (logical) file offset they cover; each update folds in only the rows
+ * appended since then (by this or another process), so reading the summary never rescans the history.
+ * When the persisted totals are missing they start from the totals of the sealed segments,
+ * so only the active segment is scanned. The state holds the identity of the data file (see
+ * DataFileIdentity), so totals of a file that was since rewritten are recomputed.
+ * Usage: java SalesSummary --rebuild | --verify
+ */
+public class SalesSummary {
+
+    // Version 1 held the amounts as doubles and version 2 had no data file identity; their
+    // shorter state fails the size check and is rebuilt
+    private static final int STATE_VERSION = 3;
+    private static final int STATE_BYTES = 4 + 8 * 8 + DataFileIdentity.BYTES;
+
+    /**
+     * Reads transaction rows from the data file, starting at an offset
+     */
+    public interface TransactionScanner {
+        /**
+         * @return the offset just past the last complete row
+         */
+        long scan(long fromOffset, SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleTransaction> sink)
+            throws IOException;
+    }
+
+    /**
+     * Supplies the totals of everything before the active segment, with coveredOffset set to its start
+     */
+    public interface Baseline {
+        Totals get() throws IOException;
+    }
+
+    /**
+     * Sales totals over a prefix of the transaction file, in exact cents
+     */
+    public static final class Totals {
+        public long coveredOffset;
+        public long transactionCount;
+        public long totalSalesCents;
+        public long totalTaxCents;
+        public long cashCount;
+        public long cashTotalCents;
+        public long cardCount;
+        public long cardTotalCents;
+
+        void add(Totals other) {
+            transactionCount += other.transactionCount;
+            totalSalesCents += other.totalSalesCents;
+            totalTaxCents += other.totalTaxCents;
+            cashCount += other.cashCount;
+            cashTotalCents += other.cashTotalCents;
+            cardCount += other.cardCount;
+            cardTotalCents += other.cardTotalCents;
+        }
+
+        void add(SimpleFileBasedDataStore.SimpleTransaction transaction) {
+            transactionCount++;
+            totalSalesCents += transaction.totalDueCents;
+            totalTaxCents += transaction.taxAmountCents;
+            if ("CASH".equals(transaction.paymentMethod)) {
+                cashCount++;
+                cashTotalCents += transaction.totalDueCents;
+            } else {
+                cardCount++;
+                cardTotalCents += transaction.totalDueCents;
+            }
+        }
+
+        public long averageTransactionCents() {
+            return Money.average(totalSalesCents, transactionCount);
+        }
+
+        Totals copy() {
+            Totals copy = new Totals();
+            copy.coveredOffset = coveredOffset;
+            copy.transactionCount = transactionCount;
+            copy.totalSalesCents = totalSalesCents;
+            copy.totalTaxCents = totalTaxCents;
+            copy.cashCount = cashCount;
+            copy.cashTotalCents = cashTotalCents;
+            copy.cardCount = cardCount;
+            copy.cardTotalCents = cardTotalCents;
+            return copy;
+        }
+
+        boolean sameTotals(Totals other) {
+            return transactionCount == other.transactionCount
+                && totalSalesCents == other.totalSalesCents
+                && totalTaxCents == other.totalTaxCents
+                && cashCount == other.cashCount
+                && cashTotalCents == other.cashTotalCents
+                && cardCount == other.cardCount
+                && cardTotalCents == other.cardTotalCents;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d transactions, sales %s, tax %s, cash %d / %s, card %d / %s (offset %d)",
+                transactionCount, Money.format(totalSalesCents), Money.format(totalTaxCents), cashCount,
+                Money.format(cashTotalCents), cardCount, Money.format(cardTotalCents), coveredOffset);
+        }
+    }
+
+    private final SegmentedFile dataFile;
+    private final Path summaryFile;
+    private final TransactionScanner scanner;
+    private final Baseline baseline;
+    private Totals current = new Totals();
+    private DataFileIdentity identity = DataFileIdentity.EMPTY;
+
+    /**
+     * @param baseline totals to start from when there are no persisted totals, or null to scan everything
+     */
+    public SalesSummary(SegmentedFile dataFile, TransactionScanner scanner, Baseline baseline) {
+        this.dataFile = dataFile;
+        this.summaryFile = dataFile.getFirstFile().resolveSibling(dataFile.getFirstFile().getFileName() + ".summary");
+        this.scanner = scanner;
+        this.baseline = baseline;
+    }
+
+    /**
+     * Folds any newly appended rows into the totals and returns a copy of them
+     */
+    public synchronized Totals update() throws IOException {
+        return update(baseline);
+    }
+
+    private Totals update(Baseline start) throws IOException {
+        if (!dataFile.exists()) {
+            current = new Totals();
+            identity = DataFileIdentity.EMPTY;
+            return current.copy();
+        }
+        if (!identity.matches(dataFile)) {
+            // Rewritten since we last looked, possibly at the same size
+            current = new Totals();
+            identity = DataFileIdentity.EMPTY;
+        }
+        long size = dataFile.size();
+        if (size == current.coveredOffset) {
+            // Nothing appended since we last looked
+            return current.copy();
+        }
+
+        try (FileChannel channel = FileChannel.open(summaryFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                DataFileIdentity seen = DataFileIdentity.of(dataFile);
+                Totals totals = readState(channel, dataFile);
+                if (totals == null || totals.coveredOffset > size) {
+                    // Missing, damaged, or the data file was rewritten or truncated: start over
+                    totals = start != null ? start.get() : new Totals();
+                }
+                long covered = totals.coveredOffset;
+                Totals target = totals;
+                target.coveredOffset = scanner.scan(covered, (t, recordStart, recordEnd) -> target.add(t));
+                if (target.coveredOffset != covered) {
+                    writeState(channel, target, seen);
+                }
+                current = target;
+                identity = seen;
+            } finally {
+                lock.release();
+            }
+        }
+        return current.copy();
+    }
+
+    /**
+     * Discards the persisted totals and recomputes them from a scan of every segment
+     */
+    public synchronized Totals rebuild() throws IOException {
+        Files.deleteIfExists(summaryFile);
+        current = new Totals();
+        return update(null);
+    }
+
+    /**
+     * @return the persisted totals, or null when missing, damaged or taken over other contents of the data file
+     */
+    private static Totals readState(FileChannel channel, SegmentedFile dataFile) throws IOException {
+        if (channel.size() != STATE_BYTES + 4) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_BYTES + 4);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // keep reading until full
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, STATE_BYTES);
+        if ((int) crc.getValue() != buffer.getInt(STATE_BYTES)) {
+            return null;
+        }
+        buffer.flip();
+        if (buffer.getInt() != STATE_VERSION) {
+            return null;
+        }
+        Totals totals = new Totals();
+        totals.coveredOffset = buffer.getLong();
+        totals.transactionCount = buffer.getLong();
+        totals.totalSalesCents = buffer.getLong();
+        totals.totalTaxCents = buffer.getLong();
+        totals.cashCount = buffer.getLong();
+        totals.cashTotalCents = buffer.getLong();
+        totals.cardCount = buffer.getLong();
+        totals.cardTotalCents = buffer.getLong();
+        return DataFileIdentity.get(buffer).matches(dataFile) ? totals : null;
+    }
+
+    private static void writeState(FileChannel channel, Totals totals, DataFileIdentity identity) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_BYTES + 4);
+        buffer.putInt(STATE_VERSION)
+              .putLong(totals.coveredOffset)
+              .putLong(totals.transactionCount)
+              .putLong(totals.totalSalesCents)
+              .putLong(totals.totalTaxCents)
+              .putLong(totals.cashCount)
+              .putLong(totals.cashTotalCents)
+              .putLong(totals.cardCount)
+              .putLong(totals.cardTotalCents);
+        identity.put(buffer);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, STATE_BYTES);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.truncate(STATE_BYTES + 4);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1 || !(args[0].equals("--rebuild") || args[0].equals("--verify"))) {
+            System.out.println("Usage: java SalesSummary --rebuild | --verify");
+            return;
+        }
+        try {
+            if (args[0].equals("--rebuild")) {
+                System.out.println("Rebuilt: " + SimpleFileBasedDataStore.rebuildSalesSummary());
+                return;
+            }
+
+            Totals stored = SimpleFileBasedDataStore.getSalesSummary();
+            Totals scanned = new Totals();
+            List<SimpleFileBasedDataStore.SimpleTransaction> transactions = SimpleFileBasedDataStore.loadAllTransactions();
+            for (SimpleFileBasedDataStore.SimpleTransaction transaction : transactions) {
+                scanned.add(transaction);
+            }
+            System.out.println("Stored:  " + stored);
+            System.out.println("Scanned: " + scanned);
+            if (stored.sameTotals(scanned)) {
+                System.out.println("Summary matches a full scan.");
+            } else {
+                System.out.println("Summary does NOT match a full scan; run with --rebuild.");
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            System.err.println("Summary failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Key ranges and sales totals of one sealed transaction segment
+ * Kept next to the segment as <segment file>.meta. Since sealed segments never change, the
+ * metadata is computed once (on first use) and lets queries skip or total whole segments
+ * without reading them. A sidecar that is missing, damaged or for a different size is recomputed.
+ * Usage: java SegmentMetadata
+ */
+public final class SegmentMetadata {
+
+    private static final int VERSION = 1;
+    private static final int STATE_BYTES = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 8 + 8 + 7 * 8;
+
+    /**
+     * Reads every transaction in one segment, reporting logical offsets
+     */
+    public interface SegmentScanner {
+        void scan(SegmentedFile.Segment segment,
+                  SimpleFileBasedDataStore.RecordSink<SimpleFileBasedDataStore.SimpleTransaction> sink) throws IOException;
+    }
+
+    public final int sequence;
+    /** Logical byte range of the segment */
+    public final long start;
+    public final long end;
+    public final long count;
+    public final int minId;
+    public final int maxId;
+    public final long minDateMillis;
+    public final long maxDateMillis;
+    /** Sales totals of the segment's transactions; coveredOffset is the segment end */
+    public final SalesSummary.Totals totals;
+
+    private SegmentMetadata(int sequence, long start, long end, long count, int minId, int maxId,
+                            long minDateMillis, long maxDateMillis, SalesSummary.Totals totals) {
+        this.sequence = sequence;
+        this.start = start;
+        this.end = end;
+        this.count = count;
+        this.minId = minId;
+        this.maxId = maxId;
+        this.minDateMillis = minDateMillis;
+        this.maxDateMillis = maxDateMillis;
+        this.totals = totals;
+        totals.coveredOffset = end;
+    }
+
+    public boolean mayContainId(int id) {
+        return count > 0 && id >= minId && id <= maxId;
+    }
+
+    /**
+     * Whether any transaction in the segment may fall in [fromMillis, toMillis)
+     */
+    public boolean overlapsDates(long fromMillis, long toMillis) {
+        return count > 0 && maxDateMillis >= fromMillis && minDateMillis < toMillis;
+    }
+
+    /**
+     * Whether every transaction in the segment falls in [fromMillis, toMillis)
+     */
+    public boolean withinDates(long fromMillis, long toMillis) {
+        return count == 0 || (minDateMillis >= fromMillis && maxDateMillis < toMillis);
+    }
+
+    /**
+     * Metadata of every sealed segment of a transaction file, loaded or computed once per segment
+     */
+    public static final class Catalog {
+        private final SegmentedFile data;
+        private final SegmentScanner scanner;
+        private final Map<Integer, SegmentMetadata> known = new HashMap<>();
+
+        public Catalog(SegmentedFile data, SegmentScanner scanner) {
+            this.data = data;
+            this.scanner = scanner;
+        }
+
+        /**
+         * Metadata of the sealed segments, in order
+         */
+        public synchronized List<SegmentMetadata> sealedSegments() throws IOException {
+            List<SegmentedFile.Segment> segments = data.sealedSegments();
+            List<SegmentMetadata> result = new ArrayList<>(segments.size());
+            for (SegmentedFile.Segment segment : segments) {
+                SegmentMetadata metadata = known.get(segment.sequence);
+                if (metadata == null || metadata.start != segment.base || metadata.end != segment.end()) {
+                    metadata = load(segment, scanner);
+                    known.put(segment.sequence, metadata);
+                }
+                result.add(metadata);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Reads the segment's sidecar, or scans the segment and writes one
+     */
+    static SegmentMetadata load(SegmentedFile.Segment segment, SegmentScanner scanner) throws IOException {
+        Path sidecar = sidecarFor(segment.file);
+        SegmentMetadata stored = read(sidecar, segment);
+        if (stored != null) {
+            return stored;
+        }
+        SegmentMetadata computed = compute(segment, scanner);
+        try {
+            write(sidecar, computed);
+        } catch (IOException e) {
+            System.err.println("Error writing segment metadata " + sidecar + ": " + e.getMessage());
+        }
+        return computed;
+    }
+
+    static SegmentMetadata compute(SegmentedFile.Segment segment, SegmentScanner scanner) throws IOException {
+        SalesSummary.Totals totals = new SalesSummary.Totals();
+        long[] dates = { Long.MAX_VALUE, Long.MIN_VALUE };
+        int[] ids = { Integer.MAX_VALUE, Integer.MIN_VALUE };
+        scanner.scan(segment, (t, start, end) -> {
+            totals.add(t);
+            long millis = BinaryTransactionFormat.toEpochMillis(t.transactionDate);
+            dates[0] = Math.min(dates[0], millis);
+            dates[1] = Math.max(dates[1], millis);
+            ids[0] = Math.min(ids[0], t.transactionId);
+            ids[1] = Math.max(ids[1], t.transactionId);
+        });
+        return new SegmentMetadata(segment.sequence, segment.base, segment.end(), totals.transactionCount,
+            ids[0], ids[1], dates[0], dates[1], totals);
+    }
+
+    private static Path sidecarFor(Path segmentFile) {
+        return segmentFile.resolveSibling(segmentFile.getFileName() + ".meta");
+    }
+
+    private static SegmentMetadata read(Path sidecar, SegmentedFile.Segment segment) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(sidecar);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable segment metadata " + sidecar + ": " + e.getMessage());
+            return null;
+        }
+        if (bytes.length != STATE_BYTES + 4) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, STATE_BYTES);
+        if ((int) crc.getValue() != buffer.getInt(STATE_BYTES) || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int sequence = buffer.getInt();
+        long start = buffer.getLong();
+        long end = buffer.getLong();
+        if (sequence != segment.sequence || start != segment.base || end != segment.end()) {
+            return null;
+        }
+        long count = buffer.getLong();
+        int minId = buffer.getInt();
+        int maxId = buffer.getInt();
+        long minDate = buffer.getLong();
+        long maxDate = buffer.getLong();
+        SalesSummary.Totals totals = new SalesSummary.Totals();
+        totals.transactionCount = count;
+        totals.totalSalesCents = buffer.getLong();
+        totals.totalTaxCents = buffer.getLong();
+        totals.cashCount = buffer.getLong();
+        totals.cashTotalCents = buffer.getLong();
+        totals.cardCount = buffer.getLong();
+        totals.cardTotalCents = buffer.getLong();
+        buffer.getLong(); // reserved
+        return new SegmentMetadata(sequence, start, end, count, minId, maxId, minDate, maxDate, totals);
+    }
+
+    private static void write(Path sidecar, SegmentMetadata m) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(STATE_BYTES + 4);
+        buffer.putInt(VERSION).putInt(m.sequence).putLong(m.start).putLong(m.end)
+              .putLong(m.count).putInt(m.minId).putInt(m.maxId).putLong(m.minDateMillis).putLong(m.maxDateMillis)
+              .putLong(m.totals.totalSalesCents).putLong(m.totals.totalTaxCents)
+              .putLong(m.totals.cashCount).putLong(m.totals.cashTotalCents)
+              .putLong(m.totals.cardCount).putLong(m.totals.cardTotalCents)
+              .putLong(0);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, STATE_BYTES);
+        buffer.putInt((int) crc.getValue());
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp" + ProcessHandle.current().pid());
+        Files.write(temp, buffer.array());
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return String.format("segment %d: empty", sequence);
+        }
+        return String.format("segment %d: %d transactions, IDs %d-%d, %s to %s, sales %s (bytes %d-%d)",
+            sequence, count, minId, maxId, BinaryTransactionFormat.fromEpochMillis(minDateMillis),
+            BinaryTransactionFormat.fromEpochMillis(maxDateMillis), Money.format(totals.totalSalesCents), start, end);
+    }
+
+    public static void main(String[] args) {
+        try {
+            List<SegmentMetadata> segments = SimpleFileBasedDataStore.getSealedSegments();
+            if (segments.isEmpty()) {
+                System.out.println("No sealed segments yet.");
+            }
+            for (SegmentMetadata segment : segments) {
+                System.out.println(segment);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read segment metadata: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A data file split into numbered segments
+ * Segment 0 is the file at its usual path (e.g. transactions.txt); later segments live in the
+ * segments directory as name-000001.ext, name-000002.ext, ... For the store that directory is
+ * <store.dir>/segments, so transactions.txt continues in <store.dir>/segments/transactions-000001.txt
+ * and line_items.txt in <store.dir>/segments/line_items-000001.txt. Only the highest-numbered segment
+ * is ever appended to: once a newer segment exists the older ones are sealed and never change,
+ * so they can be cached, compressed or archived. Segments are never renamed while in use.
+ * Records are addressed by logical offset, the total size of the segments before theirs plus
+ * their offset inside it, so offsets keep growing across segments as they did in one file.
+ */
+public class SegmentedFile {
+
+    /**
+     * One segment and where it sits in the logical file
+     */
+    public static final class Segment {
+        public final int sequence;
+        public final Path file;
+        public final long base;
+        public final long size;
+        /** Whether a newer segment exists, so this one no longer changes */
+        public final boolean sealed;
+
+        Segment(int sequence, Path file, long base, long size, boolean sealed) {
+            this.sequence = sequence;
+            this.file = file;
+            this.base = base;
+            this.size = size;
+            this.sealed = sealed;
+        }
+
+        public long end() {
+            return base + size;
+        }
+    }
+
+    /**
+     * Reads records from one segment between two offsets inside it
+     */
+    public interface SegmentReader {
+        /**
+         * @return the offset inside the segment just past the last record read
+         */
+        long read(Segment segment, long start, long end) throws IOException;
+    }
+
+    private final Path firstFile;
+    private final Path segmentDir;
+    private final String stem;
+    private final String extension;
+
+    // Known segments by sequence, and the sizes of the sealed ones (which never change)
+    private final TreeMap<Integer, Path> files = new TreeMap<>();
+    private final TreeMap<Integer, Long> sealedSizes = new TreeMap<>();
+    private boolean listed;
+
+    /**
+     * @param firstFile segment 0, at the data file's usual path
+     * @param segmentDir directory holding the later segments
+     */
+    public SegmentedFile(Path firstFile, Path segmentDir) {
+        this.firstFile = firstFile;
+        this.segmentDir = segmentDir;
+        String name = firstFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        this.stem = dot > 0 ? name.substring(0, dot) : name;
+        this.extension = dot > 0 ? name.substring(dot) : "";
+    }
+
+    public Path getFirstFile() {
+        return firstFile;
+    }
+
+    public Path getSegmentDir() {
+        return segmentDir;
+    }
+
+    /**
+     * Path of the segment with the given sequence number
+     */
+    public Path pathFor(int sequence) {
+        if (sequence == 0) {
+            return firstFile;
+        }
+        return segmentDir.resolve(String.format("%s-%06d%s", stem, sequence, extension));
+    }
+
+    /**
+     * All segments in order, the active (last) one with its current size
+     * Segments whose file is missing count as empty.
+     */
+    public synchronized List<Segment> segments() throws IOException {
+        discover();
+        List<Segment> segments = new ArrayList<>(files.size());
+        long base = 0;
+        int last = files.lastKey();
+        for (Map.Entry<Integer, Path> entry : files.entrySet()) {
+            int sequence = entry.getKey();
+            boolean sealed = sequence != last;
+            long size;
+            if (sealed) {
+                Long known = sealedSizes.get(sequence);
+                if (known == null) {
+                    known = sizeOrZero(entry.getValue());
+                    sealedSizes.put(sequence, known);
+                }
+                size = known;
+            } else {
+                size = sizeOrZero(entry.getValue());
+            }
+            segments.add(new Segment(sequence, entry.getValue(), base, size, sealed));
+            base += size;
+        }
+        return segments;
+    }
+
+    /**
+     * The sealed segments only, in order
+     */
+    public List<Segment> sealedSegments() throws IOException {
+        List<Segment> segments = segments();
+        return Collections.unmodifiableList(segments.subList(0, segments.size() - 1));
+    }
+
+    /**
+     * Sequence number of the segment currently appended to
+     */
+    public synchronized int activeSequence() throws IOException {
+        discover();
+        return files.lastKey();
+    }
+
+    /**
+     * Whether any segment holds data
+     */
+    public boolean exists() throws IOException {
+        for (Segment segment : segments()) {
+            if (segment.size > 0 || Files.exists(segment.file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Logical size: the end of the active segment
+     */
+    public long size() throws IOException {
+        List<Segment> segments = segments();
+        return segments.get(segments.size() - 1).end();
+    }
+
+    /**
+     * Reads records between two logical offsets, segment by segment
+     * The reader gets offsets inside each segment; the result is the logical offset just past the
+     * last record read. A sealed segment always counts as read to its end, so a torn record left
+     * at the end of one is skipped rather than blocking the segments after it.
+     * @param end logical offset to stop at, or Long.MAX_VALUE for the end of the data
+     */
+    public long read(long start, long end, SegmentReader reader) throws IOException {
+        long position = start;
+        for (Segment segment : segments()) {
+            if (segment.sealed && segment.end() <= position) {
+                continue;
+            }
+            if (segment.base >= end) {
+                break;
+            }
+            long from = Math.max(position - segment.base, 0);
+            long to = end == Long.MAX_VALUE ? Long.MAX_VALUE : end - segment.base;
+            long reached = segment.size > 0 || !segment.sealed ? readSegment(reader, segment, from, to) : from;
+            if (!segment.sealed || to < segment.size) {
+                return segment.base + reached;
+            }
+            position = segment.end();
+        }
+        return position;
+    }
+
+    private static long readSegment(SegmentReader reader, Segment segment, long from, long to) throws IOException {
+        try {
+            return reader.read(segment, from, to);
+        } catch (NoSuchFileException e) {
+            return from;
+        }
+    }
+
+    /**
+     * Picks up segments started since the last call; lists the directory the first time
+     */
+    private void discover() throws IOException {
+        if (!listed) {
+            files.put(0, firstFile);
+            if (Files.isDirectory(segmentDir)) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(segmentDir, stem + "-*" + extension)) {
+                    for (Path entry : entries) {
+                        int sequence = parseSequence(entry.getFileName().toString());
+                        if (sequence > 0) {
+                            files.put(sequence, entry);
+                        }
+                    }
+                }
+            }
+            listed = true;
+        }
+        // A new segment is always the next number, so one check per call finds it
+        while (Files.exists(pathFor(files.lastKey() + 1))) {
+            files.put(files.lastKey() + 1, pathFor(files.lastKey() + 1));
+        }
+    }
+
+    private int parseSequence(String name) {
+        String digits = name.substring(stem.length() + 1, name.length() - extension.length());
+        if (digits.length() != 6) {
+            return -1;
+        }
+        for (int i = 0; i < digits.length(); i++) {
+            if (!Character.isDigit(digits.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(digits);
+    }
+
+    private static long sizeOrZero(Path file) throws IOException {
+        try {
+            return Files.size(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+}
@@ -1,9 +1,21 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Simple file-based data storage for transactions
@@ -11,23 +23,97 @@ import java.util.Scanner;
  */
 public class SimpleFileBasedDataStore {
     
-    private static final String TRANSACTIONS_FILE = "transactions.txt";
-    private static final String LINE_ITEMS_FILE = "line_items.txt";
+    static final Path DATA_DIR = Paths.get(System.getProperty("store.dir", "."));
+    static final Path TRANSACTIONS_FILE = DATA_DIR.resolve("transactions.txt");
+    static final Path LINE_ITEMS_FILE = DATA_DIR.resolve("line_items.txt");
+    static final Path BINARY_TRANSACTIONS_FILE = DATA_DIR.resolve("transactions.dat");
+    static final Path SEQUENCE_FILE = DATA_DIR.resolve("transaction_id.seq");
+    static final Path IDEMPOTENCY_KEY_LOG_FILE = DATA_DIR.resolve("idempotency_keys.log");
+    private static final int ID_BLOCK_SIZE = Integer.getInteger("store.idBlockSize", 1000);
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    static final boolean BINARY_FORMAT = "binary".equalsIgnoreCase(System.getProperty("store.format", "text"));
+    private static final boolean MAPPED_READER = !"scanner".equalsIgnoreCase(System.getProperty("store.reader", "mapped"));
+    // Threads used to parse the text files when loading the full history (1 = sequential)
+    private static final int LOAD_THREADS = Integer.getInteger("store.loadThreads", 1);
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
+    // The data files are split into segments (see SegmentedFile): a new one is started once the
+    // active one reaches store.segmentMaxBytes (0 for no limit) or, with store.segmentPerDay, each day
+    static final Path SEGMENT_DIR = DATA_DIR.resolve("segments");
+    private static final long SEGMENT_MAX_BYTES = Long.getLong("store.segmentMaxBytes", 64L * 1024 * 1024);
+    private static final boolean SEGMENT_PER_DAY = Boolean.parseBoolean(System.getProperty("store.segmentPerDay", "true"));
+    private static final SegmentedFile TEXT_TRANSACTION_LOG = new SegmentedFile(TRANSACTIONS_FILE, SEGMENT_DIR);
+    private static final SegmentedFile BINARY_TRANSACTION_LOG = new SegmentedFile(BINARY_TRANSACTIONS_FILE, SEGMENT_DIR);
+    private static final SegmentedFile LINE_ITEM_LOG = new SegmentedFile(LINE_ITEMS_FILE, SEGMENT_DIR);
+    private static final SegmentedFile TRANSACTION_LOG = BINARY_FORMAT ? BINARY_TRANSACTION_LOG : TEXT_TRANSACTION_LOG;
+    
+    private static final TransactionIdAllocator ID_ALLOCATOR = new TransactionIdAllocator(
+        SEQUENCE_FILE, ID_BLOCK_SIZE, SimpleFileBasedDataStore::findMaxTransactionId);
+    private static final TransactionJournal JOURNAL = new TransactionJournal(
+        TRANSACTION_LOG, BINARY_FORMAT ? null : LINE_ITEM_LOG, SEGMENT_MAX_BYTES, SEGMENT_PER_DAY,
+        TransactionJournal.FsyncPolicy.parse(System.getProperty("store.fsync", "batch")),
+        Long.getLong("store.fsyncIntervalMs", 50), Long.getLong("store.batchWindowMicros", 1000));
+    private static final TransactionCache CACHE = new TransactionCache(
+        TRANSACTION_LOG, BINARY_FORMAT ? null : LINE_ITEM_LOG, LOAD_THREADS);
+    private static final SparseTransactionIndex TRANSACTION_INDEX = new SparseTransactionIndex(
+        TRANSACTION_LOG,
+        (from, visitor) -> readTransactionRange(from, Long.MAX_VALUE, (t, start, end) ->
+            visitor.visit(t.transactionId, BinaryTransactionFormat.toEpochMillis(t.transactionDate), start, end)));
+    private static final SparseTransactionIndex LINE_ITEM_INDEX = new SparseTransactionIndex(
+        LINE_ITEM_LOG,
+        (from, visitor) -> LINE_ITEM_LOG.read(from, Long.MAX_VALUE, (segment, start, end) ->
+            MappedTransactionReader.readLineItems(segment.file, start, end, false, (item, itemStart, itemEnd) ->
+                visitor.visit(item.transactionId, 0, segment.base + itemStart, segment.base + itemEnd))));
+    // Secondary indexes: transaction IDs by payment method and by product (line item description)
+    private static final PostingIndex METHOD_INDEX = new PostingIndex(
+        TRANSACTION_LOG, "method",
+        (from, visitor) -> readTransactionRange(from, Long.MAX_VALUE, (t, start, end) ->
+            visitor.visit(t.paymentMethod, t.transactionId)));
+    private static final PostingIndex PRODUCT_INDEX = BINARY_FORMAT
+        ? new PostingIndex(TRANSACTION_LOG, "product",
+            (from, visitor) -> readTransactionRange(from, Long.MAX_VALUE, (t, start, end) -> {
+                for (SimpleLineItem item : t.lineItems) {
+                    visitor.visit(productKey(item.description), t.transactionId);
+                }
+            }))
+        : new PostingIndex(LINE_ITEM_LOG, "product",
+            (from, visitor) -> LINE_ITEM_LOG.read(from, Long.MAX_VALUE, (segment, start, end) ->
+                MappedTransactionReader.readLineItems(segment.file, start, end, false, (item, itemStart, itemEnd) ->
+                    visitor.visit(productKey(item.description), item.transactionId))));
+    // Best-selling products, counted from the data files as they grow
+    private static final TopProducts TOP_PRODUCTS = new TopProducts(
+        Integer.getInteger("store.topProductCounters", 1000),
+        TRANSACTION_LOG,
+        SimpleFileBasedDataStore::readTransactionRange,
+        BINARY_FORMAT ? null : LINE_ITEM_LOG,
+        (from, to, sink) -> LINE_ITEM_LOG.read(from, to, (segment, start, end) ->
+            MappedTransactionReader.readLineItems(segment.file, start, end, false, (item, itemStart, itemEnd) ->
+                sink.accept(item, segment.base + itemStart, segment.base + itemEnd))));
+    private static final SegmentMetadata.Catalog SEGMENTS = new SegmentMetadata.Catalog(
+        TRANSACTION_LOG, (segment, sink) -> readTransactionSegment(segment, 0, Long.MAX_VALUE, sink));
+    private static final SalesSummary SALES_SUMMARY = new SalesSummary(
+        TRANSACTION_LOG,
+        (from, sink) -> readTransactionRange(from, Long.MAX_VALUE, sink),
+        SimpleFileBasedDataStore::sealedSegmentTotals);
+    private static final SalesRollups SALES_ROLLUPS = new SalesRollups(
+        TRANSACTION_LOG,
+        (from, sink) -> readTransactionRange(from, Long.MAX_VALUE, sink));
+    private static boolean binaryFileRecovered;
+    
     /**
      * Simple transaction data structure
+     * Amounts are whole cents and the tax rate is in basis points (see Money).
      */
     public static class SimpleTransaction {
         public int transactionId;
         public LocalDateTime transactionDate;
-        public double subtotal;
-        public double taxRatePercent;
-        public double taxAmount;
-        public double totalDue;
+        public long subtotalCents;
+        public long taxRateBasisPoints;
+        public long taxAmountCents;
+        public long totalDueCents;
         public String paymentMethod;
-        public double amountPaid;
-        public double changeAmount;
+        public long amountPaidCents;
+        public long changeAmountCents;
         public String cardNumberMasked;
         public String cardHolderName;
         public String cardExpiry;
@@ -45,55 +131,589 @@ public class SimpleFileBasedDataStore {
         public int transactionId;
         public String description;
         public int quantity;
-        public double unitPrice;
-        public double lineTotal;
+        public long unitPriceCents;
+        public long lineTotalCents;
     }
     
     /**
-     * Saves a transaction to file
+     * One page of transactions in file order
+     */
+    public static class TransactionPage {
+        public List<SimpleTransaction> transactions = new ArrayList<>();
+        /** ID to pass as the cursor for the following page, or null on the last page */
+        public Integer nextCursor;
+    }
+    
+    /**
+     * Receives a record together with the byte range it was read from
+     */
+    public interface RecordSink<T> {
+        void accept(T record, long start, long end);
+    }
+    
+    /**
+     * Saves a transaction to file and waits until it is durable
      */
     public static void saveTransaction(SimpleTransaction transaction) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(TRANSACTIONS_FILE, true))) {
-            writer.println(transaction.transactionId + "|" +
-                          transaction.transactionDate.format(DATE_FORMATTER) + "|" +
-                          transaction.subtotal + "|" +
-                          transaction.taxRatePercent + "|" +
-                          transaction.taxAmount + "|" +
-                          transaction.totalDue + "|" +
-                          transaction.paymentMethod + "|" +
-                          transaction.amountPaid + "|" +
-                          transaction.changeAmount + "|" +
-                          (transaction.cardNumberMasked != null ? transaction.cardNumberMasked : "") + "|" +
-                          (transaction.cardHolderName != null ? transaction.cardHolderName : "") + "|" +
-                          (transaction.cardExpiry != null ? transaction.cardExpiry : ""));
-            
-            // Save line items
-            if (transaction.lineItems != null) {
-                try (PrintWriter lineWriter = new PrintWriter(new FileWriter(LINE_ITEMS_FILE, true))) {
-                    for (SimpleLineItem item : transaction.lineItems) {
-                        lineWriter.println(transaction.transactionId + "|" +
-                                         item.description + "|" +
-                                         item.quantity + "|" +
-                                         item.unitPrice + "|" +
-                                         item.lineTotal);
-                    }
+        try {
+            saveTransactionAsync(transaction).join();
+            System.out.println("Transaction saved to file with ID: " + transaction.transactionId);
+        } catch (CompletionException e) {
+            System.err.println("Error saving transaction: " + e.getCause().getMessage());
+            return;
+        }
+        try {
+            SALES_SUMMARY.update();
+            SALES_ROLLUPS.update();
+        } catch (IOException e) {
+            System.err.println("Error updating sales aggregates: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Returns the running sales totals, folding in any transactions appended since the last call
+     */
+    public static SalesSummary.Totals getSalesSummary() throws IOException {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        return SALES_SUMMARY.update();
+    }
+    
+    /**
+     * Sales totals of the transactions dated in [from, to)
+     * Sealed segments entirely inside the range count with their stored totals and those
+     * entirely outside it are skipped; only the rest is read, block by block through the index.
+     * @param from earliest transaction date (inclusive), or null
+     * @param to latest transaction date (exclusive), or null
+     */
+    public static SalesSummary.Totals getSalesSummary(LocalDateTime from, LocalDateTime to) throws IOException {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        long fromMillis = from != null ? BinaryTransactionFormat.toEpochMillis(from) : Long.MIN_VALUE;
+        long toMillis = to != null ? BinaryTransactionFormat.toEpochMillis(to) : Long.MAX_VALUE;
+        List<SparseTransactionIndex.Block> blocks = TRANSACTION_INDEX.update();
+        
+        SalesSummary.Totals totals = new SalesSummary.Totals();
+        long activeStart = 0;
+        for (SegmentMetadata segment : SEGMENTS.sealedSegments()) {
+            if (segment.withinDates(fromMillis, toMillis)) {
+                totals.add(segment.totals);
+            } else if (segment.overlapsDates(fromMillis, toMillis)) {
+                addRange(blocks, segment.start, segment.end, fromMillis, toMillis, totals);
+            }
+            activeStart = segment.end;
+        }
+        addRange(blocks, activeStart, Long.MAX_VALUE, fromMillis, toMillis, totals);
+        totals.coveredOffset = TRANSACTION_LOG.size();
+        return totals;
+    }
+    
+    /**
+     * Adds the transactions stored between two offsets and dated in [fromMillis, toMillis) to the totals
+     */
+    private static void addRange(List<SparseTransactionIndex.Block> blocks, long start, long end,
+                                 long fromMillis, long toMillis, SalesSummary.Totals totals) throws IOException {
+        for (SparseTransactionIndex.Block block : blocks) {
+            if (block.end <= start || block.start >= end || !block.overlapsDates(fromMillis, toMillis)) {
+                continue;
+            }
+            readTransactionRange(Math.max(block.start, start), Math.min(block.end, end), (t, recordStart, recordEnd) -> {
+                long dateMillis = BinaryTransactionFormat.toEpochMillis(t.transactionDate);
+                if (dateMillis >= fromMillis && dateMillis < toMillis) {
+                    totals.add(t);
                 }
+            });
+        }
+    }
+    
+    /**
+     * Totals of all sealed segments, from their metadata; what the running totals start from
+     */
+    private static SalesSummary.Totals sealedSegmentTotals() throws IOException {
+        SalesSummary.Totals totals = new SalesSummary.Totals();
+        for (SegmentMetadata segment : SEGMENTS.sealedSegments()) {
+            totals.add(segment.totals);
+            totals.coveredOffset = segment.end;
+        }
+        return totals;
+    }
+    
+    /**
+     * The k best-selling products by units sold in the window ending now
+     * Counts are approximate once there are more products than tracked counters; each entry
+     * carries its possible overcount (see TopProducts).
+     */
+    public static List<TopProducts.Entry> getTopProducts(TopProducts.Window window, int k) throws IOException {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        TOP_PRODUCTS.update();
+        return TOP_PRODUCTS.top(window, k, BinaryTransactionFormat.toEpochMillis(LocalDateTime.now()));
+    }
+    
+    /**
+     * Metadata of the sealed segments of the transaction file, oldest first
+     */
+    public static List<SegmentMetadata> getSealedSegments() throws IOException {
+        return SEGMENTS.sealedSegments();
+    }
+    
+    /**
+     * Recomputes the persisted sales totals from a full scan of the transaction file
+     */
+    public static SalesSummary.Totals rebuildSalesSummary() throws IOException {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        return SALES_SUMMARY.rebuild();
+    }
+    
+    /**
+     * Returns the sales rollup buckets of the given width that start in [from, to)
+     */
+    public static List<SalesRollups.Bucket> getSalesTimeseries(SalesRollups.Granularity granularity,
+                                                               LocalDateTime from, LocalDateTime to) throws IOException {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        return SALES_ROLLUPS.query(granularity, from, to);
+    }
+    
+    /**
+     * Recomputes the minute, hour and day rollups from a full scan of the transaction file
+     */
+    public static void rebuildSalesRollups() throws IOException {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        SALES_ROLLUPS.rebuild();
+    }
+    
+    /**
+     * Queues a transaction for the group-commit journal
+     * The returned future completes once the transaction and its line items are durable
+     */
+    public static CompletableFuture<Void> saveTransactionAsync(SimpleTransaction transaction) {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+            return JOURNAL.append(new byte[0], BinaryTransactionFormat.encode(transaction));
+        }
+        return JOURNAL.append(formatLineItemLines(transaction).getBytes(StandardCharsets.UTF_8),
+                              formatTransactionLine(transaction).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Queues several transactions as a single journal record, so the whole batch goes to disk
+     * in one append; the returned future completes once all of them are durable
+     */
+    public static CompletableFuture<Void> saveTransactionsAsync(List<SimpleTransaction> transactions) {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+            ByteArrayOutputStream records = new ByteArrayOutputStream(transactions.size() * 160);
+            for (SimpleTransaction transaction : transactions) {
+                records.writeBytes(BinaryTransactionFormat.encode(transaction));
             }
-            
-            System.out.println("Transaction saved to file with ID: " + transaction.transactionId);
-            
+            return JOURNAL.append(new byte[0], records.toByteArray());
+        }
+        StringBuilder lineItemLines = new StringBuilder(transactions.size() * 128);
+        StringBuilder transactionLines = new StringBuilder(transactions.size() * 128);
+        for (SimpleTransaction transaction : transactions) {
+            lineItemLines.append(formatLineItemLines(transaction));
+            transactionLines.append(formatTransactionLine(transaction));
+        }
+        return JOURNAL.append(lineItemLines.toString().getBytes(StandardCharsets.UTF_8),
+                              transactionLines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Formats a transaction as one pipe-delimited line of transactions.txt
+     */
+    static String formatTransactionLine(SimpleTransaction transaction) {
+        StringBuilder transactionLine = new StringBuilder(128);
+        transactionLine.append(transaction.transactionId).append('|')
+            .append(transaction.transactionDate.format(DATE_FORMATTER)).append('|');
+        Money.append(transactionLine, transaction.subtotalCents).append('|');
+        Money.append(transactionLine, transaction.taxRateBasisPoints).append('|');
+        Money.append(transactionLine, transaction.taxAmountCents).append('|');
+        Money.append(transactionLine, transaction.totalDueCents).append('|');
+        transactionLine.append(transaction.paymentMethod).append('|');
+        Money.append(transactionLine, transaction.amountPaidCents).append('|');
+        Money.append(transactionLine, transaction.changeAmountCents).append('|');
+        transactionLine.append(transaction.cardNumberMasked != null ? transaction.cardNumberMasked : "").append('|')
+            .append(transaction.cardHolderName != null ? transaction.cardHolderName : "").append('|')
+            .append(transaction.cardExpiry != null ? transaction.cardExpiry : "")
+            .append(LINE_SEPARATOR);
+        return transactionLine.toString();
+    }
+    
+    /**
+     * Formats the line items of a transaction as lines of line_items.txt
+     */
+    static String formatLineItemLines(SimpleTransaction transaction) {
+        StringBuilder lineItemLines = new StringBuilder();
+        if (transaction.lineItems != null) {
+            for (SimpleLineItem item : transaction.lineItems) {
+                lineItemLines.append(transaction.transactionId).append('|')
+                    .append(item.description).append('|')
+                    .append(item.quantity).append('|');
+                Money.append(lineItemLines, item.unitPriceCents).append('|');
+                Money.append(lineItemLines, item.lineTotalCents).append(LINE_SEPARATOR);
+            }
+        }
+        return lineItemLines.toString();
+    }
+    
+    /**
+     * Truncates a torn record left at the end of the binary file, once per process
+     */
+    private static synchronized void recoverBinaryFile() {
+        if (binaryFileRecovered) {
+            return;
+        }
+        try {
+            // Only the active segment can end in a torn record; sealed ones never change
+            BinaryTransactionFormat.truncateTornTail(BINARY_TRANSACTION_LOG.pathFor(BINARY_TRANSACTION_LOG.activeSequence()));
+            binaryFileRecovered = true;
         } catch (IOException e) {
-            System.err.println("Error saving transaction: " + e.getMessage());
+            System.err.println("Error checking " + BINARY_TRANSACTIONS_FILE + ": " + e.getMessage());
         }
     }
     
     /**
      * Loads all transactions from file
+     * The history is cached for the whole process and only newly appended records are read on
+     * later calls. The returned list and transactions are shared and must not be modified.
      */
     public static List<SimpleTransaction> loadAllTransactions() {
+        if (!BINARY_FORMAT && !MAPPED_READER) {
+            return loadTextTransactionsScanner();
+        }
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        try {
+            return CACHE.getTransactions();
+        } catch (NoSuchFileException e) {
+            System.out.println("No transactions file found. Starting fresh.");
+        } catch (Exception e) {
+            System.err.println("Error loading transactions: " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+    
+    /**
+     * Loads one page of transactions in file order, seeking through the sparse index
+     * Only the index blocks that can hold the cursor or the requested dates are read; with a
+     * method or product filter, only those holding a matching ID from the secondary indexes.
+     * @param afterId cursor: return transactions after the one with this ID, or null to start at the beginning
+     * @param from earliest transaction date (inclusive), or null
+     * @param to latest transaction date (exclusive), or null
+     * @param method payment method to match, or null for any
+     * @param product line item description to match (ignoring case), or null for any
+     * @throws IllegalArgumentException if no transaction has the cursor ID
+     */
+    public static TransactionPage loadTransactionPage(Integer afterId, LocalDateTime from, LocalDateTime to,
+                                                      String method, String product, int limit) throws IOException {
+        if (BINARY_FORMAT) {
+            recoverBinaryFile();
+        }
+        List<SparseTransactionIndex.Block> blocks = TRANSACTION_INDEX.update();
+        
+        long startOffset = 0;
+        if (afterId != null) {
+            startOffset = findRecordEnd(blocks, afterId);
+            if (startOffset < 0) {
+                throw new IllegalArgumentException("Unknown cursor: " + afterId);
+            }
+        }
+        long fromMillis = from != null ? BinaryTransactionFormat.toEpochMillis(from) : Long.MIN_VALUE;
+        long toMillis = to != null ? BinaryTransactionFormat.toEpochMillis(to) : Long.MAX_VALUE;
+        
+        // Sorted IDs passing the method and product filters, or null when there are none
+        int[] candidates = null;
+        if (method != null) {
+            candidates = METHOD_INDEX.lookup(method);
+        }
+        if (product != null) {
+            int[] withProduct = PRODUCT_INDEX.lookup(productKey(product));
+            candidates = candidates != null ? intersect(candidates, withProduct, lowestIdAfter(blocks, startOffset)) : withProduct;
+        }
+        int[] ids = candidates;
+        
+        // Collect one more than requested to learn whether another page follows
+        List<SimpleTransaction> matches = new ArrayList<>();
+        for (SparseTransactionIndex.Block block : blocks) {
+            if (block.end <= startOffset || !block.overlapsDates(fromMillis, toMillis)
+                    || (ids != null && !containsAny(ids, block.minId, block.maxId))) {
+                continue;
+            }
+            readTransactionRange(Math.max(block.start, startOffset), block.end, (t, start, end) -> {
+                long dateMillis = BinaryTransactionFormat.toEpochMillis(t.transactionDate);
+                if (matches.size() <= limit && dateMillis >= fromMillis && dateMillis < toMillis
+                        && (method == null || method.equals(t.paymentMethod))
+                        && (ids == null || Arrays.binarySearch(ids, t.transactionId) >= 0)) {
+                    matches.add(t);
+                }
+            });
+            if (matches.size() > limit) {
+                break;
+            }
+        }
+        
+        TransactionPage page = new TransactionPage();
+        if (matches.size() > limit) {
+            page.transactions = new ArrayList<>(matches.subList(0, limit));
+            page.nextCursor = page.transactions.get(limit - 1).transactionId;
+        } else {
+            page.transactions = matches;
+        }
+        if (!BINARY_FORMAT) {
+            attachLineItems(page.transactions);
+        }
+        return page;
+    }
+    
+    /**
+     * Index key of a product: its description, trimmed and in lower case
+     */
+    static String productKey(String description) {
+        return description != null ? description.trim().toLowerCase(Locale.ROOT) : null;
+    }
+    
+    /**
+     * Lowest ID in the blocks that hold records past the offset
+     * Pages run in file order, which IDs only mostly follow, so the cursor bounds the IDs left
+     * through the blocks after it rather than through its own ID.
+     */
+    private static int lowestIdAfter(List<SparseTransactionIndex.Block> blocks, long offset) {
+        int lowest = Integer.MAX_VALUE;
+        for (SparseTransactionIndex.Block block : blocks) {
+            if (block.end > offset) {
+                lowest = Math.min(lowest, block.minId);
+            }
+        }
+        return lowest;
+    }
+    
+    /**
+     * IDs from fromId up present in both sorted arrays; binary search skips the ones below
+     */
+    private static int[] intersect(int[] a, int[] b, int fromId) {
+        int i = lowerBound(a, fromId);
+        int j = lowerBound(b, fromId);
+        int[] both = new int[Math.min(a.length - i, b.length - j)];
+        int n = 0;
+        for (; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                both[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, n);
+    }
+    
+    /**
+     * Index of the first ID not below the given one in the sorted array
+     */
+    private static int lowerBound(int[] ids, int id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? i : -i - 1;
+    }
+    
+    /**
+     * Whether the sorted array holds any ID in [minId, maxId]
+     */
+    private static boolean containsAny(int[] ids, int minId, int maxId) {
+        int i = lowerBound(ids, minId);
+        return i < ids.length && ids[i] <= maxId;
+    }
+    
+    /**
+     * Finds the end offset of the first record with the given ID, or -1
+     */
+    private static long findRecordEnd(List<SparseTransactionIndex.Block> blocks, int transactionId) throws IOException {
+        long[] found = { -1 };
+        for (SparseTransactionIndex.Block block : blocks) {
+            if (!block.mayContainId(transactionId)) {
+                continue;
+            }
+            readTransactionRange(block.start, block.end, (t, start, end) -> {
+                if (found[0] < 0 && t.transactionId == transactionId) {
+                    found[0] = end;
+                }
+            });
+            if (found[0] >= 0) {
+                break;
+            }
+        }
+        return found[0];
+    }
+    
+    /**
+     * Fills in line items for the given transactions from the line item blocks that can hold their IDs
+     */
+    private static void attachLineItems(List<SimpleTransaction> transactions) throws IOException {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        TreeSet<Integer> ids = new TreeSet<>();
+        for (SimpleTransaction t : transactions) {
+            ids.add(t.transactionId);
+        }
+        Map<Integer, List<SimpleLineItem>> lineItemsById = new HashMap<>();
+        for (SparseTransactionIndex.Block block : LINE_ITEM_INDEX.update()) {
+            Integer candidate = ids.ceiling(block.minId);
+            if (candidate == null || candidate > block.maxId) {
+                continue;
+            }
+            LINE_ITEM_LOG.read(block.start, block.end, (segment, start, end) ->
+                MappedTransactionReader.readLineItems(segment.file, start, end, false, item -> {
+                    if (ids.contains(item.transactionId)) {
+                        lineItemsById.computeIfAbsent(item.transactionId, id -> new ArrayList<>()).add(item);
+                    }
+                }));
+        }
+        for (SimpleTransaction t : transactions) {
+            List<SimpleLineItem> lineItems = lineItemsById.get(t.transactionId);
+            if (lineItems != null) {
+                t.lineItems = lineItems;
+            }
+        }
+    }
+    
+    /**
+     * Reads the transaction records stored between two logical offsets of the active data file
+     */
+    private static long readTransactionRange(long start, long end, RecordSink<SimpleTransaction> sink) throws IOException {
+        return TRANSACTION_LOG.read(start, end, (segment, from, to) -> readTransactionSegment(segment, from, to, sink));
+    }
+    
+    /**
+     * Reads the transaction records between two offsets of one segment, reporting logical offsets
+     */
+    private static long readTransactionSegment(SegmentedFile.Segment segment, long start, long end,
+                                               RecordSink<SimpleTransaction> sink) throws IOException {
+        RecordSink<SimpleTransaction> logical = (t, recordStart, recordEnd) ->
+            sink.accept(t, segment.base + recordStart, segment.base + recordEnd);
+        if (BINARY_FORMAT) {
+            return BinaryTransactionFormat.readRecords(segment.file, start, end, logical);
+        }
+        return MappedTransactionReader.readTransactions(segment.file, start, end, false, logical);
+    }
+    
+    /**
+     * Loads all transactions from the binary record file
+     */
+    static List<SimpleTransaction> loadBinaryTransactions() {
         List<SimpleTransaction> transactions = new ArrayList<>();
+        recoverBinaryFile();
+        try {
+            BINARY_TRANSACTION_LOG.read(0, Long.MAX_VALUE, (segment, start, end) ->
+                BinaryTransactionFormat.readRecords(segment.file, start, end, (t, recordStart, recordEnd) -> transactions.add(t)));
+        } catch (IOException e) {
+            System.err.println("Error loading transactions: " + e.getMessage());
+        }
+        return transactions;
+    }
+    
+    /**
+     * Loads all transactions from the pipe-delimited text files
+     */
+    static List<SimpleTransaction> loadTextTransactions() {
+        if (MAPPED_READER && LOAD_THREADS > 1) {
+            return loadTextTransactionsParallel(LOAD_THREADS);
+        }
+        return MAPPED_READER ? loadTextTransactionsMapped() : loadTextTransactionsScanner();
+    }
+    
+    /**
+     * Loads the text files by parsing them straight from memory-mapped buffers
+     */
+    static List<SimpleTransaction> loadTextTransactionsMapped() {
+        List<SimpleTransaction> transactions = new ArrayList<>();
+        Map<Integer, List<SimpleLineItem>> lineItemsById = new HashMap<>();
+        
+        // A final line without a line break is only read from the active segment
+        try {
+            LINE_ITEM_LOG.read(0, Long.MAX_VALUE, (segment, start, end) ->
+                MappedTransactionReader.readLineItems(segment.file, start, end, !segment.sealed,
+                    item -> lineItemsById.computeIfAbsent(item.transactionId, id -> new ArrayList<>()).add(item)));
+        } catch (Exception e) {
+            System.err.println("Error loading line items: " + e.getMessage());
+        }
         
-        try (Scanner scanner = new Scanner(new File(TRANSACTIONS_FILE))) {
+        try {
+            if (!TEXT_TRANSACTION_LOG.exists()) {
+                System.out.println("No transactions file found. Starting fresh.");
+                return transactions;
+            }
+            TEXT_TRANSACTION_LOG.read(0, Long.MAX_VALUE, (segment, start, end) ->
+                MappedTransactionReader.readTransactions(segment.file, start, end, !segment.sealed, transaction -> {
+                    List<SimpleLineItem> lineItems = lineItemsById.get(transaction.transactionId);
+                    if (lineItems != null) {
+                        transaction.lineItems = lineItems;
+                    }
+                    transactions.add(transaction);
+                }));
+        } catch (Exception e) {
+            System.err.println("Error loading transactions: " + e.getMessage());
+        }
+        
+        return transactions;
+    }
+    
+    /**
+     * Loads the text files with the memory-mapped reader on several threads
+     * The result is the same as loadTextTransactionsMapped.
+     */
+    static List<SimpleTransaction> loadTextTransactionsParallel(int threads) {
+        try {
+            if (!TEXT_TRANSACTION_LOG.exists()) {
+                System.out.println("No transactions file found. Starting fresh.");
+                return new ArrayList<>();
+            }
+            return new ParallelTransactionLoader(threads).load(TEXT_TRANSACTION_LOG, LINE_ITEM_LOG, true).transactions;
+        } catch (Exception e) {
+            System.err.println("Error loading transactions: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Loads the text files line by line with a Scanner
+     */
+    static List<SimpleTransaction> loadTextTransactionsScanner() {
+        List<SimpleTransaction> transactions = new ArrayList<>();
+        
+        // Read line items once and join them to transactions by ID
+        Map<Integer, List<SimpleLineItem>> lineItemsById = loadLineItemsByTransaction();
+        
+        try {
+            if (!TEXT_TRANSACTION_LOG.exists()) {
+                System.out.println("No transactions file found. Starting fresh.");
+                return transactions;
+            }
+            for (SegmentedFile.Segment segment : TEXT_TRANSACTION_LOG.segments()) {
+                readTransactionLines(segment.file, lineItemsById, transactions);
+            }
+        } catch (Exception e) {
+            System.err.println("Error loading transactions: " + e.getMessage());
+        }
+        
+        return transactions;
+    }
+    
+    private static void readTransactionLines(Path file, Map<Integer, List<SimpleLineItem>> lineItemsById,
+                                             List<SimpleTransaction> transactions) throws IOException {
+        try (Scanner scanner = new Scanner(file.toFile(), StandardCharsets.UTF_8)) {
+            long records = 0;
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
                 String[] parts = line.split("\\|");
@@ -102,13 +722,13 @@ public class SimpleFileBasedDataStore {
                     SimpleTransaction transaction = new SimpleTransaction();
                     transaction.transactionId = Integer.parseInt(parts[0]);
                     transaction.transactionDate = LocalDateTime.parse(parts[1], DATE_FORMATTER);
-                    transaction.subtotal = Double.parseDouble(parts[2]);
-                    transaction.taxRatePercent = Double.parseDouble(parts[3]);
-                    transaction.taxAmount = Double.parseDouble(parts[4]);
-                    transaction.totalDue = Double.parseDouble(parts[5]);
+                    transaction.subtotalCents = Money.parse(parts[2]);
+                    transaction.taxRateBasisPoints = Money.parse(parts[3]);
+                    transaction.taxAmountCents = Money.parse(parts[4]);
+                    transaction.totalDueCents = Money.parse(parts[5]);
                     transaction.paymentMethod = parts[6];
-                    transaction.amountPaid = Double.parseDouble(parts[7]);
-                    transaction.changeAmount = Double.parseDouble(parts[8]);
+                    transaction.amountPaidCents = Money.parse(parts[7]);
+                    transaction.changeAmountCents = Money.parse(parts[8]);
                     
                     if (parts.length > 9 && !parts[9].isEmpty()) {
                         transaction.cardNumberMasked = parts[9];
@@ -120,55 +740,93 @@ public class SimpleFileBasedDataStore {
                         transaction.cardExpiry = parts[11];
                     }
                     
-                    // Load line items for this transaction
-                    transaction.lineItems = loadLineItemsForTransaction(transaction.transactionId);
+                    // Attach line items for this transaction
+                    List<SimpleLineItem> lineItems = lineItemsById.get(transaction.transactionId);
+                    if (lineItems != null) {
+                        transaction.lineItems = lineItems;
+                    }
                     
                     transactions.add(transaction);
+                    records++;
                 }
             }
+            StoreMetrics.TRANSACTIONS_LOADED.add(records);
+            StoreMetrics.TRANSACTION_BYTES_SCANNED.add(Files.size(file));
         } catch (FileNotFoundException e) {
-            System.out.println("No transactions file found. Starting fresh.");
-        } catch (Exception e) {
-            System.err.println("Error loading transactions: " + e.getMessage());
+            // Segment 0 is never created when the first transaction starts a new segment
         }
-        
-        return transactions;
     }
     
     /**
-     * Loads line items for a specific transaction
+     * Loads all line items in a single pass, grouped by transaction ID in file order
      */
-    private static List<SimpleLineItem> loadLineItemsForTransaction(int transactionId) {
-        List<SimpleLineItem> lineItems = new ArrayList<>();
+    private static Map<Integer, List<SimpleLineItem>> loadLineItemsByTransaction() {
+        Map<Integer, List<SimpleLineItem>> lineItemsById = new HashMap<>();
         
-        try (Scanner scanner = new Scanner(new File(LINE_ITEMS_FILE))) {
+        for (SegmentedFile.Segment segment : segmentsOf(LINE_ITEM_LOG)) {
+            readLineItemLines(segment.file, lineItemsById);
+        }
+        return lineItemsById;
+    }
+    
+    private static void readLineItemLines(Path file, Map<Integer, List<SimpleLineItem>> lineItemsById) {
+        try (Scanner scanner = new Scanner(file.toFile(), StandardCharsets.UTF_8)) {
+            long records = 0;
             while (scanner.hasNextLine()) {
                 String line = scanner.nextLine();
                 String[] parts = line.split("\\|");
                 
-                if (parts.length >= 5 && Integer.parseInt(parts[0]) == transactionId) {
+                if (parts.length >= 5) {
                     SimpleLineItem item = new SimpleLineItem();
-                    item.transactionId = transactionId;
+                    item.transactionId = Integer.parseInt(parts[0]);
                     item.description = parts[1];
                     item.quantity = Integer.parseInt(parts[2]);
-                    item.unitPrice = Double.parseDouble(parts[3]);
-                    item.lineTotal = Double.parseDouble(parts[4]);
-                    lineItems.add(item);
+                    item.unitPriceCents = Money.parse(parts[3]);
+                    item.lineTotalCents = Money.parse(parts[4]);
+                    lineItemsById.computeIfAbsent(item.transactionId, id -> new ArrayList<>()).add(item);
+                    records++;
                 }
             }
+            StoreMetrics.LINE_ITEMS_LOADED.add(records);
+            StoreMetrics.LINE_ITEM_BYTES_SCANNED.add(Files.size(file));
         } catch (FileNotFoundException e) {
-            // No line items file found, return empty list
+            // No line items in this segment
         } catch (Exception e) {
             System.err.println("Error loading line items: " + e.getMessage());
         }
-        
-        return lineItems;
+    }
+    
+    private static List<SegmentedFile.Segment> segmentsOf(SegmentedFile file) {
+        try {
+            return file.segments();
+        } catch (IOException e) {
+            System.err.println("Error listing segments of " + file.getFirstFile() + ": " + e.getMessage());
+            return List.of();
+        }
     }
     
     /**
      * Gets the next transaction ID
+     * IDs come from a block leased out of the shared sequence file, so they are unique
+     * across processes but may skip numbers left unused by a process that exited
+     * @throws IOException if the sequence file cannot be read or written; there is no fallback,
+     *         since IDs guessed from the data files could overlap another process's block
+     */
+    public static int getNextTransactionId() throws IOException {
+        return allocateTransactionIds(1);
+    }
+    
+    /**
+     * Reserves count consecutive transaction IDs and returns the first one
+     */
+    public static int allocateTransactionIds(int count) throws IOException {
+        return ID_ALLOCATOR.allocateBlock(count);
+    }
+    
+    /**
+     * Finds the highest transaction ID in the data files
      */
-    public static int getNextTransactionId() {
+    private static int findMaxTransactionId() {
         List<SimpleTransaction> transactions = loadAllTransactions();
         int maxId = 0;
         for (SimpleTransaction t : transactions) {
@@ -176,7 +834,7 @@ public class SimpleFileBasedDataStore {
                 maxId = t.transactionId;
             }
         }
-        return maxId + 1;
+        return maxId;
     }
     
     /**
@@ -196,14 +854,14 @@ public class SimpleFileBasedDataStore {
         System.out.println("-".repeat(80));
         
         for (SimpleTransaction transaction : transactions) {
-            System.out.printf("%-5d %-20s $%-9.2f $%-9.2f $%-9.2f %-8s $%-9.2f%n",
+            System.out.printf("%-5d %-20s $%-9s $%-9s $%-9s %-8s $%-9s%n",
                 transaction.transactionId,
                 transaction.transactionDate.format(DATE_FORMATTER),
-                transaction.subtotal,
-                transaction.taxAmount,
-                transaction.totalDue,
+                Money.format(transaction.subtotalCents),
+                Money.format(transaction.taxAmountCents),
+                Money.format(transaction.totalDueCents),
                 transaction.paymentMethod,
-                transaction.amountPaid
+                Money.format(transaction.amountPaidCents)
             );
         }
         
@@ -214,44 +872,30 @@ public class SimpleFileBasedDataStore {
      * Displays transaction summary
      */
     public static void displayTransactionSummary() {
-        List<SimpleTransaction> transactions = loadAllTransactions();
+        SalesSummary.Totals summary;
+        try {
+            summary = getSalesSummary();
+        } catch (IOException e) {
+            System.err.println("Error loading sales summary: " + e.getMessage());
+            return;
+        }
         
-        if (transactions.isEmpty()) {
+        if (summary.transactionCount == 0) {
             System.out.println("No transactions found.");
             return;
         }
         
         System.out.println("\n--- TRANSACTION SUMMARY ---");
         
-        double totalSales = 0.0;
-        double totalTax = 0.0;
-        int cashCount = 0;
-        int cardCount = 0;
-        double cashTotal = 0.0;
-        double cardTotal = 0.0;
-        
-        for (SimpleTransaction transaction : transactions) {
-            totalSales += transaction.totalDue;
-            totalTax += transaction.taxAmount;
-            
-            if ("CASH".equals(transaction.paymentMethod)) {
-                cashCount++;
-                cashTotal += transaction.totalDue;
-            } else {
-                cardCount++;
-                cardTotal += transaction.totalDue;
-            }
-        }
-        
-        System.out.printf("Total Transactions: %d%n", transactions.size());
-        System.out.printf("Total Sales: $%.2f%n", totalSales);
-        System.out.printf("Total Tax Collected: $%.2f%n", totalTax);
-        System.out.printf("Average Transaction: $%.2f%n", totalSales / transactions.size());
+        System.out.printf("Total Transactions: %d%n", summary.transactionCount);
+        System.out.printf("Total Sales: $%s%n", Money.format(summary.totalSalesCents));
+        System.out.printf("Total Tax Collected: $%s%n", Money.format(summary.totalTaxCents));
+        System.out.printf("Average Transaction: $%s%n", Money.format(summary.averageTransactionCents()));
         System.out.println();
-        System.out.printf("Cash Transactions: %d (%.1f%%) - $%.2f%n", 
-            cashCount, (double)cashCount/transactions.size()*100, cashTotal);
-        System.out.printf("Card Transactions: %d (%.1f%%) - $%.2f%n", 
-            cardCount, (double)cardCount/transactions.size()*100, cardTotal);
+        System.out.printf("Cash Transactions: %d (%.1f%%) - $%s%n", 
+            summary.cashCount, (double)summary.cashCount/summary.transactionCount*100, Money.format(summary.cashTotalCents));
+        System.out.printf("Card Transactions: %d (%.1f%%) - $%s%n", 
+            summary.cardCount, (double)summary.cardCount/summary.transactionCount*100, Money.format(summary.cardTotalCents));
     }
 }
 
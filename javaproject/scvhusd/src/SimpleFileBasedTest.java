@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.time.LocalDateTime;
 
 /**
@@ -26,31 +27,36 @@ public class SimpleFileBasedTest {
         
         // Create a test transaction
         SimpleFileBasedDataStore.SimpleTransaction transaction = new SimpleFileBasedDataStore.SimpleTransaction();
-        transaction.transactionId = SimpleFileBasedDataStore.getNextTransactionId();
+        try {
+            transaction.transactionId = SimpleFileBasedDataStore.getNextTransactionId();
+        } catch (IOException e) {
+            System.out.println("✗ Could not allocate a transaction ID: " + e.getMessage());
+            return;
+        }
         transaction.transactionDate = LocalDateTime.now();
-        transaction.subtotal = 25.00;
-        transaction.taxRatePercent = 8.5;
-        transaction.taxAmount = 2.13;
-        transaction.totalDue = 27.13;
+        transaction.subtotalCents = 2500;
+        transaction.taxRateBasisPoints = 850;
+        transaction.taxAmountCents = 213;
+        transaction.totalDueCents = 2713;
         transaction.paymentMethod = "CASH";
-        transaction.amountPaid = 30.00;
-        transaction.changeAmount = 2.87;
+        transaction.amountPaidCents = 3000;
+        transaction.changeAmountCents = 287;
         
         // Create test line items
         SimpleFileBasedDataStore.SimpleLineItem item1 = new SimpleFileBasedDataStore.SimpleLineItem();
         item1.transactionId = transaction.transactionId;
         item1.description = "Coffee";
         item1.quantity = 2;
-        item1.unitPrice = 5.00;
-        item1.lineTotal = 10.00;
+        item1.unitPriceCents = 500;
+        item1.lineTotalCents = 1000;
         transaction.lineItems.add(item1);
         
         SimpleFileBasedDataStore.SimpleLineItem item2 = new SimpleFileBasedDataStore.SimpleLineItem();
         item2.transactionId = transaction.transactionId;
         item2.description = "Sandwich";
         item2.quantity = 1;
-        item2.unitPrice = 15.00;
-        item2.lineTotal = 15.00;
+        item2.unitPriceCents = 1500;
+        item2.lineTotalCents = 1500;
         transaction.lineItems.add(item2);
         
         // Save transaction
@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sparse on-disk index over a data file
+ * Holds one entry per block of records with the block's byte range, ID range and date range,
+ * so queries can seek straight to the blocks that may match instead of scanning the whole file.
+ * Byte ranges are logical offsets across all of the file's segments. The index lives next to
+ * the first segment as <data file>.idx and is extended incrementally; the last, still filling
+ * block is kept in memory only. The index starts with the identity of the data file it was
+ * built from (see DataFileIdentity) and is rebuilt when the file is rewritten.
+ */
+public class SparseTransactionIndex {
+
+    static final int RECORDS_PER_BLOCK = 256;
+    private static final int ENTRY_BYTES = 8 + 8 + 4 + 4 + 4 + 8 + 8;
+
+    /**
+     * One indexed block of consecutive records
+     */
+    public static final class Block {
+        public final long start;
+        public final long end;
+        public final int count;
+        public final int minId;
+        public final int maxId;
+        public final long minDateMillis;
+        public final long maxDateMillis;
+
+        Block(long start, long end, int count, int minId, int maxId, long minDateMillis, long maxDateMillis) {
+            this.start = start;
+            this.end = end;
+            this.count = count;
+            this.minId = minId;
+            this.maxId = maxId;
+            this.minDateMillis = minDateMillis;
+            this.maxDateMillis = maxDateMillis;
+        }
+
+        public boolean mayContainId(int id) {
+            return id >= minId && id <= maxId;
+        }
+
+        /**
+         * Whether any record in the block may fall in [fromMillis, toMillis)
+         */
+        public boolean overlapsDates(long fromMillis, long toMillis) {
+            return maxDateMillis >= fromMillis && minDateMillis < toMillis;
+        }
+    }
+
+    /**
+     * Reads record keys from the data file, starting at an offset
+     */
+    public interface KeyScanner {
+        /**
+         * @return the offset just past the last complete record
+         */
+        long scan(long fromOffset, KeyVisitor visitor) throws IOException;
+    }
+
+    /**
+     * Receives the key and byte range of one record
+     */
+    public interface KeyVisitor {
+        void visit(int id, long dateMillis, long start, long end);
+    }
+
+    /**
+     * Accumulates records into a block
+     */
+    private static final class BlockBuilder {
+        long start = -1;
+        long end;
+        int count;
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+
+        void add(int id, long dateMillis, long recordStart, long recordEnd) {
+            if (start < 0) {
+                start = recordStart;
+            }
+            end = recordEnd;
+            count++;
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+            minDate = Math.min(minDate, dateMillis);
+            maxDate = Math.max(maxDate, dateMillis);
+        }
+
+        Block build() {
+            return new Block(start, end, count, minId, maxId, minDate, maxDate);
+        }
+    }
+
+    private final SegmentedFile dataFile;
+    private final Path indexFile;
+    private final KeyScanner scanner;
+    private final List<Block> persisted = new ArrayList<>();
+    private Block tail;
+    private DataFileIdentity identity = DataFileIdentity.EMPTY;
+
+    public SparseTransactionIndex(SegmentedFile dataFile, KeyScanner scanner) {
+        this.dataFile = dataFile;
+        this.indexFile = dataFile.getFirstFile().resolveSibling(dataFile.getFirstFile().getFileName() + ".idx");
+        this.scanner = scanner;
+    }
+
+    /**
+     * Extends the index to cover everything appended to the data file and returns all blocks in file order
+     */
+    public synchronized List<Block> update() throws IOException {
+        if (!dataFile.exists()) {
+            persisted.clear();
+            tail = null;
+            identity = DataFileIdentity.EMPTY;
+            return new ArrayList<>();
+        }
+        if (!identity.matches(dataFile)) {
+            // Rewritten since we last looked: what we read no longer applies
+            persisted.clear();
+        }
+        DataFileIdentity seen = identity.refresh(dataFile);
+
+        try (FileChannel channel = FileChannel.open(indexFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                if (DataFileIdentity.checkHeader(channel, dataFile)) {
+                    // Built from other contents: rebuild from scratch
+                    persisted.clear();
+                }
+                loadNewEntries(channel);
+                if (!persisted.isEmpty() && persisted.get(persisted.size() - 1).end > dataFile.size()) {
+                    // The data file was truncated: rebuild from scratch
+                    persisted.clear();
+                    channel.truncate(DataFileIdentity.HEADER_BYTES);
+                }
+
+                long from = persisted.isEmpty() ? 0 : persisted.get(persisted.size() - 1).end;
+                BlockBuilder[] current = { new BlockBuilder() };
+                IOException[] writeFailure = new IOException[1];
+                scanner.scan(from, (id, dateMillis, start, end) -> {
+                    current[0].add(id, dateMillis, start, end);
+                    if (current[0].count == RECORDS_PER_BLOCK && writeFailure[0] == null) {
+                        Block block = current[0].build();
+                        try {
+                            writeEntry(channel, block);
+                            persisted.add(block);
+                        } catch (IOException e) {
+                            writeFailure[0] = e;
+                        }
+                        current[0] = new BlockBuilder();
+                    }
+                });
+                if (writeFailure[0] != null) {
+                    throw writeFailure[0];
+                }
+                tail = current[0].count > 0 ? current[0].build() : null;
+                identity = seen;
+            } finally {
+                lock.release();
+            }
+        }
+
+        List<Block> blocks = new ArrayList<>(persisted.size() + 1);
+        blocks.addAll(persisted);
+        if (tail != null) {
+            blocks.add(tail);
+        }
+        return blocks;
+    }
+
+    /**
+     * Reads entries written since we last looked, by this or another process
+     */
+    private void loadNewEntries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long torn = (size - DataFileIdentity.HEADER_BYTES) % ENTRY_BYTES;
+        if (torn != 0) {
+            // Torn entry from an interrupted write
+            size -= torn;
+            channel.truncate(size);
+        }
+        long known = DataFileIdentity.HEADER_BYTES + (long) persisted.size() * ENTRY_BYTES;
+        if (size < known) {
+            persisted.clear();
+            known = DataFileIdentity.HEADER_BYTES;
+        }
+        if (size == known) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - known));
+        while (buffer.hasRemaining() && channel.read(buffer, known + buffer.position()) > 0) {
+            // keep reading until full
+        }
+        buffer.flip();
+        while (buffer.remaining() >= ENTRY_BYTES) {
+            persisted.add(new Block(buffer.getLong(), buffer.getLong(), buffer.getInt(),
+                buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getLong()));
+        }
+    }
+
+    private static void writeEntry(FileChannel channel, Block block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_BYTES);
+        buffer.putLong(block.start).putLong(block.end).putInt(block.count)
+              .putInt(block.minId).putInt(block.maxId)
+              .putLong(block.minDateMillis).putLong(block.maxDateMillis);
+        buffer.flip();
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory copy of the web/ directory for the static file handler
+ * Every file is read once, with a gzip variant for text assets, a strong ETag and a
+ * Last-Modified date, so serving a request needs no disk access. An optional watcher
+ * reloads the directory when a file changes.
+ */
+public class StaticAssetCache {
+
+    /**
+     * One file ready to be served
+     */
+    public static final class Asset {
+        public final byte[] bytes;
+        public final byte[] gzipBytes; // null when gzip would not make it smaller
+        public final String etag;
+        public final String gzipEtag;
+        public final long lastModifiedSeconds;
+        public final String lastModified;
+        public final String contentType;
+
+        Asset(byte[] bytes, byte[] gzipBytes, String etag, long lastModifiedSeconds, String contentType) {
+            this.bytes = bytes;
+            this.gzipBytes = gzipBytes;
+            this.etag = "\"" + etag + "\"";
+            this.gzipEtag = "\"" + etag + "-gz\"";
+            this.lastModifiedSeconds = lastModifiedSeconds;
+            this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochSecond(lastModifiedSeconds).atOffset(ZoneOffset.UTC));
+            this.contentType = contentType;
+        }
+    }
+
+    private final Path baseDir;
+    private volatile Map<String, Asset> assets = new HashMap<>();
+
+    public StaticAssetCache(Path baseDir) {
+        this.baseDir = baseDir;
+        reload();
+    }
+
+    /**
+     * Returns the asset at a path relative to the base directory (using '/' separators), or null
+     */
+    public Asset get(String relativePath) {
+        return assets.get(relativePath);
+    }
+
+    /**
+     * Reads the whole directory again and swaps it in at once
+     */
+    public void reload() {
+        Map<String, Asset> loaded = new HashMap<>();
+        if (Files.isDirectory(baseDir)) {
+            try (Stream<Path> files = Files.walk(baseDir)) {
+                for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    String key = baseDir.relativize(file).toString().replace('\\', '/');
+                    loaded.put(key, load(file));
+                }
+            } catch (IOException e) {
+                System.err.println("Error loading static files from " + baseDir + ": " + e.getMessage());
+                return;
+            }
+        }
+        assets = loaded;
+    }
+
+    /**
+     * Starts a daemon thread that reloads the cache whenever something in the directory changes
+     */
+    public void watch() {
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            try (Stream<Path> dirs = Files.walk(baseDir)) {
+                for (Path dir : dirs.filter(Files::isDirectory).collect(Collectors.toList())) {
+                    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not watch " + baseDir + " for changes: " + e.getMessage());
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    key.pollEvents();
+                    key.reset();
+                    reload();
+                    System.out.println("Reloaded static files from " + baseDir);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // stop watching
+            }
+        }, "static-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static Asset load(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        String contentType = EcommerceServer.guessContentType(file.getFileName().toString());
+        byte[] gzipBytes = isCompressible(contentType) ? gzip(bytes) : null;
+        if (gzipBytes != null && gzipBytes.length >= bytes.length) {
+            gzipBytes = null;
+        }
+        long lastModifiedSeconds = Files.getLastModifiedTime(file).toMillis() / 1000;
+        return new Asset(bytes, gzipBytes, sha256Prefix(bytes), lastModifiedSeconds, contentType);
+    }
+
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || List.of("application/javascript", "application/json", "image/svg+xml")
+            .contains(contentType.toLowerCase(Locale.ROOT));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(bytes);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String sha256Prefix(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
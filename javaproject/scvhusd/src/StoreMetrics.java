@@ -0,0 +1,33 @@
+/**
+ * The store's metrics, registered with the default MetricsRegistry
+ * Kept apart from SimpleFileBasedDataStore so that recording from the readers and the journal
+ * does not load the store itself.
+ */
+final class StoreMetrics {
+
+    static final MetricsRegistry.Histogram APPEND_LATENCY = MetricsRegistry.getDefault().histogram(
+        "store_append_duration_seconds",
+        "Time from queueing a record in the journal until it was written and forced as store.fsync requires");
+    static final MetricsRegistry.Histogram FSYNC_LATENCY = MetricsRegistry.getDefault().histogram(
+        "store_fsync_duration_seconds", "Time taken by each force of a data file to disk");
+
+    static final MetricsRegistry.Counter TRANSACTIONS_LOADED = recordsLoaded("transactions.txt");
+    static final MetricsRegistry.Counter TRANSACTION_BYTES_SCANNED = bytesScanned("transactions.txt");
+    static final MetricsRegistry.Counter LINE_ITEMS_LOADED = recordsLoaded("line_items.txt");
+    static final MetricsRegistry.Counter LINE_ITEM_BYTES_SCANNED = bytesScanned("line_items.txt");
+    static final MetricsRegistry.Counter BINARY_TRANSACTIONS_LOADED = recordsLoaded("transactions.dat");
+    static final MetricsRegistry.Counter BINARY_BYTES_SCANNED = bytesScanned("transactions.dat");
+
+    private StoreMetrics() {
+    }
+
+    private static MetricsRegistry.Counter recordsLoaded(String file) {
+        return MetricsRegistry.getDefault().counter("store_records_loaded_total",
+            "Records parsed from the data files, for loads, pages and index updates alike", "file", file);
+    }
+
+    private static MetricsRegistry.Counter bytesScanned(String file) {
+        return MetricsRegistry.getDefault().counter("store_bytes_scanned_total",
+            "Bytes of the data files read through by parsers", "file", file);
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Compares load throughput of the Scanner-based and memory-mapped text readers
+ * Usage: java -Dstore.dir=DIR StoreReadBenchmark [transactions] [iterations]
+ * Synthetic data is generated into the data directory when it has no transactions file yet.
+ */
+public class StoreReadBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int transactionCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        if (!Files.exists(SimpleFileBasedDataStore.TRANSACTIONS_FILE)) {
+            System.out.println("Generating " + transactionCount + " transactions...");
+            SyntheticDataGenerator.generate(transactionCount);
+        }
+        System.out.printf("Data: %s (%,d bytes) and %s (%,d bytes)%n",
+            SimpleFileBasedDataStore.TRANSACTIONS_FILE, Files.size(SimpleFileBasedDataStore.TRANSACTIONS_FILE),
+            SimpleFileBasedDataStore.LINE_ITEMS_FILE, Files.size(SimpleFileBasedDataStore.LINE_ITEMS_FILE));
+
+        // Warm up both paths before measuring
+        SimpleFileBasedDataStore.loadTextTransactionsScanner();
+        SimpleFileBasedDataStore.loadTextTransactionsMapped();
+
+        double scannerRate = measure("Scanner", iterations, true);
+        double mappedRate = measure("Mapped ", iterations, false);
+        System.out.printf("Speed-up: %.1fx%n", mappedRate / scannerRate);
+    }
+
+    private static double measure(String label, int iterations, boolean scanner) {
+        long best = Long.MAX_VALUE;
+        long records = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            List<SimpleFileBasedDataStore.SimpleTransaction> transactions = scanner
+                ? SimpleFileBasedDataStore.loadTextTransactionsScanner()
+                : SimpleFileBasedDataStore.loadTextTransactionsMapped();
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            records = transactions.size();
+            for (SimpleFileBasedDataStore.SimpleTransaction t : transactions) {
+                records += t.lineItems.size();
+            }
+        }
+        double rate = records / (best / 1e9);
+        System.out.printf("%s: %,d records in %,d ms (best of %d) = %,.0f records/s%n",
+            label, records, best / 1_000_000, iterations, rate);
+        return rate;
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Writes a reproducible synthetic transaction history for benchmarks
+ * The same seed always gives the same files: six catalog products, one to three line items per
+ * transaction, half cash and half card, timestamps a few seconds to two minutes apart.
+ * Usage: java -Dstore.dir=DIR SyntheticDataGenerator [transactions]
+ * An average transaction takes about 155 bytes over both files, so 20,000,000 give about 3 GB.
+ */
+public class SyntheticDataGenerator {
+
+    /**
+     * Replaces the data directory's history with transactions 1 to transactionCount
+     */
+    public static void generate(int transactionCount) throws IOException {
+        generate(SimpleFileBasedDataStore.DATA_DIR, transactionCount);
+    }
+
+    /**
+     * Writes transactions.txt and line_items.txt with transactions 1 to transactionCount into any directory
+     * Whatever the store kept for an earlier history there (segments, index and aggregate sidecars,
+     * the ID sequence and the idempotency log) is deleted first, so none of it outlives the data.
+     */
+    public static void generate(Path dataDir, int transactionCount) throws IOException {
+        String[] names = { "Classic T-Shirt", "Hoodie", "Sneakers", "Backpack", "Wireless Earbuds", "Notebook" };
+        long[] prices = { 1499, 2999, 5999, 3499, 4999, 749 };
+        Random random = new Random(42);
+        LocalDateTime date = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
+
+        Files.createDirectories(dataDir);
+        deleteStoreFiles(dataDir);
+        Path transactionsFile = dataDir.resolve(SimpleFileBasedDataStore.TRANSACTIONS_FILE.getFileName());
+        Path lineItemsFile = dataDir.resolve(SimpleFileBasedDataStore.LINE_ITEMS_FILE.getFileName());
+        try (BufferedWriter transactions = Files.newBufferedWriter(transactionsFile, StandardCharsets.UTF_8);
+             BufferedWriter lineItems = Files.newBufferedWriter(lineItemsFile, StandardCharsets.UTF_8)) {
+            for (int id = 1; id <= transactionCount; id++) {
+                SimpleFileBasedDataStore.SimpleTransaction t = new SimpleFileBasedDataStore.SimpleTransaction();
+                t.transactionId = id;
+                date = date.plusSeconds(1 + random.nextInt(120));
+                t.transactionDate = date;
+                int items = 1 + random.nextInt(3);
+                for (int i = 0; i < items; i++) {
+                    int p = random.nextInt(names.length);
+                    SimpleFileBasedDataStore.SimpleLineItem item = new SimpleFileBasedDataStore.SimpleLineItem();
+                    item.transactionId = id;
+                    item.description = names[p];
+                    item.quantity = 1 + random.nextInt(4);
+                    item.unitPriceCents = prices[p];
+                    item.lineTotalCents = Money.times(item.unitPriceCents, item.quantity);
+                    t.subtotalCents += item.lineTotalCents;
+                    t.lineItems.add(item);
+                }
+                t.taxRateBasisPoints = 850;
+                t.taxAmountCents = Money.tax(t.subtotalCents, t.taxRateBasisPoints);
+                t.totalDueCents = t.subtotalCents + t.taxAmountCents;
+                if (random.nextBoolean()) {
+                    t.paymentMethod = "CASH";
+                    t.amountPaidCents = (t.totalDueCents + 99) / 100 * 100;
+                    t.changeAmountCents = t.amountPaidCents - t.totalDueCents;
+                } else {
+                    t.paymentMethod = "CARD";
+                    t.amountPaidCents = t.totalDueCents;
+                    t.cardNumberMasked = "****-****-****-" + (1000 + random.nextInt(9000));
+                    t.cardHolderName = "Customer " + random.nextInt(10_000);
+                    t.cardExpiry = "12/29";
+                }
+                lineItems.write(SimpleFileBasedDataStore.formatLineItemLines(t));
+                transactions.write(SimpleFileBasedDataStore.formatTransactionLine(t));
+            }
+        }
+    }
+
+    /**
+     * Deletes the data files, everything derived from them and the segments directory
+     */
+    private static void deleteStoreFiles(Path dataDir) throws IOException {
+        String[] dataFiles = {
+            SimpleFileBasedDataStore.TRANSACTIONS_FILE.getFileName().toString(),
+            SimpleFileBasedDataStore.LINE_ITEMS_FILE.getFileName().toString(),
+            SimpleFileBasedDataStore.BINARY_TRANSACTIONS_FILE.getFileName().toString()
+        };
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                for (String dataFile : dataFiles) {
+                    // The data file itself and its sidecars: .idx, .postings, .summary, .rollups, ...
+                    if (name.equals(dataFile) || name.startsWith(dataFile + ".")) {
+                        Files.delete(file);
+                        break;
+                    }
+                }
+            }
+        }
+        Files.deleteIfExists(dataDir.resolve(SimpleFileBasedDataStore.SEQUENCE_FILE.getFileName()));
+        Files.deleteIfExists(dataDir.resolve(SimpleFileBasedDataStore.IDEMPOTENCY_KEY_LOG_FILE.getFileName()));
+        Path segments = dataDir.resolve(SimpleFileBasedDataStore.SEGMENT_DIR.getFileName());
+        if (Files.isDirectory(segments)) {
+            try (Stream<Path> paths = Files.walk(segments)) {
+                for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int transactionCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long start = System.nanoTime();
+        generate(transactionCount);
+        System.out.printf("Wrote %,d transactions to %s and %s (%,d + %,d bytes) in %,d ms%n", transactionCount,
+            SimpleFileBasedDataStore.TRANSACTIONS_FILE, SimpleFileBasedDataStore.LINE_ITEMS_FILE,
+            Files.size(SimpleFileBasedDataStore.TRANSACTIONS_FILE), Files.size(SimpleFileBasedDataStore.LINE_ITEMS_FILE),
+            (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,454 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Best-selling products by units sold, tracked in bounded memory
+ * Uses the Space-Saving algorithm: at most `capacity` counters are kept and a product without
+ * one takes over the smallest, inheriting its count as possible overcount (error). Any product
+ * that sold more than total/capacity units is guaranteed a counter, and no count is more than
+ * its error above the true count. One summary covers all history; the 1h and 1d windows keep
+ * a ring of summaries per 5 minutes / 1 hour of transaction time, plus one summary merged
+ * from the live ones that is rebuilt when the window moves to a new bucket and added to in
+ * between. Like SalesRollups, the tracker remembers the offsets it has read up to and only
+ * tails what was appended since, a bounded window at a time, so the history is never held in
+ * memory. Products are keyed like the product index: description trimmed and in lower case.
+ * Usage: java TopProducts [k]   compares the tracked ranking with an exact recount
+ */
+public class TopProducts {
+
+    public enum Window {
+        HOUR("1h", 5 * 60_000L, 12), DAY("1d", 3_600_000L, 24), ALL("all", 0, 0);
+
+        final String label;
+        final long bucketMillis;
+        final int buckets;
+
+        Window(String label, long bucketMillis, int buckets) {
+            this.label = label;
+            this.bucketMillis = bucketMillis;
+            this.buckets = buckets;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        public static Window parse(String value) {
+            String v = value.trim().toLowerCase(Locale.ROOT);
+            for (Window w : values()) {
+                if (w.label.equals(v)) {
+                    return w;
+                }
+            }
+            throw new IllegalArgumentException("Unknown window: " + value + " (expected 1h, 1d or all)");
+        }
+    }
+
+    /**
+     * One ranked product; the true count lies between count - error and count
+     */
+    public static final class Entry {
+        public final String product;
+        public final long count;
+        public final long error;
+
+        Entry(String product, long count, long error) {
+            this.product = product;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * One Space-Saving summary
+     */
+    static final class Summary {
+        private static final class Counter {
+            final String key;
+            long count;
+            long error;
+
+            Counter(String key, long count, long error) {
+                this.key = key;
+                this.count = count;
+                this.error = error;
+            }
+        }
+
+        private final int capacity;
+        // Most a product without a counter had sold when the summary was seeded
+        private final long floor;
+        private final Map<String, Counter> counters = new HashMap<>();
+        private final TreeSet<Counter> byCount = new TreeSet<>(
+            Comparator.<Counter>comparingLong(c -> c.count).thenComparing(c -> c.key));
+
+        Summary(int capacity) {
+            this(capacity, 0);
+        }
+
+        Summary(int capacity, long floor) {
+            this.capacity = capacity;
+            this.floor = floor;
+        }
+
+        void add(String key, long units) {
+            Counter counter = counters.get(key);
+            if (counter != null) {
+                byCount.remove(counter);
+                counter.count += units;
+            } else {
+                long base = floor;
+                if (counters.size() >= capacity) {
+                    Counter smallest = byCount.pollFirst();
+                    counters.remove(smallest.key);
+                    base = Math.max(base, smallest.count);
+                }
+                counter = new Counter(key, base + units, base);
+                counters.put(key, counter);
+            }
+            byCount.add(counter);
+        }
+
+        /**
+         * Adds a counter taken from other summaries; only while the summary is not full
+         */
+        private void seed(String key, long count, long error) {
+            Counter counter = new Counter(key, count, error);
+            counters.put(key, counter);
+            byCount.add(counter);
+        }
+
+        /**
+         * Most a product without a counter can have sold
+         */
+        long untrackedMax() {
+            return counters.size() < capacity ? floor : Math.max(floor, byCount.first().count);
+        }
+
+        List<Entry> top(int k) {
+            List<Entry> top = new ArrayList<>(Math.min(k, counters.size()));
+            Iterator<Counter> it = byCount.descendingIterator();
+            while (top.size() < k && it.hasNext()) {
+                Counter c = it.next();
+                top.add(new Entry(c.key, c.count, c.error));
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Summaries for consecutive time buckets, reused round-robin
+     */
+    private final class Ring {
+        final Window window;
+        final Summary[] summaries;
+        final long[] bucketIds;
+        // The live buckets merged for the window ending in bucket mergedNewest, or null
+        Summary merged;
+        long mergedNewest;
+
+        Ring(Window window) {
+            this.window = window;
+            this.summaries = new Summary[window.buckets];
+            this.bucketIds = new long[window.buckets];
+            Arrays.fill(bucketIds, Long.MIN_VALUE);
+        }
+
+        void add(long dateMillis, String key, long units) {
+            long bucket = Math.floorDiv(dateMillis, window.bucketMillis);
+            int slot = (int) Math.floorMod(bucket, (long) window.buckets);
+            if (bucketIds[slot] != bucket) {
+                if (bucketIds[slot] > bucket) {
+                    return; // older than anything the ring still holds
+                }
+                bucketIds[slot] = bucket;
+                summaries[slot] = new Summary(capacity);
+            }
+            summaries[slot].add(key, units);
+            if (merged != null && bucket <= mergedNewest && bucket > mergedNewest - window.buckets) {
+                merged.add(key, units);
+            }
+        }
+
+        List<Entry> top(int k, long nowMillis) {
+            long newest = Math.floorDiv(nowMillis, window.bucketMillis);
+            if (merged == null || mergedNewest != newest) {
+                merged = merge(newest);
+                mergedNewest = newest;
+            }
+            return merged.top(k);
+        }
+
+        /**
+         * Merges the buckets that overlap the window ending in the given bucket
+         * A product missing from a full summary may still have sold up to its smallest count
+         * there, so that adds to the merged error. The merged summary keeps the `capacity`
+         * highest counts; everything it drops or never saw counts as at most its floor.
+         */
+        private Summary merge(long newest) {
+            Map<String, long[]> merged = new HashMap<>(); // count, error, untrackedMax of the summaries it is in
+            long untracked = 0;
+            for (int slot = 0; slot < summaries.length; slot++) {
+                if (summaries[slot] == null || bucketIds[slot] > newest || bucketIds[slot] <= newest - window.buckets) {
+                    continue;
+                }
+                Summary summary = summaries[slot];
+                long slotUntracked = summary.untrackedMax();
+                untracked += slotUntracked;
+                for (Summary.Counter c : summary.counters.values()) {
+                    long[] totals = merged.computeIfAbsent(c.key, key -> new long[3]);
+                    totals[0] += c.count;
+                    totals[1] += c.error;
+                    totals[2] += slotUntracked;
+                }
+            }
+            PriorityQueue<Entry> best = new PriorityQueue<>(Comparator.comparingLong(e -> e.count));
+            for (Map.Entry<String, long[]> e : merged.entrySet()) {
+                long[] totals = e.getValue();
+                long missing = untracked - totals[2];
+                best.add(new Entry(e.getKey(), totals[0] + missing, totals[1] + missing));
+                if (best.size() > capacity) {
+                    best.poll();
+                }
+            }
+            Summary summary = new Summary(capacity, untracked);
+            for (Entry e : best) {
+                summary.seed(e.product, e.count, e.error);
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Reads records from a data file between two offsets
+     */
+    public interface RangeScanner<T> {
+        /**
+         * @param toOffset offset to stop at; a record running past it is left for the next call
+         * @return the offset just past the last complete record read
+         */
+        long scan(long fromOffset, long toOffset, SimpleFileBasedDataStore.RecordSink<T> sink) throws IOException;
+    }
+
+    static final Comparator<Entry> BY_COUNT_DESCENDING =
+        Comparator.<Entry>comparingLong(e -> -e.count).thenComparing(e -> e.product);
+
+    // Bytes of the transactions file read per step when matching rows to line items
+    private static final long WINDOW_BYTES = 1L << 20;
+
+    private final int capacity;
+    private final SegmentedFile transactionsFile;
+    private final RangeScanner<SimpleFileBasedDataStore.SimpleTransaction> transactionScanner;
+    private final SegmentedFile lineItemsFile;
+    private final RangeScanner<SimpleFileBasedDataStore.SimpleLineItem> lineItemScanner;
+    private Summary all;
+    private Ring hour;
+    private Ring day;
+    private long transactionsOffset;
+    private long lineItemsOffset;
+    private DataFileIdentity transactionsIdentity;
+    private DataFileIdentity lineItemsIdentity;
+    // The transaction whose line items were read last, which may continue in the next window
+    private int lastTransactionId;
+    private long lastDateMillis;
+
+    /**
+     * @param capacity counters per summary; more counters give smaller errors
+     * @param lineItemsFile separate line items file, or null when transaction records embed their line items
+     */
+    public TopProducts(int capacity, SegmentedFile transactionsFile,
+                       RangeScanner<SimpleFileBasedDataStore.SimpleTransaction> transactionScanner,
+                       SegmentedFile lineItemsFile, RangeScanner<SimpleFileBasedDataStore.SimpleLineItem> lineItemScanner) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.transactionsFile = transactionsFile;
+        this.transactionScanner = transactionScanner;
+        this.lineItemsFile = lineItemsFile;
+        this.lineItemScanner = lineItemScanner;
+        reset();
+    }
+
+    private void reset() {
+        all = new Summary(capacity);
+        hour = new Ring(Window.HOUR);
+        day = new Ring(Window.DAY);
+        transactionsOffset = 0;
+        lineItemsOffset = 0;
+        transactionsIdentity = DataFileIdentity.EMPTY;
+        lineItemsIdentity = DataFileIdentity.EMPTY;
+        lastTransactionId = 0;
+    }
+
+    /**
+     * Counts the line items of transactions appended since the last call
+     * Only a transaction row makes its line items count. Both files list transactions in the
+     * same order, and the journal writes line items before the rows that reference them, so the
+     * two are read in step: a window of rows, then line items until every row in the window is
+     * matched. A line item whose row is not in the window is an orphan and is skipped, and a row
+     * passed over by a later row's line items has none. Memory stays at one window of row dates
+     * however much history the first call reads.
+     */
+    public synchronized void update() throws IOException {
+        if (!transactionsFile.exists()) {
+            reset();
+            return;
+        }
+        if (transactionsFile.size() < transactionsOffset || !transactionsIdentity.matches(transactionsFile)
+                || (lineItemsFile != null && (lineItemsFile.size() < lineItemsOffset || !lineItemsIdentity.matches(lineItemsFile)))) {
+            // A data file was rewritten or truncated: start over
+            reset();
+        }
+        transactionsIdentity = transactionsIdentity.refresh(transactionsFile);
+        if (lineItemsFile != null) {
+            lineItemsIdentity = lineItemsIdentity.refresh(lineItemsFile);
+        }
+        if (lineItemsFile == null) {
+            transactionsOffset = transactionScanner.scan(transactionsOffset, Long.MAX_VALUE, (t, start, end) ->
+                add(BinaryTransactionFormat.toEpochMillis(t.transactionDate), t.lineItems));
+            return;
+        }
+        long rowsEnd = transactionsFile.size();
+        while (transactionsOffset < rowsEnd) {
+            Map<Integer, Long> rowDates = new HashMap<>();
+            long reached = transactionScanner.scan(transactionsOffset, Math.min(transactionsOffset + WINDOW_BYTES, rowsEnd),
+                (t, start, end) -> rowDates.put(t.transactionId, BinaryTransactionFormat.toEpochMillis(t.transactionDate)));
+            if (reached == transactionsOffset) {
+                break; // only a partly written row is left
+            }
+            transactionsOffset = reached;
+            matchLineItems(rowDates);
+        }
+    }
+
+    /**
+     * Reads line items until each of the rows has been matched, stopping before the line items
+     * of a row not read yet
+     * Every line item of these rows is on disk, since the rows were written after them.
+     */
+    private void matchLineItems(Map<Integer, Long> rowDates) throws IOException {
+        // Rows not matched yet, in file order, so the rows a match passes over are the oldest ones
+        LinkedHashMap<Integer, Long> waiting = new LinkedHashMap<>(rowDates);
+        long itemsEnd = lineItemsFile.size();
+        long[] stop = {-1};
+        while (!waiting.isEmpty() && lineItemsOffset < itemsEnd) {
+            long reached = lineItemScanner.scan(lineItemsOffset, Math.min(lineItemsOffset + WINDOW_BYTES, itemsEnd),
+                (item, start, end) -> {
+                    if (stop[0] >= 0) {
+                        return;
+                    }
+                    if (item.transactionId != lastTransactionId) {
+                        Long dateMillis = rowDates.get(item.transactionId);
+                        if (dateMillis == null) {
+                            if (waiting.isEmpty()) {
+                                stop[0] = start; // belongs to a row in a later window
+                            }
+                            return;
+                        }
+                        passRowsUpTo(waiting, item.transactionId);
+                        lastTransactionId = item.transactionId;
+                        lastDateMillis = dateMillis;
+                    }
+                    add(lastDateMillis, List.of(item));
+                });
+            if (stop[0] >= 0) {
+                lineItemsOffset = stop[0];
+                return;
+            }
+            if (reached == lineItemsOffset) {
+                break;
+            }
+            lineItemsOffset = reached;
+        }
+        // Rows left over have no line items
+    }
+
+    /**
+     * Removes the row with the given ID from the waiting rows, with every row before it
+     * A row matched already (line items repeated for it later) leaves the others in place.
+     */
+    private static void passRowsUpTo(LinkedHashMap<Integer, Long> waiting, int transactionId) {
+        if (!waiting.containsKey(transactionId)) {
+            return;
+        }
+        Iterator<Integer> it = waiting.keySet().iterator();
+        while (it.hasNext() && it.next() != transactionId) {
+            it.remove();
+        }
+        waiting.remove(transactionId);
+    }
+
+    private void add(long dateMillis, List<SimpleFileBasedDataStore.SimpleLineItem> items) {
+        for (SimpleFileBasedDataStore.SimpleLineItem item : items) {
+            if (item.description == null || item.description.isBlank() || item.quantity <= 0) {
+                continue;
+            }
+            String product = SimpleFileBasedDataStore.productKey(item.description);
+            all.add(product, item.quantity);
+            hour.add(dateMillis, product, item.quantity);
+            day.add(dateMillis, product, item.quantity);
+        }
+    }
+
+    /**
+     * The k best-selling products in the window, most units first
+     * Either walks k counters; a window first merges its buckets again when it moves to a new one.
+     */
+    public synchronized List<Entry> top(Window window, int k, long nowMillis) {
+        switch (window) {
+            case HOUR:
+                return hour.top(k, nowMillis);
+            case DAY:
+                return day.top(k, nowMillis);
+            default:
+                return all.top(k);
+        }
+    }
+
+    /**
+     * Exact ranking from a full count of the given transactions
+     */
+    static List<Entry> exactTop(List<SimpleFileBasedDataStore.SimpleTransaction> transactions, int k) {
+        Map<String, Long> units = new HashMap<>();
+        for (SimpleFileBasedDataStore.SimpleTransaction t : transactions) {
+            for (SimpleFileBasedDataStore.SimpleLineItem item : t.lineItems) {
+                if (item.description != null && !item.description.isBlank() && item.quantity > 0) {
+                    units.merge(SimpleFileBasedDataStore.productKey(item.description), (long) item.quantity, Long::sum);
+                }
+            }
+        }
+        List<Entry> entries = new ArrayList<>(units.size());
+        for (Map.Entry<String, Long> e : units.entrySet()) {
+            entries.add(new Entry(e.getKey(), e.getValue(), 0));
+        }
+        entries.sort(BY_COUNT_DESCENDING);
+        return entries.subList(0, Math.min(k, entries.size()));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<SimpleFileBasedDataStore.SimpleTransaction> transactions = SimpleFileBasedDataStore.loadAllTransactions();
+        List<Entry> exact = exactTop(transactions, k);
+        List<Entry> tracked = SimpleFileBasedDataStore.getTopProducts(Window.ALL, k);
+        System.out.printf("%-4s %-30s %12s   %-30s %12s %10s%n", "#", "Exact", "Units", "Tracked", "Units", "Error");
+        for (int i = 0; i < Math.max(exact.size(), tracked.size()); i++) {
+            Entry e = i < exact.size() ? exact.get(i) : null;
+            Entry t = i < tracked.size() ? tracked.get(i) : null;
+            System.out.printf("%-4d %-30s %12s   %-30s %12s %10s%n", i + 1,
+                e != null ? e.product : "", e != null ? Long.toString(e.count) : "",
+                t != null ? t.product : "", t != null ? Long.toString(t.count) : "",
+                t != null ? Long.toString(t.error) : "");
+        }
+    }
+}
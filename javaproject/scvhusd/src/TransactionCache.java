@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide in-memory copy of the transaction history
+ * The history is loaded once; after that each refresh only parses the bytes appended since the
+ * last known (logical) offsets, whichever process wrote them and in whichever segment. Readers
+ * get an immutable snapshot (a prefix of an append-only array), so they never wait for each
+ * other or for the journal's appender thread.
+ */
+public class TransactionCache {
+
+    /**
+     * Transactions [0, size) of the array, in file order
+     */
+    private static final class Snapshot {
+        final SimpleFileBasedDataStore.SimpleTransaction[] transactions;
+        final int size;
+
+        Snapshot(SimpleFileBasedDataStore.SimpleTransaction[] transactions, int size) {
+            this.transactions = transactions;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Read-only list view of a snapshot
+     */
+    private static final class SnapshotList extends AbstractList<SimpleFileBasedDataStore.SimpleTransaction>
+            implements RandomAccess {
+        private final Snapshot snapshot;
+
+        SnapshotList(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public SimpleFileBasedDataStore.SimpleTransaction get(int index) {
+            if (index < 0 || index >= snapshot.size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + snapshot.size);
+            }
+            return snapshot.transactions[index];
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size;
+        }
+    }
+
+    private final SegmentedFile transactionsFile;
+    private final SegmentedFile lineItemsFile; // null for the binary format
+    private final int loadThreads;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile Snapshot snapshot = new Snapshot(new SimpleFileBasedDataStore.SimpleTransaction[0], 0);
+    private boolean loaded;
+
+    // Refresh state, only touched while holding refreshLock
+    private SimpleFileBasedDataStore.SimpleTransaction[] transactions = new SimpleFileBasedDataStore.SimpleTransaction[1024];
+    private int size;
+    private final Map<Integer, Integer> positionById = new HashMap<>();
+    private final Map<Integer, List<SimpleFileBasedDataStore.SimpleLineItem>> pendingLineItems = new HashMap<>();
+    private long transactionsOffset;
+    private long lineItemsOffset;
+    private DataFileIdentity transactionsIdentity = DataFileIdentity.EMPTY;
+    private DataFileIdentity lineItemsIdentity = DataFileIdentity.EMPTY;
+
+    /**
+     * @param lineItemsFile the separate line items file, or null when records embed their line items
+     * @param loadThreads threads parsing the text files on the first load (see ParallelTransactionLoader)
+     */
+    public TransactionCache(SegmentedFile transactionsFile, SegmentedFile lineItemsFile, int loadThreads) {
+        this.transactionsFile = transactionsFile;
+        this.lineItemsFile = lineItemsFile;
+        this.loadThreads = loadThreads;
+    }
+
+    /**
+     * Brings the cache up to date with the files and returns a read-only view of the history
+     * The returned transactions are shared and must not be modified.
+     */
+    public List<SimpleFileBasedDataStore.SimpleTransaction> getTransactions() throws IOException {
+        refresh();
+        return new SnapshotList(snapshot);
+    }
+
+    /**
+     * Parses whatever was appended to the files since the last refresh
+     */
+    public void refresh() throws IOException {
+        refreshLock.lock();
+        try {
+            if (loaded && fileChanged()) {
+                // Rewritten or truncated underneath us: start over
+                clear();
+            }
+            if (!loaded && !transactionsFile.exists()) {
+                throw new NoSuchFileException(transactionsFile.getFirstFile().toString());
+            }
+            transactionsIdentity = transactionsIdentity.refresh(transactionsFile);
+            if (lineItemsFile != null) {
+                lineItemsIdentity = lineItemsIdentity.refresh(lineItemsFile);
+            }
+            if (!loaded && lineItemsFile != null && loadThreads > 1) {
+                ParallelTransactionLoader.Result result =
+                    new ParallelTransactionLoader(loadThreads).load(transactionsFile, lineItemsFile, false);
+                for (SimpleFileBasedDataStore.SimpleTransaction t : result.transactions) {
+                    add(t);
+                }
+                pendingLineItems.putAll(result.unmatchedLineItems());
+                transactionsOffset = result.transactionsEnd;
+                lineItemsOffset = result.lineItemsEnd;
+            } else if (lineItemsFile == null) {
+                transactionsOffset = transactionsFile.read(transactionsOffset, Long.MAX_VALUE, (segment, start, end) ->
+                    BinaryTransactionFormat.readRecords(segment.file, start, end, (t, s, e) -> add(t)));
+            } else {
+                // Line items are appended before their transaction rows, so every row present now
+                // has its items in place by the time the line items file is read below
+                long transactionsEnd = transactionsFile.size();
+                lineItemsOffset = lineItemsFile.read(lineItemsOffset, Long.MAX_VALUE, (segment, start, end) ->
+                    MappedTransactionReader.readLineItems(segment.file, start, end, false, this::addLineItem));
+                transactionsOffset = transactionsFile.read(transactionsOffset, transactionsEnd, (segment, start, end) ->
+                    MappedTransactionReader.readTransactions(segment.file, start, end, false, this::addWithPendingLineItems));
+            }
+            loaded = true;
+            if (size != snapshot.size || transactions != snapshot.transactions) {
+                snapshot = new Snapshot(transactions, size);
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private boolean fileChanged() throws IOException {
+        if (!transactionsFile.exists() || transactionsFile.size() < transactionsOffset
+                || !transactionsIdentity.matches(transactionsFile)) {
+            return true;
+        }
+        return lineItemsFile != null
+            && (lineItemsFile.size() < lineItemsOffset || !lineItemsIdentity.matches(lineItemsFile));
+    }
+
+    private void clear() {
+        transactions = new SimpleFileBasedDataStore.SimpleTransaction[1024];
+        size = 0;
+        positionById.clear();
+        pendingLineItems.clear();
+        transactionsOffset = 0;
+        lineItemsOffset = 0;
+        transactionsIdentity = DataFileIdentity.EMPTY;
+        lineItemsIdentity = DataFileIdentity.EMPTY;
+        loaded = false;
+    }
+
+    private void addLineItem(SimpleFileBasedDataStore.SimpleLineItem item) {
+        Integer position = positionById.get(item.transactionId);
+        if (position == null) {
+            pendingLineItems.computeIfAbsent(item.transactionId, id -> new ArrayList<>()).add(item);
+            return;
+        }
+        // Item for a transaction that is already published (written out of order by an older
+        // writer): publish a copy instead of changing what readers may be looking at. The slot
+        // may be in the array a snapshot shares, so that array is copied first (once per refresh).
+        if (transactions == snapshot.transactions) {
+            transactions = Arrays.copyOf(transactions, transactions.length);
+        }
+        SimpleFileBasedDataStore.SimpleTransaction copy = copyOf(transactions[position]);
+        copy.lineItems.add(item);
+        transactions[position] = copy;
+    }
+
+    private void addWithPendingLineItems(SimpleFileBasedDataStore.SimpleTransaction transaction) {
+        List<SimpleFileBasedDataStore.SimpleLineItem> lineItems = pendingLineItems.remove(transaction.transactionId);
+        if (lineItems != null) {
+            transaction.lineItems = lineItems;
+        } else {
+            // A repeated ID shares the items of the first row, as with a lookup by ID
+            Integer position = positionById.get(transaction.transactionId);
+            if (position != null) {
+                transaction.lineItems = transactions[position].lineItems;
+            }
+        }
+        add(transaction);
+    }
+
+    private void add(SimpleFileBasedDataStore.SimpleTransaction transaction) {
+        if (size == transactions.length) {
+            // Old snapshots keep the old array, so growing never disturbs readers
+            transactions = Arrays.copyOf(transactions, size * 2);
+        }
+        transactions[size] = transaction;
+        // The first row wins for duplicate IDs, as with a lookup by ID in file order
+        positionById.putIfAbsent(transaction.transactionId, size);
+        size++;
+    }
+
+    private static SimpleFileBasedDataStore.SimpleTransaction copyOf(SimpleFileBasedDataStore.SimpleTransaction t) {
+        SimpleFileBasedDataStore.SimpleTransaction copy = new SimpleFileBasedDataStore.SimpleTransaction();
+        copy.transactionId = t.transactionId;
+        copy.transactionDate = t.transactionDate;
+        copy.subtotalCents = t.subtotalCents;
+        copy.taxRateBasisPoints = t.taxRateBasisPoints;
+        copy.taxAmountCents = t.taxAmountCents;
+        copy.totalDueCents = t.totalDueCents;
+        copy.paymentMethod = t.paymentMethod;
+        copy.amountPaidCents = t.amountPaidCents;
+        copy.changeAmountCents = t.changeAmountCents;
+        copy.cardNumberMasked = t.cardNumberMasked;
+        copy.cardHolderName = t.cardHolderName;
+        copy.cardExpiry = t.cardExpiry;
+        copy.lineItems = new ArrayList<>(t.lineItems);
+        return copy;
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Converts the transaction history between the pipe-delimited text files
+ * and the binary record file, in the store's data directory
+ * Usage: java TransactionFileConverter to-binary | to-text
+ */
+public class TransactionFileConverter {
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            printUsage();
+            return;
+        }
+        try {
+            switch (args[0]) {
+                case "to-binary" -> toBinary();
+                case "to-text" -> toText();
+                default -> printUsage();
+            }
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java TransactionFileConverter to-binary | to-text");
+        System.out.println("  to-binary  " + SimpleFileBasedDataStore.TRANSACTIONS_FILE + " + "
+            + SimpleFileBasedDataStore.LINE_ITEMS_FILE + " -> " + SimpleFileBasedDataStore.BINARY_TRANSACTIONS_FILE);
+        System.out.println("  to-text    " + SimpleFileBasedDataStore.BINARY_TRANSACTIONS_FILE + " -> "
+            + SimpleFileBasedDataStore.TRANSACTIONS_FILE + " + " + SimpleFileBasedDataStore.LINE_ITEMS_FILE);
+        System.out.println("Run with -Dstore.format=binary afterwards to use the binary file.");
+    }
+
+    static void toBinary() throws IOException {
+        Path target = SimpleFileBasedDataStore.BINARY_TRANSACTIONS_FILE;
+        requireAbsentOrEmpty(target);
+
+        List<SimpleFileBasedDataStore.SimpleTransaction> transactions = SimpleFileBasedDataStore.loadTextTransactions();
+        try (FileOutputStream file = new FileOutputStream(target.toFile());
+             OutputStream out = new BufferedOutputStream(file, 1 << 16)) {
+            for (SimpleFileBasedDataStore.SimpleTransaction transaction : transactions) {
+                out.write(BinaryTransactionFormat.encode(transaction));
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        System.out.println("Wrote " + transactions.size() + " transactions to " + target);
+    }
+
+    static void toText() throws IOException {
+        Path transactionsTarget = SimpleFileBasedDataStore.TRANSACTIONS_FILE;
+        Path lineItemsTarget = SimpleFileBasedDataStore.LINE_ITEMS_FILE;
+        requireAbsentOrEmpty(transactionsTarget);
+        requireAbsentOrEmpty(lineItemsTarget);
+
+        // Reads every segment of the binary file; the text files are written as one segment
+        List<SimpleFileBasedDataStore.SimpleTransaction> transactions = SimpleFileBasedDataStore.loadBinaryTransactions();
+
+        try (FileOutputStream transactionsFile = new FileOutputStream(transactionsTarget.toFile());
+             FileOutputStream lineItemsFile = new FileOutputStream(lineItemsTarget.toFile());
+             OutputStream transactionsOut = new BufferedOutputStream(transactionsFile, 1 << 16);
+             OutputStream lineItemsOut = new BufferedOutputStream(lineItemsFile, 1 << 16)) {
+            for (SimpleFileBasedDataStore.SimpleTransaction transaction : transactions) {
+                lineItemsOut.write(SimpleFileBasedDataStore.formatLineItemLines(transaction).getBytes(StandardCharsets.UTF_8));
+                transactionsOut.write(SimpleFileBasedDataStore.formatTransactionLine(transaction).getBytes(StandardCharsets.UTF_8));
+            }
+            lineItemsOut.flush();
+            transactionsOut.flush();
+            lineItemsFile.getFD().sync();
+            transactionsFile.getFD().sync();
+        }
+        System.out.println("Wrote " + transactions.size() + " transactions to " + transactionsTarget + " and " + lineItemsTarget);
+    }
+
+    /**
+     * Refuses a target with data in any segment; sealed segments left over from an earlier
+     * history would otherwise be read in front of the converted one
+     */
+    private static void requireAbsentOrEmpty(Path file) throws IOException {
+        SegmentedFile target = new SegmentedFile(file, SimpleFileBasedDataStore.SEGMENT_DIR);
+        for (SegmentedFile.Segment segment : target.segments()) {
+            if (segment.size > 0) {
+                throw new IOException(segment.file + " already exists; move it aside before converting");
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Test that the converter refuses a target with stale data in a sealed segment
+ * Writes into store.dir, so run it in a scratch directory:
+ * java -Dstore.dir=DIR TransactionFileConverterTest
+ */
+public class TransactionFileConverterTest {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("=== Transaction File Converter Test ===");
+
+        testStaleBinarySegment();
+        testStaleLineItemsSegment();
+
+        System.out.println(failures == 0 ? "=== Test completed ===" : "=== " + failures + " check(s) failed ===");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void testStaleBinarySegment() throws IOException {
+        System.out.println("Testing to-binary with a stale sealed binary segment...");
+        Files.writeString(SimpleFileBasedDataStore.TRANSACTIONS_FILE,
+            "1|2025-01-01 10:00:00|5.0|8.25|0.41|5.41|CASH|10.0|4.59|||" + System.lineSeparator());
+        Files.writeString(SimpleFileBasedDataStore.LINE_ITEMS_FILE,
+            "1|Coffee|1|5.00|5.00" + System.lineSeparator());
+        Path stale = segment(SimpleFileBasedDataStore.BINARY_TRANSACTIONS_FILE, 1);
+        byte[] staleBytes = "stale records".getBytes(StandardCharsets.UTF_8);
+        Files.write(stale, staleBytes);
+
+        check(refused(TransactionFileConverter::toBinary), "conversion was refused");
+        check(!Files.exists(SimpleFileBasedDataStore.BINARY_TRANSACTIONS_FILE), "no binary file was written");
+        check(Arrays.equals(Files.readAllBytes(stale), staleBytes), "the stale segment is untouched");
+
+        Files.delete(stale);
+        Files.delete(SimpleFileBasedDataStore.TRANSACTIONS_FILE);
+        Files.delete(SimpleFileBasedDataStore.LINE_ITEMS_FILE);
+    }
+
+    private static void testStaleLineItemsSegment() throws IOException {
+        System.out.println("Testing to-text with a stale sealed line items segment...");
+        Path stale = segment(SimpleFileBasedDataStore.LINE_ITEMS_FILE, 2);
+        Files.writeString(stale, "7|Tea|1|3.00|3.00" + System.lineSeparator());
+
+        check(refused(TransactionFileConverter::toText), "conversion was refused");
+        check(!Files.exists(SimpleFileBasedDataStore.TRANSACTIONS_FILE), "no transactions file was written");
+
+        Files.delete(stale);
+    }
+
+    private interface Conversion {
+        void run() throws IOException;
+    }
+
+    private static boolean refused(Conversion conversion) {
+        try {
+            conversion.run();
+            return false;
+        } catch (IOException e) {
+            System.out.println("  " + e.getMessage());
+            return true;
+        }
+    }
+
+    private static Path segment(Path firstFile, int sequence) throws IOException {
+        Files.createDirectories(SimpleFileBasedDataStore.SEGMENT_DIR);
+        return new SegmentedFile(firstFile, SimpleFileBasedDataStore.SEGMENT_DIR).pathFor(sequence);
+    }
+
+    private static void check(boolean ok, String what) {
+        if (ok) {
+            System.out.println("✓ " + what);
+        } else {
+            System.out.println("✗ " + what);
+            failures++;
+        }
+    }
+}
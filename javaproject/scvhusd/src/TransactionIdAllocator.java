@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Hands out transaction IDs from a small sequence file shared by all processes
+ * Each process leases a block of IDs under a file lock and allocates from memory,
+ * so allocating an ID never touches the transaction data files.
+ * The file holds the value zero-padded to a fixed width plus its CRC32 ("0000012000 1a2b3c4d"),
+ * overwritten in place: a crash can leave it torn but never empty or shorter, and a torn value
+ * fails the checksum instead of being read as a smaller number.
+ */
+public class TransactionIdAllocator {
+
+    private static final int VALUE_DIGITS = 10;
+    private static final int RECORD_BYTES = VALUE_DIGITS + 1 + 8 + 1; // value, space, CRC, newline
+
+    private final Path sequenceFile;
+    private final int blockSize;
+    private final IntSupplier initialMaxId;
+
+    private int nextId;
+    private int leaseEnd; // exclusive
+
+    /**
+     * @param sequenceFile file holding the highest ID leased so far
+     * @param blockSize number of IDs leased per lock acquisition
+     * @param initialMaxId supplies the highest existing ID when the sequence file is first created
+     */
+    public TransactionIdAllocator(Path sequenceFile, int blockSize, IntSupplier initialMaxId) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.sequenceFile = sequenceFile;
+        this.blockSize = blockSize;
+        this.initialMaxId = initialMaxId;
+    }
+
+    /**
+     * Returns the next unused transaction ID, leasing a new block when the current one is spent
+     */
+    public int nextId() throws IOException {
+        return allocateBlock(1);
+    }
+
+    /**
+     * Reserves count consecutive unused IDs and returns the first one
+     * They come from the current lease when it has room; a request larger than the lease
+     * size is leased on its own, leaving the current lease in use.
+     */
+    public synchronized int allocateBlock(int count) throws IOException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Count must be positive: " + count);
+        }
+        if (leaseEnd - nextId < count) {
+            if (count > blockSize) {
+                return lease(count);
+            }
+            nextId = lease(blockSize);
+            leaseEnd = nextId + blockSize;
+        }
+        int first = nextId;
+        nextId += count;
+        return first;
+    }
+
+    /**
+     * Reserves count IDs in the sequence file and returns the first one
+     */
+    private int lease(int count) throws IOException {
+        try (FileChannel channel = FileChannel.open(sequenceFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                int highestLeased = readHighestLeased(channel);
+                if (highestLeased < 0) {
+                    // First use: continue after whatever is already in the data files
+                    highestLeased = initialMaxId.getAsInt();
+                }
+
+                int newHighest = Math.addExact(highestLeased, count);
+                // Overwrite in place, then drop anything left of a longer legacy value
+                ByteBuffer record = ByteBuffer.wrap(format(newHighest));
+                while (record.hasRemaining()) {
+                    channel.write(record, record.position());
+                }
+                channel.truncate(RECORD_BYTES);
+                channel.force(true);
+
+                return highestLeased + 1;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    static byte[] format(int highestLeased) {
+        String value = String.format("%0" + VALUE_DIGITS + "d", highestLeased);
+        return String.format("%s %08x\n", value, crc(value)).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the value in a sequence file's contents, or -1 for an empty file
+     * @throws IOException if the contents are torn or damaged
+     */
+    static int parse(String contents) throws IOException {
+        String text = contents.trim();
+        if (text.isEmpty()) {
+            return -1;
+        }
+        int space = text.indexOf(' ');
+        try {
+            if (space < 0) {
+                // Plain number written before the checksum was added; a zero-padded prefix is a torn record
+                if (text.length() > 1 && text.charAt(0) == '0') {
+                    throw new NumberFormatException("leading zero");
+                }
+                return Integer.parseInt(text);
+            }
+            String value = text.substring(0, space);
+            if (value.length() == VALUE_DIGITS && Long.parseLong(text.substring(space + 1), 16) == crc(value)) {
+                return Integer.parseInt(value);
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IOException("Corrupt sequence file: '" + text + "'; restore it, or delete it to reseed from the data files"
+            + " once no other process is running");
+    }
+
+    private static int readHighestLeased(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, 64));
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            // keep reading until full or end of file
+        }
+        return parse(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+    }
+
+    private static long crc(String value) {
+        CRC32 crc = new CRC32();
+        crc.update(value.getBytes(StandardCharsets.US_ASCII));
+        return crc.getValue();
+    }
+}
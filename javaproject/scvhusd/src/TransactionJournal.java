@@ -0,0 +1,390 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commit appender for the transaction data files
+ * A single background thread owns long-lived channels on both files, gathers the records
+ * submitted within a short window into one write and forces them according to the fsync policy.
+ * Line items are written (and forced) before the transaction rows that reference them,
+ * so a crash can leave unreferenced line items but never a transaction without its items.
+ * Each batch is written under a lock on the active transactions segment so that appends from
+ * different processes never interleave. Before a batch the journal starts a new segment when
+ * the active one has reached the size limit or was last written on an earlier day; a writer
+ * that finds a newer segment than the one it has open moves on to it, so nothing is ever
+ * appended to a sealed segment.
+ */
+public class TransactionJournal {
+
+    /**
+     * When appended data is forced to disk
+     */
+    public enum FsyncPolicy {
+        /** Force after every batch; futures complete once the batch is on disk */
+        BATCH,
+        /** Force at most every interval; futures complete at the next force */
+        INTERVAL,
+        /** Never force; futures complete once the batch is written to the OS */
+        NEVER;
+
+        public static FsyncPolicy parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * One submitted record: its bytes for each file and the caller's completion future
+     */
+    private static class Entry {
+        final byte[] lineItems;
+        final byte[] transaction;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final long queuedNanos = System.nanoTime();
+
+        Entry(byte[] lineItems, byte[] transaction) {
+            this.lineItems = lineItems;
+            this.transaction = transaction;
+        }
+    }
+
+    /** Queued by {@link #close()} to wake the appender; carries no data */
+    private static final Entry WAKE_UP = new Entry(new byte[0], new byte[0]);
+
+    private final SegmentedFile transactionsFile;
+    private final SegmentedFile lineItemsFile;
+    private final long maxSegmentBytes;
+    private final boolean segmentPerDay;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long batchWindowNanos;
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final List<Entry> awaitingForce = new ArrayList<>();
+    private Thread appender;
+    private volatile boolean closed;
+
+    private FileChannel transactionsChannel;
+    private FileChannel lineItemsChannel;
+    private int openSequence;
+    private long lastForceNanos;
+
+    /**
+     * @param lineItemsFile separate line items file, or null when records embed their line items
+     * @param maxSegmentBytes size at which a new segment is started, or 0 for no limit
+     * @param segmentPerDay whether to start a new segment on the first write of each day
+     * @param fsyncIntervalMillis force interval used by {@link FsyncPolicy#INTERVAL}
+     * @param batchWindowMicros how long to wait for more records after the first one of a batch
+     */
+    public TransactionJournal(SegmentedFile transactionsFile, SegmentedFile lineItemsFile,
+                              long maxSegmentBytes, boolean segmentPerDay, FsyncPolicy fsyncPolicy,
+                              long fsyncIntervalMillis, long batchWindowMicros) {
+        this.transactionsFile = transactionsFile;
+        this.lineItemsFile = lineItemsFile;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.segmentPerDay = segmentPerDay;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+    }
+
+    /**
+     * Queues a record for appending
+     * @param lineItems bytes for the line items file (may be empty)
+     * @param transaction bytes for the transactions file
+     * @return a future that completes once the record is durable under the fsync policy
+     */
+    public CompletableFuture<Void> append(byte[] lineItems, byte[] transaction) {
+        Entry entry = new Entry(lineItems, transaction);
+        synchronized (this) {
+            if (closed) {
+                entry.done.completeExceptionally(new IOException("Journal is closed"));
+                return entry.done;
+            }
+            if (appender == null) {
+                appender = new Thread(this::run, "transaction-journal");
+                appender.setDaemon(true);
+                appender.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(this::close, "transaction-journal-shutdown"));
+            }
+            queue.add(entry);
+        }
+        return entry.done;
+    }
+
+    /**
+     * Stops accepting records, drains the queue and forces everything written
+     */
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = appender;
+        }
+        if (thread != null) {
+            queue.add(WAKE_UP);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Entry first;
+                try {
+                    first = queue.poll(pollTimeoutNanos(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    first = queue.poll();
+                }
+                if (first != null && first != WAKE_UP) {
+                    batch.add(first);
+                    collectBatch(batch);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+                if (!awaitingForce.isEmpty() && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos) {
+                    forceAwaiting();
+                }
+            }
+            if (!awaitingForce.isEmpty()) {
+                forceAwaiting();
+            }
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private long pollTimeoutNanos() {
+        if (awaitingForce.isEmpty()) {
+            return TimeUnit.SECONDS.toNanos(1);
+        }
+        return Math.max(0, fsyncIntervalNanos - (System.nanoTime() - lastForceNanos));
+    }
+
+    /**
+     * Adds every record that arrives within the batch window to the batch
+     */
+    private void collectBatch(List<Entry> batch) {
+        long deadline = System.nanoTime() + batchWindowNanos;
+        while (true) {
+            queue.drainTo(batch);
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || closed) {
+                return;
+            }
+            try {
+                Entry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    return;
+                }
+                batch.add(next);
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        try {
+            FileLock lock = lockActiveSegment();
+            if (segmentFull()) {
+                startNextSegment();
+                lock = lockActiveSegment();
+            }
+
+            try {
+                if (lineItemsChannel != null) {
+                    writeFully(lineItemsChannel, batch, true);
+                    if (fsyncPolicy == FsyncPolicy.BATCH) {
+                        force(lineItemsChannel);
+                    }
+                }
+                writeFully(transactionsChannel, batch, false);
+                if (fsyncPolicy == FsyncPolicy.BATCH) {
+                    force(transactionsChannel);
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            for (Entry entry : batch) {
+                entry.done.completeExceptionally(e);
+            }
+            closeChannels();
+            return;
+        }
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            awaitingForce.addAll(batch);
+        } else {
+            long now = System.nanoTime();
+            for (Entry entry : batch) {
+                StoreMetrics.APPEND_LATENCY.record(now - entry.queuedNanos);
+                entry.done.complete(null);
+            }
+        }
+    }
+
+    private void forceAwaiting() {
+        IOException failure = null;
+        try {
+            if (transactionsChannel == null) {
+                throw new IOException("Journal files were closed after a write error");
+            }
+            if (lineItemsChannel != null) {
+                force(lineItemsChannel);
+            }
+            force(transactionsChannel);
+        } catch (IOException e) {
+            failure = e;
+        }
+        lastForceNanos = System.nanoTime();
+        for (Entry entry : awaitingForce) {
+            if (failure == null) {
+                StoreMetrics.APPEND_LATENCY.record(lastForceNanos - entry.queuedNanos);
+                entry.done.complete(null);
+            } else {
+                entry.done.completeExceptionally(failure);
+            }
+        }
+        awaitingForce.clear();
+    }
+
+    private static void force(FileChannel channel) throws IOException {
+        long start = System.nanoTime();
+        channel.force(false);
+        StoreMetrics.FSYNC_LATENCY.record(System.nanoTime() - start);
+    }
+
+    private static void writeFully(FileChannel channel, List<Entry> batch, boolean lineItems) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>(batch.size());
+        long total = 0;
+        for (Entry entry : batch) {
+            byte[] bytes = lineItems ? entry.lineItems : entry.transaction;
+            if (bytes.length > 0) {
+                buffers.add(ByteBuffer.wrap(bytes));
+                total += bytes.length;
+            }
+        }
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        long written = 0;
+        while (written < total) {
+            written += channel.write(array);
+        }
+    }
+
+    /**
+     * Opens and locks the active segment, moving on to a newer one if another writer started it
+     */
+    private FileLock lockActiveSegment() throws IOException {
+        while (true) {
+            openChannels();
+            FileLock lock = transactionsChannel.lock();
+            if (!Files.exists(transactionsFile.pathFor(openSequence + 1))) {
+                return lock;
+            }
+            lock.release();
+            switchSegments();
+        }
+    }
+
+    /**
+     * Whether the open segment should be sealed before more is written to it
+     */
+    private boolean segmentFull() throws IOException {
+        long size = transactionsChannel.size();
+        if (size == 0) {
+            return false;
+        }
+        if (maxSegmentBytes > 0 && size >= maxSegmentBytes) {
+            return true;
+        }
+        if (segmentPerDay) {
+            LocalDate lastWritten = LocalDate.ofInstant(
+                Files.getLastModifiedTime(transactionsFile.pathFor(openSequence)).toInstant(), ZoneId.systemDefault());
+            return lastWritten.isBefore(LocalDate.now());
+        }
+        return false;
+    }
+
+    /**
+     * Creates the next segment's files, sealing the open ones; called while holding the segment lock
+     */
+    private void startNextSegment() throws IOException {
+        int next = openSequence + 1;
+        Files.createDirectories(transactionsFile.pathFor(next).getParent());
+        // Line items first: a transactions segment never exists without its line items segment
+        if (lineItemsFile != null) {
+            createEmpty(lineItemsFile.pathFor(next));
+        }
+        createEmpty(transactionsFile.pathFor(next));
+        switchSegments();
+    }
+
+    private static void createEmpty(Path file) throws IOException {
+        try {
+            Files.createFile(file);
+        } catch (FileAlreadyExistsException e) {
+            // Started by another writer
+        }
+    }
+
+    /**
+     * Closes the open segment (forcing what is still waiting for it) so the next write opens the newest one
+     */
+    private void switchSegments() {
+        if (!awaitingForce.isEmpty()) {
+            forceAwaiting();
+        }
+        closeChannels();
+    }
+
+    private void openChannels() throws IOException {
+        if (transactionsChannel == null) {
+            openSequence = transactionsFile.activeSequence();
+            if (lineItemsFile != null) {
+                lineItemsChannel = FileChannel.open(lineItemsFile.pathFor(openSequence),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            transactionsChannel = FileChannel.open(transactionsFile.pathFor(openSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            lastForceNanos = System.nanoTime();
+        }
+    }
+
+    private void closeChannels() {
+        for (FileChannel channel : new FileChannel[] { lineItemsChannel, transactionsChannel }) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing journal file: " + e.getMessage());
+                }
+            }
+        }
+        lineItemsChannel = null;
+        transactionsChannel = null;
+    }
+}
@@ -175,12 +175,21 @@ function showMessage(text, ok = false) {
   m.className = 'message ' + (ok ? 'ok' : 'err');
 }
 
-async function loadTransactions() {
-  const res = await fetch('/api/transactions');
-  const list = await res.json();
+const TX_PAGE_SIZE = 50;
+let txCursor = null;
+
+async function loadTransactions(more = false) {
   const div = $('#tx-list');
-  div.innerHTML = '';
-  if (!Array.isArray(list) || list.length === 0) {
+  const moreBtn = $('#tx-more');
+  let url = `/api/transactions?limit=${TX_PAGE_SIZE}`;
+  if (more && txCursor !== null) url += `&after=${txCursor}`;
+  const res = await fetch(url);
+  const page = await res.json();
+  const list = page.transactions || [];
+  if (!more) div.innerHTML = '';
+  txCursor = page.nextCursor ?? null;
+  moreBtn.hidden = txCursor === null;
+  if (!more && list.length === 0) {
     div.innerHTML = '<p>No transactions found.</p>';
     return;
   }
@@ -228,6 +237,7 @@ function init() {
   setupTabs();
   setupPaymentTabs();
   $('#checkout').onclick = checkout;
+  $('#tx-more').onclick = () => loadTransactions(true);
   $('#search')?.addEventListener('input', () => loadProducts());
   $('#clear-cart')?.addEventListener('click', () => { CART = []; persistCart(); renderCart(); });
   restoreCart();